@@ -0,0 +1,75 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.bench;
+
+import java.io.OutputStream;
+
+/**
+ * A benchmark: an operation which is run repeatedly by the
+ * {@link BenchmarkRunner} and timed.
+ * 
+ * @author David Hovemeyer
+ */
+public abstract class Benchmark {
+	/**
+	 * Output stream which discards everything written to it,
+	 * but counts the bytes so the JIT can't eliminate the writes.
+	 */
+	protected static class NullOutputStream extends OutputStream {
+		long count;
+		
+		@Override
+		public void write(int b) {
+			count++;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+	
+	private final String name;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param name the benchmark name, as shown in the report
+	 */
+	protected Benchmark(String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * @return the benchmark name
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Prepare to run the benchmark.  Not timed.
+	 * 
+	 * @throws Exception
+	 */
+	public void setUp() throws Exception {
+	}
+	
+	/**
+	 * Run the operation being measured once.
+	 * 
+	 * @return the number of bytes of input processed
+	 * @throws Exception
+	 */
+	public abstract long run() throws Exception;
+	
+	/**
+	 * Clean up after running the benchmark.  Not timed.
+	 */
+	public void tearDown() {
+	}
+}
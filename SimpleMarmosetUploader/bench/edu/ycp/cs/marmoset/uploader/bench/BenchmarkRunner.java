@@ -0,0 +1,143 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the {@link UploaderBenchmarks} and reports, for each one,
+ * the time per operation, throughput, and bytes allocated per operation.
+ * 
+ * <p>Each benchmark is warmed up (so that the JIT compiler has done
+ * its work), then run for a number of timed iterations; the median
+ * iteration is reported.  Allocation is measured for the calling
+ * thread only, so allocation by worker threads (e.g., in
+ * the parallel archiver) is not included.
+ * 
+ * <pre>
+ * java edu.ycp.cs.marmoset.uploader.bench.BenchmarkRunner [-w warmupSeconds] [-i iterations] [filter...]
+ * </pre>
+ * 
+ * Only benchmarks whose names contain one of the filter strings are run.
+ * 
+ * @author David Hovemeyer
+ */
+public class BenchmarkRunner {
+	private static final long NANOS_PER_SEC = 1000000000L;
+	
+	private int warmupSeconds = 3;
+	private int iterations = 5;
+	private long iterationNanos = NANOS_PER_SEC;
+	private List<String> filters;
+	
+	// Results are accumulated here so the operations can't be optimized away
+	static volatile long sink;
+	
+	public static void main(String[] args) throws Exception {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) {
+			String opt = args[i++];
+			if (opt.equals("-w")) {
+				runner.warmupSeconds = Integer.parseInt(args[i++]);
+			} else if (opt.equals("-i")) {
+				runner.iterations = Integer.parseInt(args[i++]);
+			} else {
+				System.err.println("Usage: java " + BenchmarkRunner.class.getName() + " [-w warmupSeconds] [-i iterations] [filter...]");
+				System.exit(2);
+			}
+		}
+		runner.filters = Arrays.asList(args).subList(i, args.length);
+		runner.runAll(UploaderBenchmarks.getBenchmarks());
+	}
+	
+	private void runAll(List<Benchmark> benchmarks) throws Exception {
+		System.out.println(String.format("%-32s %12s %12s %14s", "Benchmark", "ms/op", "MB/s", "alloc KB/op"));
+		for (Benchmark benchmark : benchmarks) {
+			if (isSelected(benchmark)) {
+				runBenchmark(benchmark);
+			}
+		}
+	}
+	
+	private boolean isSelected(Benchmark benchmark) {
+		if (filters.isEmpty()) {
+			return true;
+		}
+		for (String filter : filters) {
+			if (benchmark.getName().contains(filter)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void runBenchmark(Benchmark benchmark) throws Exception {
+		benchmark.setUp();
+		try {
+			// Warm up
+			long warmupEnd = System.nanoTime() + warmupSeconds * NANOS_PER_SEC;
+			while (System.nanoTime() < warmupEnd) {
+				sink += benchmark.run();
+			}
+			
+			double[] nanosPerOp = new double[iterations];
+			double[] bytesPerOp = new double[iterations];
+			double[] allocPerOp = new double[iterations];
+			for (int i = 0; i < iterations; i++) {
+				long allocStart = getAllocatedBytes();
+				long start = System.nanoTime();
+				long end = start + iterationNanos;
+				long ops = 0L;
+				long bytes = 0L;
+				long now;
+				do {
+					bytes += benchmark.run();
+					ops++;
+					now = System.nanoTime();
+				} while (now < end);
+				long allocEnd = getAllocatedBytes();
+				
+				nanosPerOp[i] = (double) (now - start) / ops;
+				bytesPerOp[i] = (double) bytes / ops;
+				allocPerOp[i] = allocStart >= 0 ? (double) (allocEnd - allocStart) / ops : Double.NaN;
+				sink += bytes;
+			}
+			
+			double nanos = median(nanosPerOp);
+			double mbPerSec = (median(bytesPerOp) / (1024.0 * 1024.0)) / (nanos / NANOS_PER_SEC);
+			System.out.println(String.format("%-32s %12.3f %12.1f %14.1f",
+					benchmark.getName(), nanos / 1000000.0, mbPerSec, median(allocPerOp) / 1024.0));
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+	
+	private static double median(double[] values) {
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+	
+	/**
+	 * @return bytes allocated by the current thread so far, or -1 if
+	 *         the JVM doesn't support measuring it
+	 */
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1L;
+	}
+}
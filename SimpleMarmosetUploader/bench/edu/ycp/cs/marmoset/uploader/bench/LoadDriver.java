@@ -0,0 +1,220 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+
+import edu.ycp.cs.marmoset.uploader.core.ArchiveMonitor;
+import edu.ycp.cs.marmoset.uploader.core.ArchiveSource;
+import edu.ycp.cs.marmoset.uploader.core.Archiver;
+import edu.ycp.cs.marmoset.uploader.core.CountingOutputStream;
+import edu.ycp.cs.marmoset.uploader.core.DirectoryScanner;
+import edu.ycp.cs.marmoset.uploader.core.Result;
+import edu.ycp.cs.marmoset.uploader.core.SubmitConfig;
+import edu.ycp.cs.marmoset.uploader.core.SubmitIgnore;
+import edu.ycp.cs.marmoset.uploader.core.Uploader;
+import edu.ycp.cs.marmoset.uploader.core.ZipContentBody;
+
+/**
+ * Load driver: makes a number of concurrent submissions of a
+ * {@link SyntheticTree}, and reports latency percentiles, throughput,
+ * and the outcomes of the submissions.  By default the submissions go
+ * to an embedded {@link StandInServer}; they can also be sent to a
+ * real server.
+ *
+ * <pre>
+ * java edu.ycp.cs.marmoset.uploader.bench.LoadDriver [-n submissions] [-c concurrency]
+ *     [-tree tiny_files|huge_files|compressed] [-latency ms] [-errors fraction]
+ *     [-throttle bytesPerSecond] [-url submitURL -u username -pw password]
+ * </pre>
+ *
+ * @author David Hovemeyer
+ */
+public class LoadDriver {
+	private int submissions = 100;
+	private int concurrency = 8;
+	private SyntheticTree tree = SyntheticTree.TINY_FILES;
+	private int latencyMillis;
+	private double errorRate;
+	private long throttle;
+	private String submitUrl;
+	private String username = "student";
+	private String password = "secret";
+
+	/**
+	 * The outcome of one submission.
+	 */
+	private static class Sample {
+		final long nanos;
+		final String outcome;
+
+		Sample(long nanos, String outcome) {
+			this.nanos = nanos;
+			this.outcome = outcome;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoadDriver driver = new LoadDriver();
+		if (!driver.parseArgs(args)) {
+			System.err.println("Usage: java " + LoadDriver.class.getName() + " [-n submissions] [-c concurrency]"
+					+ " [-tree tiny_files|huge_files|compressed] [-latency ms] [-errors fraction]"
+					+ " [-throttle bytesPerSecond] [-url submitURL -u username -pw password]");
+			System.exit(2);
+		}
+		driver.run();
+	}
+
+	private boolean parseArgs(String[] args) {
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String opt = args[i];
+				String value = args[++i];
+				if (opt.equals("-n")) {
+					submissions = Integer.parseInt(value);
+				} else if (opt.equals("-c")) {
+					concurrency = Integer.parseInt(value);
+				} else if (opt.equals("-tree")) {
+					tree = SyntheticTree.valueOf(value.toUpperCase(Locale.ENGLISH));
+				} else if (opt.equals("-latency")) {
+					latencyMillis = Integer.parseInt(value);
+				} else if (opt.equals("-errors")) {
+					errorRate = Double.parseDouble(value);
+				} else if (opt.equals("-throttle")) {
+					throttle = Long.parseLong(value);
+				} else if (opt.equals("-url")) {
+					submitUrl = value;
+				} else if (opt.equals("-u")) {
+					username = value;
+				} else if (opt.equals("-pw")) {
+					password = value;
+				} else {
+					return false;
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			return false;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		return submissions > 0 && concurrency > 0;
+	}
+
+	private void run() throws Exception {
+		StandInServer server = null;
+		if (submitUrl == null) {
+			server = new StandInServer();
+			server.addUser(username, password);
+			server.setLatency(latencyMillis);
+			server.setErrorRate(errorRate);
+			server.setThrottle(throttle);
+			server.start(0, concurrency);
+			submitUrl = server.getSubmitUrl();
+		}
+
+		File root = tree.create();
+		HttpClient client = Uploader.createHttpClient(concurrency, concurrency);
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		try {
+			final List<ArchiveSource> files = DirectoryScanner.scan(root, new SubmitIgnore()).getSources();
+			final Properties submitProperties = new Properties();
+			submitProperties.setProperty(SubmitConfig.PROP_SUBMIT_URL, submitUrl);
+			submitProperties.setProperty(SubmitConfig.PROP_SEMESTER, "Fall 2014");
+			submitProperties.setProperty(SubmitConfig.PROP_COURSE_NAME, "CS 101");
+			submitProperties.setProperty(SubmitConfig.PROP_PROJECT_NUMBER, "p1");
+
+			// Size of the archive, for computing throughput
+			CountingOutputStream counter = new CountingOutputStream(new Benchmark.NullOutputStream());
+			new Archiver(files).writeZip(counter, ArchiveMonitor.NULL);
+			long archiveSize = counter.getCount();
+
+			System.out.println("Submitting " + tree.name().toLowerCase(Locale.ENGLISH) + " (" + files.size() + " files, "
+					+ (archiveSize / 1024) + " KB zipped) " + submissions + " times, " + concurrency + " at a time, to " + submitUrl);
+
+			final HttpClient sharedClient = client;
+			List<Future<Sample>> futures = new ArrayList<Future<Sample>>();
+			long start = System.nanoTime();
+			for (int i = 0; i < submissions; i++) {
+				futures.add(executor.submit(new Callable<Sample>() {
+					public Sample call() {
+						return submit(sharedClient, files, submitProperties);
+					}
+				}));
+			}
+
+			List<Sample> samples = new ArrayList<Sample>();
+			for (Future<Sample> future : futures) {
+				samples.add(future.get());
+			}
+			long elapsed = System.nanoTime() - start;
+
+			report(samples, elapsed, archiveSize);
+		} finally {
+			executor.shutdownNow();
+			client.getConnectionManager().shutdown();
+			SyntheticTree.delete(root);
+			if (server != null) {
+				server.stop();
+			}
+		}
+	}
+
+	private Sample submit(HttpClient client, List<ArchiveSource> files, Properties submitProperties) {
+		long start = System.nanoTime();
+		String outcome;
+		try {
+			HttpPost post = Uploader.createSubmitRequest(submitProperties,
+					new ZipContentBody(new Archiver(files), ArchiveMonitor.NULL), username, password);
+			Result result = Uploader.sendToServer(client, post, Uploader.getDeadline(submitProperties));
+			outcome = "HTTP " + result.getHttpCode();
+		} catch (Exception e) {
+			outcome = e.getClass().getSimpleName();
+		}
+		return new Sample(System.nanoTime() - start, outcome);
+	}
+
+	private void report(List<Sample> samples, long elapsedNanos, long archiveSize) {
+		long[] latencies = new long[samples.size()];
+		Map<String, Integer> outcomes = new TreeMap<String, Integer>();
+		for (int i = 0; i < samples.size(); i++) {
+			Sample sample = samples.get(i);
+			latencies[i] = sample.nanos;
+			Integer count = outcomes.get(sample.outcome);
+			outcomes.put(sample.outcome, count != null ? count + 1 : 1);
+		}
+		Arrays.sort(latencies);
+
+		double seconds = elapsedNanos / 1e9;
+		System.out.println(String.format("Latency (ms): p50 %.1f, p90 %.1f, p99 %.1f, max %.1f",
+				percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+				latencies[latencies.length - 1] / 1e6));
+		System.out.println(String.format("Throughput: %.1f submissions/s, %.2f MB/s",
+				samples.size() / seconds, (samples.size() * (double) archiveSize) / (1024.0 * 1024.0) / seconds));
+		for (Map.Entry<String, Integer> e : outcomes.entrySet()) {
+			System.out.println("  " + e.getKey() + ": " + e.getValue());
+		}
+	}
+
+	private static double percentile(long[] sorted, int p) {
+		int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+	}
+}
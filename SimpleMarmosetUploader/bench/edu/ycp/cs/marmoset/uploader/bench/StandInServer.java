@@ -0,0 +1,383 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the Marmoset BlueJ submit servlet, for
+ * exercising the uploader without a real Marmoset server.
+ * It parses the multipart form fields sent by the uploader, checks
+ * the username and password, and checks that the submitted file
+ * is a readable zip archive.  Latency, server errors, and the rate
+ * at which request bodies are read can be configured, to see how
+ * the client behaves when the server is slow or failing.
+ *
+ * <p>Run it on its own to point a .submit file at it:
+ * <pre>
+ * java edu.ycp.cs.marmoset.uploader.bench.StandInServer [-p port] [-u username:password]...
+ *     [-latency ms] [-errors fraction] [-throttle bytesPerSecond]
+ * </pre>
+ *
+ * @author David Hovemeyer
+ */
+public class StandInServer {
+	/** Path of the submit servlet (the uploader always submits here). */
+	public static final String SUBMIT_PATH = "/bluej/SubmitProjectViaBlueJSubmitter";
+
+	/** Maximum size of a request body which will be accepted. */
+	private static final int MAX_REQUEST_SIZE = 256 * 1024 * 1024;
+
+	private final Map<String, String> users = new ConcurrentHashMap<String, String>();
+	private volatile int latencyMillis;
+	private volatile double errorRate;
+	private volatile long throttleBytesPerSecond;
+	private final Random random = new Random();
+	private final AtomicInteger submissionCount = new AtomicInteger();
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * Add a user who is allowed to submit.
+	 *
+	 * @param username  the username
+	 * @param password  the password
+	 */
+	public void addUser(String username, String password) {
+		users.put(username, password);
+	}
+
+	/**
+	 * Set the delay before each response is sent.
+	 *
+	 * @param latencyMillis the delay in milliseconds
+	 */
+	public void setLatency(int latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * Set the fraction of submissions which fail with an HTTP 500 error.
+	 *
+	 * @param errorRate fraction between 0 and 1
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * Limit the rate at which each request body is read.
+	 *
+	 * @param bytesPerSecond the limit, or 0 for no limit
+	 */
+	public void setThrottle(long bytesPerSecond) {
+		this.throttleBytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * @return the number of submissions accepted so far
+	 */
+	public int getSubmissionCount() {
+		return submissionCount.get();
+	}
+
+	/**
+	 * Start the server.
+	 *
+	 * @param port      port to listen on, or 0 to choose any free port
+	 * @param nThreads  number of requests to handle concurrently
+	 * @throws IOException
+	 */
+	public void start(int port, int nThreads) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext(SUBMIT_PATH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					handleSubmission(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		executor = Executors.newFixedThreadPool(nThreads);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Stop the server.
+	 */
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return the submit URL to put in a .submit file
+	 */
+	public String getSubmitUrl() {
+		return "http://localhost:" + server.getAddress().getPort() + "/eclipse/SubmitProjectViaEclipse";
+	}
+
+	private void handleSubmission(HttpExchange exchange) throws IOException {
+		if (!exchange.getRequestMethod().equals("POST")) {
+			respond(exchange, 405, "POST required");
+			return;
+		}
+
+		String boundary = getBoundary(exchange.getRequestHeaders().getFirst("Content-Type"));
+		if (boundary == null) {
+			respond(exchange, 400, "Expected multipart/form-data");
+			return;
+		}
+
+		byte[] body;
+		try {
+			body = readBody(exchange.getRequestBody());
+		} catch (IOException e) {
+			respond(exchange, 400, "Could not read request: " + e.getMessage());
+			return;
+		}
+
+		Map<String, byte[]> parts = parseMultipart(body, boundary);
+		if (parts == null) {
+			respond(exchange, 400, "Malformed multipart request");
+			return;
+		}
+
+		sleep(latencyMillis);
+
+		if (errorRate > 0 && nextDouble() < errorRate) {
+			respond(exchange, 500, "Internal server error (simulated)");
+			return;
+		}
+
+		for (String field : new String[]{"campusUID", "password", "courseName", "semester", "projectNumber", "submittedFiles"}) {
+			if (!parts.containsKey(field)) {
+				respond(exchange, 400, "Missing " + field + " parameter");
+				return;
+			}
+		}
+
+		String username = new String(parts.get("campusUID"), "UTF-8");
+		String password = new String(parts.get("password"), "UTF-8");
+		String expectedPassword = users.get(username);
+		if (expectedPassword == null) {
+			respond(exchange, 403, "Cannot find user " + username);
+			return;
+		}
+		if (!expectedPassword.equals(password)) {
+			respond(exchange, 403, "Wrong password for " + username);
+			return;
+		}
+
+		int entries = countZipEntries(parts.get("submittedFiles"));
+		if (entries < 0) {
+			respond(exchange, 400, "Submitted file is not a valid zip archive");
+			return;
+		}
+
+		int n = submissionCount.incrementAndGet();
+		respond(exchange, 200, "Successful submission #" + n + " (" + entries + " files) received for project "
+				+ new String(parts.get("projectNumber"), "UTF-8"));
+	}
+
+	private synchronized double nextDouble() {
+		return random.nextDouble();
+	}
+
+	private byte[] readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		long start = System.currentTimeMillis();
+		long total = 0L;
+		int n;
+		while ((n = in.read(buf)) >= 0) {
+			out.write(buf, 0, n);
+			total += n;
+			if (total > MAX_REQUEST_SIZE) {
+				throw new IOException("Request too large");
+			}
+			long throttle = throttleBytesPerSecond;
+			if (throttle > 0) {
+				// Sleep until the average rate is back under the limit
+				long due = start + (total * 1000L) / throttle;
+				sleep(due - System.currentTimeMillis());
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static String getBoundary(String contentType) {
+		if (contentType == null || !contentType.startsWith("multipart/form-data")) {
+			return null;
+		}
+		int i = contentType.indexOf("boundary=");
+		if (i < 0) {
+			return null;
+		}
+		String boundary = contentType.substring(i + "boundary=".length());
+		int semi = boundary.indexOf(';');
+		if (semi >= 0) {
+			boundary = boundary.substring(0, semi);
+		}
+		if (boundary.startsWith("\"") && boundary.endsWith("\"") && boundary.length() >= 2) {
+			boundary = boundary.substring(1, boundary.length() - 1);
+		}
+		return boundary;
+	}
+
+	/**
+	 * Parse a multipart/form-data body.
+	 *
+	 * @return map of field names to values, or null if the body is malformed
+	 */
+	private static Map<String, byte[]> parseMultipart(byte[] body, String boundary) throws IOException {
+		byte[] delimiter = ("\r\n--" + boundary).getBytes("US-ASCII");
+		Map<String, byte[]> parts = new HashMap<String, byte[]>();
+
+		// The first delimiter isn't preceded by CRLF
+		int pos = indexOf(body, ("--" + boundary).getBytes("US-ASCII"), 0);
+		if (pos < 0) {
+			return null;
+		}
+		pos += delimiter.length - 2;
+
+		while (true) {
+			// "--" after the delimiter marks the end
+			if (pos + 2 <= body.length && body[pos] == '-' && body[pos + 1] == '-') {
+				return parts;
+			}
+			pos += 2; // CRLF
+			int headersEnd = indexOf(body, "\r\n\r\n".getBytes("US-ASCII"), pos);
+			if (headersEnd < 0) {
+				return null;
+			}
+			String headers = new String(body, pos, headersEnd - pos, "UTF-8");
+			int dataStart = headersEnd + 4;
+			int dataEnd = indexOf(body, delimiter, dataStart);
+			if (dataEnd < 0) {
+				return null;
+			}
+			String name = getFieldName(headers);
+			if (name != null) {
+				byte[] value = new byte[dataEnd - dataStart];
+				System.arraycopy(body, dataStart, value, 0, value.length);
+				parts.put(name, value);
+			}
+			pos = dataEnd + delimiter.length;
+		}
+	}
+
+	private static String getFieldName(String headers) {
+		int i = headers.indexOf("name=\"");
+		if (i < 0) {
+			return null;
+		}
+		int start = i + "name=\"".length();
+		int end = headers.indexOf('"', start);
+		return end >= 0 ? headers.substring(start, end) : null;
+	}
+
+	private static int indexOf(byte[] data, byte[] pattern, int from) {
+		outer:
+		for (int i = from; i <= data.length - pattern.length; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (data[i + j] != pattern[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static int countZipEntries(byte[] zip) {
+		ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip));
+		try {
+			int count = 0;
+			byte[] buf = new byte[8192];
+			ZipEntry entry;
+			while ((entry = in.getNextEntry()) != null) {
+				if (!entry.isDirectory()) {
+					count++;
+				}
+				// Read the entry to check its CRC
+				while (in.read(buf) >= 0) {
+				}
+			}
+			return count;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] body = message.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	private static void sleep(long millis) {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		StandInServer server = new StandInServer();
+		int port = 8080;
+		for (int i = 0; i < args.length; i++) {
+			String opt = args[i];
+			if (opt.equals("-p") && i + 1 < args.length) {
+				port = Integer.parseInt(args[++i]);
+			} else if (opt.equals("-u") && i + 1 < args.length) {
+				String[] user = args[++i].split(":", 2);
+				server.addUser(user[0], user.length > 1 ? user[1] : "");
+			} else if (opt.equals("-latency") && i + 1 < args.length) {
+				server.setLatency(Integer.parseInt(args[++i]));
+			} else if (opt.equals("-errors") && i + 1 < args.length) {
+				server.setErrorRate(Double.parseDouble(args[++i]));
+			} else if (opt.equals("-throttle") && i + 1 < args.length) {
+				server.setThrottle(Long.parseLong(args[++i]));
+			} else {
+				System.err.println("Usage: java " + StandInServer.class.getName()
+						+ " [-p port] [-u username:password]... [-latency ms] [-errors fraction] [-throttle bytesPerSecond]");
+				System.exit(2);
+			}
+		}
+		server.start(port, 16);
+		System.out.println("Listening: use submitURL=" + server.getSubmitUrl());
+	}
+}
@@ -0,0 +1,117 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import edu.ycp.cs.marmoset.uploader.core.IOUtil;
+
+/**
+ * Synthetic project trees used as benchmark inputs.  Trees are
+ * generated with a fixed random seed, so every run sees the same data.
+ * 
+ * @author David Hovemeyer
+ */
+public enum SyntheticTree {
+	/** Many small source files, as in a typical student project. */
+	TINY_FILES(2000, 400, 20, false),
+	
+	/** A few large, compressible files (e.g., data sets). */
+	HUGE_FILES(3, 24 * 1024 * 1024, 1, false),
+	
+	/** Already-compressed binaries (e.g., jars and images), which don't deflate. */
+	COMPRESSED(60, 256 * 1024, 4, true);
+	
+	private static final String[] WORDS = {
+		"public", "static", "void", "int", "return", "if", "else", "for",
+		"while", "class", "new", "String", "this", "null", "true", "false",
+		"{", "}", "(", ")", ";", "=", "+", "i", "count", "result", "list",
+	};
+	
+	private final int fileCount;
+	private final int fileSize;
+	private final int dirCount;
+	private final boolean random;
+	
+	private SyntheticTree(int fileCount, int fileSize, int dirCount, boolean random) {
+		this.fileCount = fileCount;
+		this.fileSize = fileSize;
+		this.dirCount = dirCount;
+		this.random = random;
+	}
+	
+	/**
+	 * @return total size of the files in the tree
+	 */
+	public long getTotalSize() {
+		return (long) fileCount * fileSize;
+	}
+	
+	/**
+	 * Create the tree in a new temporary directory.
+	 * 
+	 * @return the root directory of the tree
+	 * @throws IOException
+	 */
+	public File create() throws IOException {
+		File root = File.createTempFile("marmosetBench", "");
+		root.delete();
+		if (!root.mkdir()) {
+			throw new IOException("Could not create " + root);
+		}
+		
+		Random rng = new Random(fileCount * 31L + fileSize);
+		for (int i = 0; i < fileCount; i++) {
+			File dir = new File(root, "src/pkg" + (i % dirCount));
+			dir.mkdirs();
+			File file = new File(dir, (random ? "Lib" : "File") + i + (random ? ".jar" : ".java"));
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+			try {
+				if (random) {
+					byte[] buf = new byte[fileSize];
+					rng.nextBytes(buf);
+					out.write(buf);
+				} else {
+					writeText(out, fileSize, rng);
+				}
+			} finally {
+				IOUtil.closeQuietly(out);
+			}
+		}
+		return root;
+	}
+	
+	private static void writeText(OutputStream out, int size, Random rng) throws IOException {
+		int written = 0;
+		while (written < size) {
+			byte[] word = (WORDS[rng.nextInt(WORDS.length)] + (rng.nextInt(8) == 0 ? "\n" : " ")).getBytes("US-ASCII");
+			int n = Math.min(word.length, size - written);
+			out.write(word, 0, n);
+			written += n;
+		}
+	}
+	
+	/**
+	 * Delete a tree created by {@link #create()}.
+	 * 
+	 * @param dir the root directory of the tree
+	 */
+	public static void delete(File dir) {
+		File[] children = dir.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		dir.delete();
+	}
+}
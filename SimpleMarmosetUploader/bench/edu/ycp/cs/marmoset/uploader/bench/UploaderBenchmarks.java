@@ -0,0 +1,227 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.mime.content.FileBody;
+
+import edu.ycp.cs.marmoset.uploader.core.ArchiveMonitor;
+import edu.ycp.cs.marmoset.uploader.core.ArchiveSource;
+import edu.ycp.cs.marmoset.uploader.core.Archiver;
+import edu.ycp.cs.marmoset.uploader.core.ContentDigest;
+import edu.ycp.cs.marmoset.uploader.core.DirectoryScanner;
+import edu.ycp.cs.marmoset.uploader.core.IOUtil;
+import edu.ycp.cs.marmoset.uploader.core.Manifest;
+import edu.ycp.cs.marmoset.uploader.core.SubmitConfig;
+import edu.ycp.cs.marmoset.uploader.core.SubmitIgnore;
+import edu.ycp.cs.marmoset.uploader.core.Uploader;
+
+/**
+ * Benchmarks for the scan, archive, copy, hash, and request encoding
+ * stages of a submission, on each {@link SyntheticTree}.
+ * 
+ * @author David Hovemeyer
+ */
+public abstract class UploaderBenchmarks {
+	/**
+	 * Base class for benchmarks which operate on the files
+	 * of a synthetic tree.
+	 */
+	private static abstract class TreeBenchmark extends Benchmark {
+		private final SyntheticTree shape;
+		File root;
+		List<ArchiveSource> files;
+		
+		TreeBenchmark(String name, SyntheticTree shape) {
+			super(name + "/" + shape.name().toLowerCase(Locale.ENGLISH));
+			this.shape = shape;
+		}
+		
+		@Override
+		public void setUp() throws Exception {
+			root = shape.create();
+			files = DirectoryScanner.scan(root, new SubmitIgnore()).getSources();
+		}
+		
+		@Override
+		public void tearDown() {
+			SyntheticTree.delete(root);
+		}
+		
+		long getTotalSize() {
+			return shape.getTotalSize();
+		}
+	}
+	
+	/**
+	 * Write a zip archive, compressing one file at a time.
+	 */
+	private static class ArchiveSequential extends TreeBenchmark {
+		ArchiveSequential(SyntheticTree shape) {
+			super("archive.sequential", shape);
+		}
+		
+		@Override
+		public long run() throws Exception {
+			new Archiver(files).writeZipSequential(new NullOutputStream(), ArchiveMonitor.NULL);
+			return getTotalSize();
+		}
+	}
+	
+	/**
+	 * Scan the tree and compute the fingerprint of its manifest.
+	 * Only metadata is read, so the MB/s figure is relative to
+	 * the size of the files scanned.
+	 */
+	private static class Scan extends TreeBenchmark {
+		Scan(SyntheticTree shape) {
+			super("scan", shape);
+		}
+		
+		@Override
+		public long run() throws Exception {
+			Manifest manifest = DirectoryScanner.scan(root, new SubmitIgnore());
+			manifest.getFingerprint();
+			return manifest.getTotalSize();
+		}
+	}
+	
+	/**
+	 * Write a zip archive, compressing files in parallel.
+	 */
+	private static class ArchiveParallel extends TreeBenchmark {
+		ArchiveParallel(SyntheticTree shape) {
+			super("archive.parallel", shape);
+		}
+		
+		@Override
+		public long run() throws Exception {
+			int nThreads = Runtime.getRuntime().availableProcessors();
+			new Archiver(files).writeZipParallel(new NullOutputStream(), nThreads, ArchiveMonitor.NULL);
+			return getTotalSize();
+		}
+	}
+	
+	/**
+	 * Read every file with {@link IOUtil#copy(InputStream, java.io.OutputStream)}.
+	 */
+	private static class Copy extends TreeBenchmark {
+		Copy(SyntheticTree shape) {
+			super("copy", shape);
+		}
+		
+		@Override
+		public long run() throws Exception {
+			NullOutputStream out = new NullOutputStream();
+			for (ArchiveSource file : files) {
+				InputStream in = file.open();
+				try {
+					IOUtil.copy(in, out);
+				} finally {
+					IOUtil.closeQuietly(in);
+				}
+			}
+			return out.count;
+		}
+	}
+	
+	/**
+	 * Compute the content digest of every file, as done when
+	 * checking whether a project has changed.
+	 */
+	private static class Hash extends TreeBenchmark {
+		Hash(SyntheticTree shape) {
+			super("hash", shape);
+		}
+		
+		@Override
+		public long run() throws Exception {
+			ContentDigest contentDigest = new ContentDigest();
+			byte[] buf = new byte[4096];
+			long total = 0L;
+			for (ArchiveSource file : files) {
+				MessageDigest md = ContentDigest.newEntryDigest();
+				InputStream in = file.open();
+				try {
+					int n;
+					while ((n = in.read(buf)) >= 0) {
+						md.update(buf, 0, n);
+						total += n;
+					}
+				} finally {
+					IOUtil.closeQuietly(in);
+				}
+				contentDigest.addEntry(file.getName(), md.digest());
+			}
+			contentDigest.finish();
+			return total;
+		}
+	}
+	
+	/**
+	 * Build the multipart submit request for an existing zip file,
+	 * and encode it (as it would be sent) to a discarding stream.
+	 */
+	private static class Encode extends TreeBenchmark {
+		private File zipFile;
+		private Properties submitProperties;
+		
+		Encode(SyntheticTree shape) {
+			super("encode", shape);
+		}
+		
+		@Override
+		public void setUp() throws Exception {
+			super.setUp();
+			zipFile = new Archiver(files).createZipFile(ArchiveMonitor.NULL);
+			submitProperties = new Properties();
+			submitProperties.setProperty(SubmitConfig.PROP_SUBMIT_URL, "https://localhost/eclipse/SubmitProjectViaEclipse");
+			submitProperties.setProperty(SubmitConfig.PROP_SEMESTER, "Fall 2014");
+			submitProperties.setProperty(SubmitConfig.PROP_COURSE_NAME, "CS 101");
+			submitProperties.setProperty(SubmitConfig.PROP_PROJECT_NUMBER, "p1");
+		}
+		
+		@Override
+		public long run() throws Exception {
+			HttpPost post = Uploader.createSubmitRequest(submitProperties, new FileBody(zipFile, "application/zip"), "alice", "secret");
+			NullOutputStream out = new NullOutputStream();
+			post.getEntity().writeTo(out);
+			return zipFile.length();
+		}
+		
+		@Override
+		public void tearDown() {
+			zipFile.delete();
+			super.tearDown();
+		}
+	}
+	
+	/**
+	 * @return all of the benchmarks
+	 */
+	public static List<Benchmark> getBenchmarks() {
+		List<Benchmark> result = new ArrayList<Benchmark>();
+		for (SyntheticTree shape : SyntheticTree.values()) {
+			result.add(new Scan(shape));
+			result.add(new ArchiveSequential(shape));
+			result.add(new ArchiveParallel(shape));
+			result.add(new Copy(shape));
+			result.add(new Hash(shape));
+			result.add(new Encode(shape));
+		}
+		return result;
+	}
+}
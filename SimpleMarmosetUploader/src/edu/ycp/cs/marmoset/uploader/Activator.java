@@ -1,10 +1,24 @@
 package edu.ycp.cs.marmoset.uploader;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.http.client.HttpClient;
+import org.eclipse.core.resources.IProject;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
 
+import edu.ycp.cs.marmoset.uploader.core.EntryCache;
+import edu.ycp.cs.marmoset.uploader.core.SubmissionHistory;
+import edu.ycp.cs.marmoset.uploader.core.Uploader;
+import edu.ycp.cs.marmoset.uploader.handlers.SubmissionQueue;
+import edu.ycp.cs.marmoset.uploader.handlers.SubmitConfigCache;
+import edu.ycp.cs.marmoset.uploader.handlers.SubmitWatcher;
+
 /**
  * The activator class controls the plug-in life cycle
  */
@@ -16,6 +30,20 @@ public class Activator extends AbstractUIPlugin {
 	// The shared instance
 	private static Activator plugin;
 	
+	// Max connections in the shared HttpClient's pool
+	private static final int MAX_CONNECTIONS = 20;
+	private static final int MAX_CONNECTIONS_PER_ROUTE = 4;
+	
+	// Shared HttpClient: created on demand
+	private HttpClient httpClient;
+	
+	// Per-project caches of compressed archive entries
+	private final Map<String, EntryCache> entryCacheMap = new HashMap<String, EntryCache>();
+	
+	// History of submissions: opened on demand
+	private SubmissionHistory submissionHistory;
+	private boolean submissionHistoryFailed;
+	
 	/**
 	 * The constructor
 	 */
@@ -29,6 +57,13 @@ public class Activator extends AbstractUIPlugin {
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+		
+		// You'd think getting the version of an Eclipse plugin would be easy,
+		// but it's not.
+		String pluginVersion = (String) getBundle().getHeaders().get("Bundle-Version");
+		if (pluginVersion != null) {
+			Uploader.setClientVersion(pluginVersion);
+		}
 	}
 
 	/*
@@ -36,10 +71,72 @@ public class Activator extends AbstractUIPlugin {
 	 * @see org.eclipse.ui.plugin.AbstractUIPlugin#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(BundleContext context) throws Exception {
+		SubmitWatcher.shutdown();
+		SubmissionQueue.shutdown();
+		SubmitConfigCache.shutdown();
+		synchronized (this) {
+			if (httpClient != null) {
+				httpClient.getConnectionManager().shutdown();
+				httpClient = null;
+			}
+		}
 		plugin = null;
 		super.stop(context);
 	}
 
+	/**
+	 * Get the shared HttpClient.  It pools connections, so that
+	 * repeated requests to the same server can reuse them.
+	 * The default timeouts can be overridden using the parameters
+	 * of individual requests.
+	 * 
+	 * @return the shared HttpClient
+	 */
+	public synchronized HttpClient getHttpClient() {
+		if (httpClient == null) {
+			httpClient = Uploader.createHttpClient(MAX_CONNECTIONS, MAX_CONNECTIONS_PER_ROUTE);
+		}
+		return httpClient;
+	}
+
+	/**
+	 * Get the cache of compressed archive entries for given project.
+	 * The cache is kept in the plugin state location.
+	 * 
+	 * @param project the project
+	 * @return the project's entry cache
+	 */
+	public EntryCache getEntryCache(IProject project) {
+		synchronized (entryCacheMap) {
+			EntryCache cache = entryCacheMap.get(project.getName());
+			if (cache == null) {
+				File dir = getStateLocation().append("entryCache").append(project.getName()).toFile();
+				cache = new EntryCache(dir, EntryCache.DEFAULT_MAX_SIZE);
+				entryCacheMap.put(project.getName(), cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Get the history of submissions.
+	 * The history is kept in the plugin state location.
+	 * 
+	 * @return the submission history, or null if it can't be opened
+	 */
+	public synchronized SubmissionHistory getSubmissionHistory() {
+		if (submissionHistory == null && !submissionHistoryFailed) {
+			try {
+				submissionHistory = new SubmissionHistory(getStateLocation().append("history").toFile());
+			} catch (IOException e) {
+				// Don't keep trying
+				submissionHistoryFailed = true;
+				logMessage("Could not open submission history: " + e.getMessage());
+			}
+		}
+		return submissionHistory;
+	}
+
 	/**
 	 * Send a message to the Eclipse log.
 	 * Useful for debugging.
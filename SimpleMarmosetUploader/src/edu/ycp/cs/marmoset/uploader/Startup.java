@@ -0,0 +1,22 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader;
+
+import org.eclipse.ui.IStartup;
+
+import edu.ycp.cs.marmoset.uploader.handlers.SubmissionQueue;
+
+/**
+ * Resume retrying queued submissions when the workbench starts.
+ * 
+ * @author David Hovemeyer
+ */
+public class Startup implements IStartup {
+	public void earlyStartup() {
+		SubmissionQueue.getInstance().start();
+	}
+}
@@ -0,0 +1,309 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.cli;
+
+import java.io.Console;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.mime.content.ContentBody;
+import org.apache.http.entity.mime.content.FileBody;
+
+import edu.ycp.cs.marmoset.uploader.core.ArchiveMonitor;
+import edu.ycp.cs.marmoset.uploader.core.ArchivePreview;
+import edu.ycp.cs.marmoset.uploader.core.ArchiveSource;
+import edu.ycp.cs.marmoset.uploader.core.Archiver;
+import edu.ycp.cs.marmoset.uploader.core.CompressionPolicy;
+import edu.ycp.cs.marmoset.uploader.core.DirectoryScanner;
+import edu.ycp.cs.marmoset.uploader.core.IOUtil;
+import edu.ycp.cs.marmoset.uploader.core.Manifest;
+import edu.ycp.cs.marmoset.uploader.core.Result;
+import edu.ycp.cs.marmoset.uploader.core.SizeBudget;
+import edu.ycp.cs.marmoset.uploader.core.SizeBudgetException;
+import edu.ycp.cs.marmoset.uploader.core.SubmitConfig;
+import edu.ycp.cs.marmoset.uploader.core.SubmitIgnore;
+import edu.ycp.cs.marmoset.uploader.core.Uploader;
+import edu.ycp.cs.marmoset.uploader.core.ZipContentBody;
+
+/**
+ * Headless command line submitter: submits one or more project
+ * directories (each containing a .submit file) without Eclipse,
+ * several at a time.  Useful for instructors checking an assignment
+ * setup, or for submitting many projects in bulk.
+ *
+ * <pre>
+ * java edu.ycp.cs.marmoset.uploader.cli.SubmitMain [options] dir...
+ *   -u username   username (required)
+ *   -i inbox      project number to submit to, if the .submit file lists several
+ *   -j n          number of projects to submit concurrently (default 4)
+ *   -n            dry run: show which files would be submitted, and estimate
+ *                 the size of the archive, without contacting the server
+ * </pre>
+ *
+ * The password (not needed for a dry run) is read from the MARMOSET_PASSWORD environment variable
+ * if it is set, otherwise from the console.  Only the core package and
+ * the Apache HttpComponents libraries are needed on the classpath.
+ * The exit code is 0 if every project was submitted successfully, 1 otherwise.
+ *
+ * @author David Hovemeyer
+ */
+public class SubmitMain {
+	private static final int DEFAULT_CONCURRENCY = 4;
+
+	/**
+	 * Outcome of the submission of one project directory:
+	 * the server's response, or a description of why the
+	 * project couldn't be submitted.
+	 */
+	private static class Outcome {
+		final Result result;
+		final String error;
+
+		Outcome(Result result) {
+			this.result = result;
+			this.error = null;
+		}
+
+		Outcome(String error) {
+			this.result = null;
+			this.error = error;
+		}
+
+		boolean isSuccess() {
+			return result != null && result.getCategory() == Result.Category.SUCCESS;
+		}
+
+		@Override
+		public String toString() {
+			if (result == null) {
+				return error;
+			} else if (isSuccess()) {
+				return "submitted";
+			}
+			return "submission failed (HTTP status " + result.getHttpCode() + "): " + result.getMessage().trim();
+		}
+	}
+
+	private String username;
+	private String password;
+	private String inbox;
+	private boolean dryRun;
+	private int concurrency = DEFAULT_CONCURRENCY;
+	private final List<File> projectDirs = new ArrayList<File>();
+	private HttpClient client;
+
+	public static void main(String[] args) {
+		SubmitMain main = new SubmitMain();
+		if (!main.parseArgs(args)) {
+			System.err.println("Usage: java " + SubmitMain.class.getName() + " -u username [-i inbox] [-j n] [-n] dir...");
+			System.exit(2);
+		}
+		System.exit(main.run() ? 0 : 1);
+	}
+
+	private boolean parseArgs(String[] args) {
+		try {
+			int i = 0;
+			while (i < args.length && args[i].startsWith("-")) {
+				String opt = args[i++];
+				if (opt.equals("-u")) {
+					username = args[i++];
+				} else if (opt.equals("-i")) {
+					inbox = args[i++];
+				} else if (opt.equals("-j")) {
+					concurrency = Integer.parseInt(args[i++]);
+				} else if (opt.equals("-n")) {
+					dryRun = true;
+				} else {
+					return false;
+				}
+			}
+			while (i < args.length) {
+				projectDirs.add(new File(args[i++]));
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			return false;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		return (username != null || dryRun) && concurrency > 0 && !projectDirs.isEmpty();
+	}
+
+	private boolean run() {
+		if (dryRun) {
+			boolean allSucceeded = true;
+			for (File dir : projectDirs) {
+				if (!preview(dir)) {
+					allSucceeded = false;
+				}
+			}
+			return allSucceeded;
+		}
+
+		password = System.getenv("MARMOSET_PASSWORD");
+		if (password == null) {
+			Console console = System.console();
+			if (console == null) {
+				System.err.println("No console: set MARMOSET_PASSWORD to supply the password");
+				return false;
+			}
+			char[] pw = console.readPassword("Password for %s: ", username);
+			if (pw == null) {
+				return false;
+			}
+			password = new String(pw);
+		}
+
+		String version = SubmitMain.class.getPackage() != null ? SubmitMain.class.getPackage().getImplementationVersion() : null;
+		if (version != null) {
+			Uploader.setClientVersion(version);
+		}
+
+		client = Uploader.createHttpClient(concurrency * 2, concurrency);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, projectDirs.size()));
+		try {
+			CompletionService<Outcome> completionService = new ExecutorCompletionService<Outcome>(executor);
+			Map<Future<Outcome>, File> dirs = new HashMap<Future<Outcome>, File>();
+			for (final File dir : projectDirs) {
+				Future<Outcome> future = completionService.submit(new Callable<Outcome>() {
+					public Outcome call() throws Exception {
+						return submit(dir);
+					}
+				});
+				dirs.put(future, dir);
+			}
+
+			boolean allSucceeded = true;
+			for (int n = 0; n < projectDirs.size(); n++) {
+				Future<Outcome> done;
+				try {
+					done = completionService.take();
+				} catch (InterruptedException e) {
+					return false;
+				}
+				Outcome outcome;
+				try {
+					outcome = done.get();
+				} catch (ExecutionException e) {
+					outcome = new Outcome("error: " + e.getCause());
+				} catch (InterruptedException e) {
+					return false;
+				}
+				if (!outcome.isSuccess()) {
+					allSucceeded = false;
+				}
+				System.out.println(dirs.get(done).getPath() + ": " + outcome);
+			}
+			return allSucceeded;
+		} finally {
+			executor.shutdownNow();
+			client.getConnectionManager().shutdown();
+		}
+	}
+
+	/**
+	 * Print a preview of the submission of one project directory.
+	 *
+	 * @param dir the project directory
+	 * @return true if the preview was printed, false if the project can't be previewed
+	 */
+	private boolean preview(File dir) {
+		try {
+			Properties submitProperties = readSubmitProperties(dir);
+			SubmitIgnore ignore = SubmitIgnore.load(dir, submitProperties);
+			Manifest manifest = DirectoryScanner.scan(dir, ignore);
+			String report = ArchivePreview.compute(manifest, CompressionPolicy.fromProperties(submitProperties),
+					ArchiveMonitor.NULL).format(manifest.size());
+			System.out.println(dir.getPath() + ":");
+			System.out.println(report);
+			String violations = SizeBudget.fromProperties(submitProperties).describeViolations(manifest);
+			if (violations != null) {
+				System.out.println("This project is too large to submit.");
+				System.out.println(violations);
+			}
+			return true;
+		} catch (Exception e) {
+			System.out.println(dir.getPath() + ": error: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Submit one project directory.
+	 *
+	 * @param dir the project directory
+	 * @return the outcome
+	 */
+	private Outcome submit(File dir) {
+		Properties submitProperties;
+		try {
+			submitProperties = readSubmitProperties(dir);
+		} catch (Exception e) {
+			return new Outcome("could not read " + SubmitConfig.SUBMIT_FILE + " file: " + e.getMessage());
+		}
+
+		if (inbox != null) {
+			submitProperties.setProperty(SubmitConfig.PROP_PROJECT_NUMBER, inbox);
+		} else if (submitProperties.getProperty(SubmitConfig.PROP_PROJECT_NUMBER).indexOf(',') >= 0) {
+			return new Outcome("the .submit file lists several inboxes: use -i to choose one");
+		}
+
+		File zipFile = null;
+		try {
+			SubmitIgnore ignore = SubmitIgnore.load(dir, submitProperties);
+			List<ArchiveSource> files = DirectoryScanner.scan(dir, ignore, SizeBudget.fromProperties(submitProperties)).getSources();
+			Archiver archiver = new Archiver(files);
+			archiver.setCompressionPolicy(CompressionPolicy.fromProperties(submitProperties));
+
+			ContentBody archive;
+			if (SubmitConfig.getBoolean(submitProperties, SubmitConfig.PROP_STREAM_UPLOAD, true)) {
+				archive = new ZipContentBody(archiver, ArchiveMonitor.NULL);
+			} else {
+				zipFile = archiver.createZipFile(ArchiveMonitor.NULL);
+				archive = new FileBody(zipFile, "application/zip");
+			}
+
+			HttpPost post = Uploader.createSubmitRequest(submitProperties, archive, username, password);
+			return new Outcome(Uploader.sendToServer(client, post, Uploader.getDeadline(submitProperties),
+					null, Uploader.getRateLimiter(submitProperties), null));
+		} catch (SizeBudgetException e) {
+			return new Outcome("not submitted, project is too large:\n" + e.getMessage());
+		} catch (Exception e) {
+			return new Outcome("error: " + e.getMessage());
+		} finally {
+			if (zipFile != null) {
+				zipFile.delete();
+			}
+		}
+	}
+
+	private static Properties readSubmitProperties(File dir) throws IOException {
+		InputStream in = null;
+		try {
+			in = new FileInputStream(new File(dir, SubmitConfig.SUBMIT_FILE));
+			return SubmitConfig.load(in);
+		} finally {
+			IOUtil.closeQuietly(in);
+		}
+	}
+}
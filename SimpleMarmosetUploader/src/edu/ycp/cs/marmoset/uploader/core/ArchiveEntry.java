@@ -0,0 +1,183 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A zip archive entry whose data has already been compressed,
+ * so that it can be written by a {@link ZipWriter} without any
+ * further work.
+ * 
+ * @author David Hovemeyer
+ */
+public class ArchiveEntry {
+	final String name;
+	final long time;
+	final int method;
+	final long crc;
+	final long size;
+	final byte[] data;
+	final byte[] digest;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param name    entry name (path within the archive)
+	 * @param time    modification time (milliseconds since the epoch)
+	 * @param method  {@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED}
+	 * @param crc     CRC-32 of the uncompressed data
+	 * @param size    size of the uncompressed data
+	 * @param data    the compressed data
+	 * @param digest  digest of the uncompressed data (see {@link ContentDigest})
+	 */
+	public ArchiveEntry(String name, long time, int method, long crc, long size, byte[] data, byte[] digest) {
+		this.name = name;
+		this.time = time;
+		this.method = method;
+		this.crc = crc;
+		this.size = size;
+		this.data = data;
+		this.digest = digest;
+	}
+	
+	/**
+	 * @return the entry name
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return the modification time
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	/**
+	 * @return the compression method ({@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED})
+	 */
+	public int getMethod() {
+		return method;
+	}
+	
+	/**
+	 * @return CRC-32 of the uncompressed data
+	 */
+	public long getCrc() {
+		return crc;
+	}
+	
+	/**
+	 * @return size of the uncompressed data
+	 */
+	public long getSize() {
+		return size;
+	}
+	
+	/**
+	 * @return size of the compressed data
+	 */
+	public long getCompressedSize() {
+		return data.length;
+	}
+
+	/**
+	 * @return the compressed data
+	 */
+	public byte[] getData() {
+		return data;
+	}
+	
+	/**
+	 * @return digest of the uncompressed data
+	 */
+	public byte[] getDigest() {
+		return digest;
+	}
+
+	/**
+	 * Read and compress the data for an entry.  The compression
+	 * policy decides whether the data is deflated or stored;
+	 * if deflating it doesn't make it smaller, it is stored.
+	 * The input stream is not closed.
+	 *
+	 * @param name    entry name
+	 * @param time    modification time
+	 * @param in      input stream to read the entry data from
+	 * @param policy  the compression policy
+	 * @return the compressed entry
+	 * @throws IOException
+	 */
+	public static ArchiveEntry compress(String name, long time, InputStream in, CompressionPolicy policy) throws IOException {
+		ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		IOUtil.copy(in, raw);
+		return compress(name, time, raw.toByteArray(), policy);
+	}
+
+	/**
+	 * Compress the data for an entry.  The compression policy
+	 * decides whether the data is deflated or stored; if deflating
+	 * it doesn't make it smaller, it is stored.  If the entry is stored,
+	 * its data is the array passed in (which must not be modified afterwards).
+	 *
+	 * @param name    entry name
+	 * @param time    modification time
+	 * @param bytes   the entry data
+	 * @param policy  the compression policy
+	 * @return the compressed entry
+	 */
+	public static ArchiveEntry compress(String name, long time, byte[] bytes, CompressionPolicy policy) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		MessageDigest md = ContentDigest.newEntryDigest();
+		md.update(bytes);
+
+		int level = policy.chooseLevel(name, bytes, Math.min(bytes.length, CompressionPolicy.SAMPLE_SIZE));
+		if (level != CompressionPolicy.STORE) {
+			byte[] compressed = deflate(bytes, level);
+			if (compressed != null) {
+				return new ArchiveEntry(name, time, ZipEntry.DEFLATED, crc.getValue(), bytes.length, compressed, md.digest());
+			}
+		}
+		return new ArchiveEntry(name, time, ZipEntry.STORED, crc.getValue(), bytes.length, bytes, md.digest());
+	}
+
+	/**
+	 * Deflate data, giving up as soon as the compressed data
+	 * is no smaller than the original.
+	 *
+	 * @return the compressed data, or null if it isn't smaller than the original
+	 */
+	private static byte[] deflate(byte[] bytes, int level) {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2 + 64);
+		Deflater deflater = new Deflater(level, true);
+		byte[] buf = BufferPool.DEFAULT.acquire();
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buf);
+				compressed.write(buf, 0, n);
+				if (compressed.size() >= bytes.length) {
+					return null;
+				}
+			}
+			return compressed.toByteArray();
+		} finally {
+			BufferPool.DEFAULT.release(buf);
+			deflater.end();
+		}
+	}
+}
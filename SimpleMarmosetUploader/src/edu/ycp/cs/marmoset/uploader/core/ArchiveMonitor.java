@@ -0,0 +1,56 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+/**
+ * Receives progress reports from an {@link Archiver}, and allows
+ * archiving to be canceled.
+ * 
+ * @author David Hovemeyer
+ */
+public interface ArchiveMonitor {
+	/**
+	 * A monitor which ignores progress reports and is never canceled.
+	 */
+	public static final ArchiveMonitor NULL = new ArchiveMonitor() {
+		public void beginTask(int totalWork) {
+		}
+		public void subTask(String name) {
+		}
+		public void worked(int work) {
+		}
+		public void checkCanceled() {
+		}
+	};
+	
+	/**
+	 * Called once, before any other method.
+	 * 
+	 * @param totalWork the number of files to be archived
+	 */
+	public void beginTask(int totalWork);
+	
+	/**
+	 * Called when a file is about to be added to the archive.
+	 * 
+	 * @param name description of the work being done
+	 */
+	public void subTask(String name);
+	
+	/**
+	 * Called when files have been added to the archive.
+	 * 
+	 * @param work the number of files added
+	 */
+	public void worked(int work);
+	
+	/**
+	 * Called periodically: should throw an unchecked exception
+	 * if archiving should stop.
+	 */
+	public void checkCanceled();
+}
@@ -0,0 +1,341 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Dry run of the zip stage of the submission pipeline: estimate how
+ * large the archive of a {@link Manifest} would be, without writing it.
+ * The start of each file (up to {@link #MAX_SAMPLE_SIZE} bytes) is
+ * compressed according to the {@link CompressionPolicy}, and the
+ * compression ratio of the sample is applied to the whole file.
+ * Once {@link #SAMPLE_BUDGET} bytes have been sampled, the remaining
+ * files are estimated from the ratios of the files already sampled
+ * which have the same extension, so the preview stays fast even for
+ * large projects.
+ *
+ * @author David Hovemeyer
+ */
+public class ArchivePreview {
+	/** Maximum number of bytes sampled from each file. */
+	public static final int MAX_SAMPLE_SIZE = 32 * 1024;
+
+	/** Maximum total number of bytes sampled. */
+	public static final long SAMPLE_BUDGET = 8L * 1024L * 1024L;
+
+	/** Number of largest files and folders reported. */
+	public static final int MAX_LARGEST = 10;
+
+	// Zip headers per entry (local header, data descriptor, central header),
+	// not counting the name, which appears twice, and the end of central directory record
+	private static final int ENTRY_OVERHEAD = 30 + 16 + 46;
+	private static final int END_OVERHEAD = 22;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * A file or folder in the preview.
+	 */
+	public static class Item {
+		private final String name;
+		private long rawBytes;
+		private long estimatedBytes;
+
+		Item(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return the name (path within the archive); folder names end in "/"
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the size before compression
+		 */
+		public long getRawBytes() {
+			return rawBytes;
+		}
+
+		/**
+		 * @return the estimated size in the archive
+		 */
+		public long getEstimatedBytes() {
+			return estimatedBytes;
+		}
+	}
+
+	private static final Comparator<Item> LARGEST_FIRST = new Comparator<Item>() {
+		public int compare(Item a, Item b) {
+			return a.estimatedBytes < b.estimatedBytes ? 1 : (a.estimatedBytes > b.estimatedBytes ? -1 : 0);
+		}
+	};
+
+	private int fileCount;
+	private long rawBytes;
+	private long estimatedBytes;
+	private long sampledBytes;
+	private List<Item> files;
+	private List<Item> largestFiles;
+	private List<Item> largestFolders;
+
+	private ArchivePreview() {
+	}
+
+	/**
+	 * Compute the preview of the archive of a manifest.
+	 *
+	 * @param manifest  the files to be archived
+	 * @param policy    the compression policy
+	 * @param monitor   progress monitor
+	 * @return the preview
+	 * @throws IOException
+	 */
+	public static ArchivePreview compute(Manifest manifest, CompressionPolicy policy, ArchiveMonitor monitor) throws IOException {
+		ArchivePreview preview = new ArchivePreview();
+		monitor.beginTask(manifest.size());
+
+		List<Item> files = new ArrayList<Item>(manifest.size());
+		List<Item> unsampled = new ArrayList<Item>();
+		Map<String, long[]> ratiosByExtension = new HashMap<String, long[]>();
+		long[] overall = new long[2];
+
+		byte[] sample = new byte[MAX_SAMPLE_SIZE];
+		byte[] buf = BufferPool.DEFAULT.acquire();
+		Deflater deflater = new Deflater();
+		try {
+			for (ArchiveSource source : manifest.getSources()) {
+				monitor.checkCanceled();
+				monitor.subTask("Checking " + source.getName());
+				Item item;
+				if (preview.sampledBytes >= SAMPLE_BUDGET && source.getSize() >= 0) {
+					item = new Item(source.getName());
+					item.rawBytes = source.getSize();
+					unsampled.add(item);
+				} else {
+					item = sample(source, policy, sample, buf, deflater, ratiosByExtension, overall);
+					preview.sampledBytes += Math.min(item.rawBytes, MAX_SAMPLE_SIZE);
+				}
+				files.add(item);
+				monitor.worked(1);
+			}
+		} finally {
+			deflater.end();
+			BufferPool.DEFAULT.release(buf);
+		}
+
+		// Estimate the files which weren't sampled from those which were
+		for (Item item : unsampled) {
+			long[] ratio = ratiosByExtension.get(CompressionPolicy.getExtension(item.name));
+			if (ratio == null) {
+				ratio = overall;
+			}
+			if (policy.chooseLevel(item.name, sample, 0) == CompressionPolicy.STORE || ratio[0] == 0) {
+				item.estimatedBytes = item.rawBytes;
+			} else {
+				item.estimatedBytes = (long) (item.rawBytes * ((double) ratio[1] / ratio[0]));
+			}
+		}
+
+		// Totals, and folder totals
+		Map<String, Item> folders = new LinkedHashMap<String, Item>();
+		for (Item item : files) {
+			item.estimatedBytes += ENTRY_OVERHEAD + 2 * item.name.getBytes(UTF8).length;
+			preview.fileCount++;
+			preview.rawBytes += item.rawBytes;
+			preview.estimatedBytes += item.estimatedBytes;
+
+			int slash = item.name.indexOf('/');
+			if (slash >= 0) {
+				String folderName = item.name.substring(0, slash + 1);
+				Item folder = folders.get(folderName);
+				if (folder == null) {
+					folder = new Item(folderName);
+					folders.put(folderName, folder);
+				}
+				folder.rawBytes += item.rawBytes;
+				folder.estimatedBytes += item.estimatedBytes;
+			}
+		}
+		preview.estimatedBytes += END_OVERHEAD;
+
+		preview.files = Collections.unmodifiableList(new ArrayList<Item>(files));
+		preview.largestFiles = getLargest(files);
+		preview.largestFolders = getLargest(new ArrayList<Item>(folders.values()));
+		return preview;
+	}
+
+	private static Item sample(ArchiveSource source, CompressionPolicy policy, byte[] sample, byte[] buf,
+			Deflater deflater, Map<String, long[]> ratiosByExtension, long[] overall) throws IOException {
+		Item item = new Item(source.getName());
+
+		// Read the start of the file (and its length, if it isn't known)
+		int n;
+		InputStream in = source.getLocalFile() != null ? new FileInputStream(source.getLocalFile()) : source.open();
+		try {
+			n = IOUtil.readFully(in, sample);
+			item.rawBytes = source.getSize();
+			if (item.rawBytes < 0) {
+				long total = n;
+				int r;
+				while ((r = in.read(buf)) >= 0) {
+					total += r;
+				}
+				item.rawBytes = total;
+			}
+		} finally {
+			IOUtil.closeQuietly(in);
+		}
+
+		int level = policy.chooseLevel(item.name, sample, Math.min(n, CompressionPolicy.SAMPLE_SIZE));
+		if (level == CompressionPolicy.STORE || n == 0) {
+			item.estimatedBytes = item.rawBytes;
+			return item;
+		}
+
+		// Compress the sample (only the compressed size is needed)
+		deflater.reset();
+		deflater.setLevel(level);
+		deflater.setInput(sample, 0, n);
+		deflater.finish();
+		long compressed = 0;
+		while (!deflater.finished()) {
+			compressed += deflater.deflate(buf);
+		}
+		compressed = Math.min(compressed, n);
+
+		item.estimatedBytes = (long) (item.rawBytes * ((double) compressed / n));
+		String ext = CompressionPolicy.getExtension(item.name);
+		long[] ratio = ratiosByExtension.get(ext);
+		if (ratio == null) {
+			ratio = new long[2];
+			ratiosByExtension.put(ext, ratio);
+		}
+		ratio[0] += n;
+		ratio[1] += compressed;
+		overall[0] += n;
+		overall[1] += compressed;
+		return item;
+	}
+
+	private static List<Item> getLargest(List<Item> items) {
+		Collections.sort(items, LARGEST_FIRST);
+		return Collections.unmodifiableList(new ArrayList<Item>(items.subList(0, Math.min(MAX_LARGEST, items.size()))));
+	}
+
+	/**
+	 * @return the number of files
+	 */
+	public int getFileCount() {
+		return fileCount;
+	}
+
+	/**
+	 * @return the total size of the files before compression
+	 */
+	public long getRawBytes() {
+		return rawBytes;
+	}
+
+	/**
+	 * @return the estimated size of the archive
+	 */
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	/**
+	 * @return all of the files, in the order in which they would be archived
+	 */
+	public List<Item> getFiles() {
+		return files;
+	}
+
+	/**
+	 * @return the files which contribute the most to the size of the archive, largest first
+	 */
+	public List<Item> getLargestFiles() {
+		return largestFiles;
+	}
+
+	/**
+	 * @return the top-level folders which contribute the most to the size of the archive, largest first
+	 */
+	public List<Item> getLargestFolders() {
+		return largestFolders;
+	}
+
+	/**
+	 * @param maxFiles maximum number of files to list
+	 * @return a report of the preview, suitable for showing to the user
+	 */
+	public String format(int maxFiles) {
+		StringBuilder buf = new StringBuilder();
+		buf.append(fileCount).append(fileCount == 1 ? " file, " : " files, ").append(formatSize(rawBytes))
+			.append(" before compression\nEstimated archive size: ").append(formatSize(estimatedBytes)).append('\n');
+		appendItems(buf, "Largest files", largestFiles);
+		appendItems(buf, "Largest folders", largestFolders);
+
+		if (!files.isEmpty() && maxFiles > 0) {
+			buf.append("\nFiles:\n");
+			for (Item item : files.subList(0, Math.min(maxFiles, files.size()))) {
+				buf.append("  ").append(item.name).append('\n');
+			}
+			if (files.size() > maxFiles) {
+				buf.append("  ... and ").append(files.size() - maxFiles).append(" more\n");
+			}
+		}
+		return buf.toString();
+	}
+
+	private static void appendItems(StringBuilder buf, String title, List<Item> items) {
+		if (items.isEmpty()) {
+			return;
+		}
+		buf.append('\n').append(title).append(":\n");
+		for (Item item : items) {
+			buf.append("  ").append(formatSize(item.estimatedBytes)).append("  ").append(item.name);
+			if (item.rawBytes > item.estimatedBytes * 2) {
+				buf.append(" (").append(formatSize(item.rawBytes)).append(" before compression)");
+			}
+			buf.append('\n');
+		}
+	}
+
+	/**
+	 * Format a size in bytes for people to read.
+	 *
+	 * @param bytes the size
+	 * @return the formatted size (e.g., "1.5 MB")
+	 */
+	public static String formatSize(long bytes) {
+		if (bytes < 1024) {
+			return bytes + " B";
+		} else if (bytes < 1024 * 1024) {
+			return String.format(Locale.ENGLISH, "%.1f KB", bytes / 1024.0);
+		} else if (bytes < 1024L * 1024L * 1024L) {
+			return String.format(Locale.ENGLISH, "%.1f MB", bytes / (1024.0 * 1024.0));
+		} else {
+			return String.format(Locale.ENGLISH, "%.1f GB", bytes / (1024.0 * 1024.0 * 1024.0));
+		}
+	}
+}
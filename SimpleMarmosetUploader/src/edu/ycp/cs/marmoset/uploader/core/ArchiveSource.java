@@ -0,0 +1,55 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A file to be added to a submission archive by an {@link Archiver}.
+ * 
+ * @author David Hovemeyer
+ */
+public interface ArchiveSource {
+	/**
+	 * @return the entry name: the path within the archive, using "/" as the separator
+	 */
+	public String getName();
+	
+	/**
+	 * @return the modification time (milliseconds since the epoch)
+	 */
+	public long getTime();
+	
+	/**
+	 * @return the size of the file in bytes, or -1 if not known
+	 */
+	public long getSize();
+	
+	/**
+	 * @return a value which changes whenever the contents of the file change:
+	 *         together with the modification time, it determines whether
+	 *         a cached compressed entry is still valid (see {@link EntryCache})
+	 */
+	public long getStamp();
+	
+	/**
+	 * @return the file in the local file system whose contents can be read
+	 *         directly (bypassing {@link #open()}), or null if the contents
+	 *         must be read using {@link #open()}
+	 */
+	public File getLocalFile();
+	
+	/**
+	 * Open the file for reading.  The caller must close the returned stream.
+	 * 
+	 * @return input stream to read the contents of the file
+	 * @throws IOException
+	 */
+	public InputStream open() throws IOException;
+}
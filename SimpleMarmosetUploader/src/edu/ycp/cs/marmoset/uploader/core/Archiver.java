@@ -0,0 +1,510 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.security.MessageDigest;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+/**
+ * Zip stage of the submission pipeline: write a list of files
+ * to a zip archive.  While the archive is written, a {@link ContentDigest}
+ * of the archived files is computed.
+ *
+ * @author David Hovemeyer
+ */
+public class Archiver {
+	/**
+	 * Files larger than this are streamed rather than compressed
+	 * in memory by a worker thread.
+	 */
+	public static final long MAX_BUFFERED_FILE_SIZE = 4L * 1024L * 1024L;
+
+	private final List<? extends ArchiveSource> sources;
+	private EntryCache cache;
+	private SubmissionMetrics metrics;
+	private CompressionPolicy policy = CompressionPolicy.DEFAULT;
+	private ExecutorService executor;
+	private String digest;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sources the files to archive
+	 */
+	public Archiver(List<? extends ArchiveSource> sources) {
+		this.sources = sources;
+	}
+
+	/**
+	 * Set the cache of compressed entries.  If set, cached compressed
+	 * entries are used for files that haven't changed, and the cache
+	 * is updated and saved when an archive is written.
+	 *
+	 * @param cache the cache
+	 */
+	public void setEntryCache(EntryCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Set the policy deciding how each file is compressed.
+	 * The default is {@link CompressionPolicy#DEFAULT}.
+	 *
+	 * @param policy the compression policy
+	 */
+	public void setCompressionPolicy(CompressionPolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Set a thread pool in which files are compressed, which may be
+	 * shared with other archivers (e.g., when several projects are
+	 * archived at once, so that together they don't use more threads
+	 * than there are processors).  The pool is not shut down.
+	 * If not set, each archive is written using a pool of its own.
+	 *
+	 * @param executor the thread pool
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Set the metrics to which the time spent writing the archive,
+	 * and the sizes of the files and of the archive, are recorded.
+	 *
+	 * @param metrics the metrics
+	 */
+	public void setMetrics(SubmissionMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the files to archive
+	 */
+	public List<? extends ArchiveSource> getSources() {
+		return sources;
+	}
+
+	/**
+	 * @return the content digest of the archived files, or null if an archive
+	 *         hasn't been written (or digest computed) yet
+	 */
+	public String getDigest() {
+		return digest;
+	}
+
+	/**
+	 * Create a temporary zip file containing the files.
+	 * The caller is responsible for deleting it.
+	 *
+	 * @param monitor  progress monitor
+	 * @return the zip file
+	 * @throws IOException
+	 */
+	public File createZipFile(ArchiveMonitor monitor) throws IOException {
+		File zipFile = File.createTempFile("marmosetSubmit", ".zip");
+		zipFile.deleteOnExit();
+
+		OutputStream out = null;
+		boolean success = false;
+
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(zipFile));
+			writeZip(out, monitor);
+			success = true;
+		} finally {
+			IOUtil.closeQuietly(out);
+			if (!success) {
+				zipFile.delete();
+			}
+		}
+
+		return zipFile;
+	}
+
+	/**
+	 * Compute the content digest of the files without writing an
+	 * archive.  Files are only hashed, not compressed: if there is an
+	 * entry cache, the digests of unchanged files are taken from it.
+	 *
+	 * @param monitor  progress monitor
+	 * @return the content digest
+	 * @throws IOException
+	 */
+	public String computeDigest(ArchiveMonitor monitor) throws IOException {
+		monitor.beginTask(sources.size());
+		ContentDigest contentDigest = new ContentDigest();
+
+		byte[] buf = BufferPool.DEFAULT.acquire();
+		try {
+			for (ArchiveSource source : sources) {
+				monitor.checkCanceled();
+
+				String name = source.getName();
+				monitor.subTask("Checking " + name);
+
+				byte[] entryDigest = cache != null ? cache.getDigest(source) : null;
+				if (entryDigest == null) {
+					entryDigest = hash(source, buf);
+				}
+				contentDigest.addEntry(name, entryDigest);
+
+				monitor.worked(1);
+			}
+		} finally {
+			BufferPool.DEFAULT.release(buf);
+		}
+
+		digest = contentDigest.finish();
+		return digest;
+	}
+
+	/**
+	 * Compress the files which can be cached into the entry cache
+	 * (if there is one), so that writing the archive afterwards won't
+	 * need to compress them.  Files larger than {@link #MAX_BUFFERED_FILE_SIZE}
+	 * aren't cached, so they are skipped.
+	 *
+	 * @param monitor  progress monitor
+	 * @throws IOException
+	 */
+	public void fillEntryCache(ArchiveMonitor monitor) throws IOException {
+		if (cache == null) {
+			return;
+		}
+		monitor.beginTask(sources.size());
+		try {
+			for (ArchiveSource source : sources) {
+				monitor.checkCanceled();
+				if (isBuffered(source)) {
+					monitor.subTask("Compressing " + source.getName());
+					compress(source);
+				}
+				monitor.worked(1);
+			}
+		} finally {
+			cache.save();
+		}
+	}
+
+	/**
+	 * Compute the digest of a file's contents.
+	 *
+	 * @return digest of the file data
+	 */
+	private static byte[] hash(ArchiveSource source, byte[] buf) throws IOException {
+		MessageDigest md = ContentDigest.newEntryDigest();
+		InputStream fileIn = null;
+		try {
+			fileIn = open(source);
+			int n;
+			while ((n = fileIn.read(buf)) >= 0) {
+				md.update(buf, 0, n);
+			}
+		} finally {
+			IOUtil.closeQuietly(fileIn);
+		}
+		return md.digest();
+	}
+
+	/**
+	 * Write a zip archive of the files to given output stream.
+	 * The output stream is not closed.
+	 * Files are compressed in parallel if more than one processor
+	 * is available, or if there is an entry cache.
+	 *
+	 * @param os       the output stream to write the archive to
+	 * @param monitor  progress monitor
+	 * @throws IOException
+	 */
+	public void writeZip(OutputStream os, ArchiveMonitor monitor) throws IOException {
+		long start = System.nanoTime();
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		try {
+			if (cache == null && (nThreads == 1 || sources.size() <= 1)) {
+				writeZipSequential(os, monitor);
+			} else {
+				try {
+					if (executor != null) {
+						writeZipParallel(os, executor, nThreads * 2, monitor);
+					} else {
+						writeZipParallel(os, nThreads, monitor);
+					}
+				} finally {
+					if (cache != null) {
+						cache.save();
+					}
+				}
+			}
+		} finally {
+			if (metrics != null) {
+				metrics.addTime(SubmissionMetrics.Phase.ZIP, System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * Write a zip archive, compressing files one at a time in the calling thread.
+	 *
+	 * @param os       the output stream to write the archive to
+	 * @param monitor  progress monitor
+	 * @throws IOException
+	 */
+	public void writeZipSequential(OutputStream os, ArchiveMonitor monitor) throws IOException {
+		monitor.beginTask(sources.size());
+		ContentDigest contentDigest = new ContentDigest();
+
+		ZipWriter writer = new ZipWriter(os);
+		for (ArchiveSource source : sources) {
+			monitor.checkCanceled();
+
+			String name = source.getName();
+			monitor.subTask("Adding " + name);
+
+			if (isBuffered(source)) {
+				ArchiveEntry entry = compress(source);
+				writer.writeEntry(entry);
+				contentDigest.addEntry(name, entry.getDigest());
+			} else {
+				contentDigest.addEntry(name, writeStreamedEntry(writer, source));
+			}
+
+			monitor.worked(1);
+		}
+
+		writer.finish();
+		digest = contentDigest.finish();
+		recordSizes(writer.getUncompressedBytes(), writer.getBytesWritten());
+	}
+
+	/**
+	 * Write a zip archive, compressing files in parallel using a pool
+	 * of worker threads.  Entries are written in order as they are completed.
+	 * At most a fixed number of compressed entries are buffered at any
+	 * time, and files larger than {@link #MAX_BUFFERED_FILE_SIZE} are
+	 * streamed (by the calling thread) rather than buffered.
+	 *
+	 * @param os        the output stream to write the archive to
+	 * @param nThreads  number of worker threads
+	 * @param monitor   progress monitor
+	 * @throws IOException
+	 */
+	public void writeZipParallel(OutputStream os, int nThreads, ArchiveMonitor monitor) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Marmoset archiver");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		try {
+			writeZipParallel(os, executor, nThreads * 2, monitor);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Write a zip archive, compressing files in the given thread pool.
+	 *
+	 * @param os        the output stream to write the archive to
+	 * @param executor  the thread pool
+	 * @param window    maximum number of compressed entries buffered
+	 * @param monitor   progress monitor
+	 * @throws IOException
+	 */
+	private void writeZipParallel(OutputStream os, ExecutorService executor, int window, ArchiveMonitor monitor) throws IOException {
+		monitor.beginTask(sources.size());
+		ContentDigest contentDigest = new ContentDigest();
+
+		LinkedList<Future<ArchiveEntry>> pending = new LinkedList<Future<ArchiveEntry>>();
+		try {
+			ZipWriter writer = new ZipWriter(os);
+			int next = 0;
+
+			for (ArchiveSource source : sources) {
+				// Keep the workers busy
+				while (next < sources.size() && pending.size() < window) {
+					pending.add(submitCompressTask(executor, sources.get(next)));
+					next++;
+				}
+
+				monitor.checkCanceled();
+
+				String name = source.getName();
+				monitor.subTask("Adding " + name);
+
+				Future<ArchiveEntry> future = pending.removeFirst();
+				if (future != null) {
+					ArchiveEntry entry = getCompressedEntry(future);
+					writer.writeEntry(entry);
+					contentDigest.addEntry(name, entry.getDigest());
+				} else {
+					contentDigest.addEntry(name, writeStreamedEntry(writer, source));
+				}
+
+				monitor.worked(1);
+			}
+
+			writer.finish();
+			digest = contentDigest.finish();
+			recordSizes(writer.getUncompressedBytes(), writer.getBytesWritten());
+		} finally {
+			// If writing stopped early, don't leave work in the pool
+			for (Future<ArchiveEntry> future : pending) {
+				if (future != null) {
+					future.cancel(true);
+				}
+			}
+		}
+	}
+
+	private void recordSizes(long rawBytes, long archiveBytes) {
+		if (metrics != null) {
+			metrics.setFilesScanned(sources.size());
+			metrics.setRawBytes(rawBytes);
+			metrics.setArchiveBytes(archiveBytes);
+		}
+	}
+
+	private static boolean isBuffered(ArchiveSource source) {
+		long size = source.getSize();
+		return size >= 0 && size <= MAX_BUFFERED_FILE_SIZE;
+	}
+
+	private Future<ArchiveEntry> submitCompressTask(ExecutorService executor, final ArchiveSource source) {
+		if (!isBuffered(source)) {
+			// Size is unknown or too large to buffer: will be streamed
+			return null;
+		}
+
+		return executor.submit(new Callable<ArchiveEntry>() {
+			public ArchiveEntry call() throws Exception {
+				return compress(source);
+			}
+		});
+	}
+
+	/**
+	 * Compress a file in memory, using the entry cache if there is one.
+	 * A file in the local file system is read directly into an array
+	 * of its exact size.
+	 */
+	private ArchiveEntry compress(ArchiveSource source) throws IOException {
+		if (cache != null) {
+			ArchiveEntry cached = cache.get(source, policy);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		ArchiveEntry entry;
+		File localFile = source.getLocalFile();
+		if (localFile != null) {
+			byte[] data = LocalFiles.read(localFile, source.getSize());
+			entry = ArchiveEntry.compress(source.getName(), source.getTime(), data, policy);
+		} else {
+			InputStream fileIn = null;
+			try {
+				fileIn = source.open();
+				entry = ArchiveEntry.compress(source.getName(), source.getTime(), fileIn, policy);
+			} finally {
+				IOUtil.closeQuietly(fileIn);
+			}
+		}
+		if (cache != null) {
+			cache.put(source, policy, entry);
+		}
+		return entry;
+	}
+
+	private static InputStream open(ArchiveSource source) throws IOException {
+		File localFile = source.getLocalFile();
+		return localFile != null ? LocalFiles.open(localFile) : source.open();
+	}
+
+	/**
+	 * Write a file which is too large to buffer.  The compression policy
+	 * is applied to a sample of the start of the file.  A stored entry
+	 * needs its CRC and size before its data is written, so the file is
+	 * read twice: once to compute them (and the digest), and once to
+	 * write it.
+	 *
+	 * @return digest of the file data
+	 */
+	private byte[] writeStreamedEntry(ZipWriter writer, ArchiveSource source) throws IOException {
+		String name = source.getName();
+		byte[] buf = BufferPool.DEFAULT.acquire();
+		InputStream fileIn = null;
+		try {
+			fileIn = open(source);
+			int sampleLen = IOUtil.readFully(fileIn, buf);
+			int level = policy.chooseLevel(name, buf, Math.min(sampleLen, CompressionPolicy.SAMPLE_SIZE));
+			if (level != CompressionPolicy.STORE) {
+				InputStream in = new SequenceInputStream(new ByteArrayInputStream(buf, 0, sampleLen), fileIn);
+				return writer.writeStreamedEntry(name, source.getTime(), in, level);
+			}
+
+			// First pass: compute CRC, size, and digest
+			CRC32 crc = new CRC32();
+			MessageDigest md = ContentDigest.newEntryDigest();
+			long size = 0L;
+			int n = sampleLen;
+			while (n >= 0) {
+				crc.update(buf, 0, n);
+				md.update(buf, 0, n);
+				size += n;
+				n = fileIn.read(buf);
+			}
+			fileIn.close();
+
+			// Second pass: write the data
+			fileIn = open(source);
+			writer.writeStoredEntry(name, source.getTime(), size, crc.getValue(), fileIn);
+			return md.digest();
+		} finally {
+			IOUtil.closeQuietly(fileIn);
+			BufferPool.DEFAULT.release(buf);
+		}
+	}
+
+	private static ArchiveEntry getCompressedEntry(Future<ArchiveEntry> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while compressing files");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else {
+				throw new IOException("Error compressing file", cause);
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of reusable I/O buffers, so that copying and compressing
+ * files doesn't allocate a new buffer for every file.  Buffers are
+ * not cleared when they are returned to the pool.  Safe for use by
+ * multiple threads.
+ *
+ * @author David Hovemeyer
+ */
+public class BufferPool {
+	/** The pool used for copying and compressing archive entries. */
+	public static final BufferPool DEFAULT = new BufferPool(64 * 1024, 32);
+
+	private final int bufferSize;
+	private final int maxPooled;
+	private final ConcurrentLinkedQueue<byte[]> pool;
+	private final AtomicInteger pooled;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param bufferSize  size of each buffer
+	 * @param maxPooled   maximum number of idle buffers kept in the pool
+	 */
+	public BufferPool(int bufferSize, int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+		this.pool = new ConcurrentLinkedQueue<byte[]>();
+		this.pooled = new AtomicInteger();
+	}
+
+	/**
+	 * @return the size of the buffers
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Get a buffer from the pool, allocating a new one if the pool is empty.
+	 * The buffer should be returned using {@link #release(byte[])}
+	 * when it is no longer needed.
+	 *
+	 * @return the buffer
+	 */
+	public byte[] acquire() {
+		byte[] buf = pool.poll();
+		if (buf != null) {
+			pooled.decrementAndGet();
+			return buf;
+		}
+		return new byte[bufferSize];
+	}
+
+	/**
+	 * Return a buffer to the pool.  The caller must not use it afterwards.
+	 *
+	 * @param buf a buffer obtained from {@link #acquire()}
+	 */
+	public void release(byte[] buf) {
+		if (buf == null || buf.length != bufferSize) {
+			return;
+		}
+		if (pooled.incrementAndGet() <= maxPooled) {
+			pool.offer(buf);
+		} else {
+			pooled.decrementAndGet();
+		}
+	}
+}
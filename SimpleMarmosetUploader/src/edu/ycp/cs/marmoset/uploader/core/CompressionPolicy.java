@@ -0,0 +1,170 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Chooses how each archive entry is compressed: deflated at a given
+ * level, or stored without compression (level 0).  Data which is
+ * already compressed (e.g., jar files and images) barely shrinks when
+ * deflated, so deflating it wastes CPU time.
+ *
+ * <p>With adaptive compression (the default), an entry is stored if its
+ * file extension is one of the "store" extensions, or if a sample of its
+ * first block of data looks random (high byte entropy).  Otherwise it
+ * is deflated at the configured level.  Regardless of the policy,
+ * an entry whose deflated data would be no smaller than the original
+ * is stored, so the archive is never larger than with plain deflate.
+ *
+ * @author David Hovemeyer
+ */
+public class CompressionPolicy {
+	/** Compression level meaning the entry is stored without compression. */
+	public static final int STORE = 0;
+
+	/** Default deflate level (the same as zlib's default). */
+	public static final int DEFAULT_LEVEL = 6;
+
+	/** Number of bytes at the start of a file which are sampled. */
+	public static final int SAMPLE_SIZE = 4096;
+
+	/** Extensions of files which are normally already compressed. */
+	public static final String DEFAULT_STORE_EXTENSIONS =
+		"jar,war,ear,zip,gz,tgz,bz2,xz,7z,rar,png,jpg,jpeg,gif,webp,mp3,mp4,ogg,pdf,docx,xlsx,pptx,odt";
+
+	/** Samples smaller than this aren't used to estimate entropy. */
+	private static final int MIN_SAMPLE_SIZE = 512;
+
+	/** Entropy (bits per byte) above which a sample is considered incompressible. */
+	private static final double ENTROPY_THRESHOLD = 7.5;
+
+	/** Adaptive compression with the default settings. */
+	public static final CompressionPolicy DEFAULT = new CompressionPolicy(true, DEFAULT_LEVEL, DEFAULT_STORE_EXTENSIONS);
+
+	private final boolean adaptive;
+	private final int level;
+	private final Set<String> storeExtensions;
+	private final String key;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param adaptive         true if entries should be stored based on extension and entropy
+	 * @param level            deflate level (0-9) for other entries
+	 * @param storeExtensions  comma-separated list of extensions of files to store
+	 */
+	public CompressionPolicy(boolean adaptive, int level, String storeExtensions) {
+		if (level < 0 || level > 9) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+		this.adaptive = adaptive;
+		this.level = level;
+		Set<String> extensions = new TreeSet<String>();
+		for (String ext : storeExtensions.split(",")) {
+			ext = ext.trim().toLowerCase(Locale.ENGLISH);
+			if (ext.startsWith(".")) {
+				ext = ext.substring(1);
+			}
+			if (ext.length() > 0) {
+				extensions.add(ext);
+			}
+		}
+		this.storeExtensions = Collections.unmodifiableSet(extensions);
+		this.key = (adaptive ? "adaptive:" : "fixed:") + level + (adaptive ? ":" + extensions : "");
+	}
+
+	/**
+	 * Create a compression policy from the submit properties.
+	 * Invalid values are ignored.
+	 *
+	 * @param submitProperties the submit properties (from the .submit file)
+	 * @return the compression policy
+	 */
+	public static CompressionPolicy fromProperties(Properties submitProperties) {
+		boolean adaptive = SubmitConfig.getBoolean(submitProperties, SubmitConfig.PROP_ADAPTIVE_COMPRESSION, true);
+		int level = SubmitConfig.getInt(submitProperties, SubmitConfig.PROP_COMPRESSION_LEVEL, DEFAULT_LEVEL);
+		if (level < 0 || level > 9) {
+			level = DEFAULT_LEVEL;
+		}
+		String storeExtensions = submitProperties.getProperty(SubmitConfig.PROP_STORE_EXTENSIONS, DEFAULT_STORE_EXTENSIONS);
+		return new CompressionPolicy(adaptive, level, storeExtensions);
+	}
+
+	/**
+	 * @return a string which identifies the policy: entries compressed
+	 *         under policies with different keys may differ
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Choose the compression level for an entry.
+	 *
+	 * @param name       the entry name
+	 * @param sample     the first bytes of the entry data
+	 * @param sampleLen  the number of bytes in the sample
+	 * @return {@link #STORE}, or a deflate level from 1 to 9
+	 */
+	public int chooseLevel(String name, byte[] sample, int sampleLen) {
+		if (!adaptive || level == STORE) {
+			return level;
+		}
+		if (storeExtensions.contains(getExtension(name))) {
+			return STORE;
+		}
+		if (sampleLen >= MIN_SAMPLE_SIZE && entropy(sample, sampleLen) > ENTROPY_THRESHOLD) {
+			return STORE;
+		}
+		return level;
+	}
+
+	/**
+	 * Get the extension of a file name, in lower case
+	 * (regardless of the default locale).
+	 *
+	 * @param name the file name (a path, with '/' separating its components)
+	 * @return the extension, or "" if the name has no extension
+	 */
+	static String getExtension(String name) {
+		int slash = name.lastIndexOf('/');
+		int dot = name.lastIndexOf('.');
+		return dot > slash + 1 ? name.substring(dot + 1).toLowerCase(Locale.ENGLISH) : "";
+	}
+
+	/**
+	 * Compute the Shannon entropy of a block of bytes.
+	 *
+	 * @param data  the data
+	 * @param len   number of bytes to use
+	 * @return entropy in bits per byte (between 0 and 8)
+	 */
+	static double entropy(byte[] data, int len) {
+		int[] counts = new int[256];
+		for (int i = 0; i < len; i++) {
+			counts[data[i] & 0xFF]++;
+		}
+		double entropy = 0.0;
+		for (int count : counts) {
+			if (count > 0) {
+				double p = (double) count / len;
+				entropy -= p * Math.log(p);
+			}
+		}
+		return entropy / Math.log(2.0);
+	}
+
+	@Override
+	public String toString() {
+		return key;
+	}
+}
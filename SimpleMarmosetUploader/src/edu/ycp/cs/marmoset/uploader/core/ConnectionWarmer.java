@@ -0,0 +1,205 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.DefaultedHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+
+/**
+ * Opens a connection to the submission server ahead of time (e.g., while
+ * the user is typing their password), so that the submission doesn't
+ * have to wait for the host name to be resolved and the connection
+ * (and TLS session) to be established.
+ *
+ * <p>The connection is taken from the HttpClient's pool, for the same
+ * route that the submission request will use.  It is held until
+ * {@link #finish()} is called, which returns it to the pool to be
+ * used by the request, or {@link #discard()}, which closes it.
+ * Either may be called from any thread, including while
+ * {@link #open()} is still connecting.
+ *
+ * @author David Hovemeyer
+ */
+public class ConnectionWarmer {
+	/** How long a warm connection is kept in the pool, in seconds. */
+	public static final long KEEP_ALIVE_SECONDS = 60L;
+
+	// How long to wait for a connection from the pool, in milliseconds
+	private static final long LEASE_TIMEOUT = 5000L;
+
+	private enum State {
+		NEW,
+		OPENING,
+		OPEN,
+		FINISHED,
+		DISCARDED,
+	}
+
+	private final ClientConnectionManager connManager;
+	private final HttpRoute route;
+	private final HttpParams params;
+	private State state = State.NEW;
+	private ManagedClientConnection conn;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param client            the HttpClient which will send the submission
+	 *                          (see {@link Uploader#createHttpClient(int, int)})
+	 * @param submitProperties  the submit properties (from the .submit file)
+	 * @throws IOException if the route to the server can't be determined
+	 */
+	public ConnectionWarmer(HttpClient client, Properties submitProperties) throws IOException {
+		String url = Uploader.getUploadUrl(submitProperties);
+		HttpHost target;
+		try {
+			// Same as the target host HttpClient determines for the request
+			target = URIUtils.extractHost(new URI(url));
+		} catch (URISyntaxException e) {
+			throw new IOException("Invalid submit URL: " + url);
+		}
+		this.connManager = client.getConnectionManager();
+		this.route = determineRoute(client, target, new HttpPost(url));
+
+		// The connect timeout in the .submit file overrides the default
+		BasicHttpParams local = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(local, Uploader.getConnectTimeout(submitProperties));
+		this.params = new DefaultedHttpParams(local, client.getParams());
+	}
+
+	private static HttpRoute determineRoute(HttpClient client, HttpHost target, HttpRequest request) throws IOException {
+		if (client instanceof AbstractHttpClient) {
+			// Ask the client's route planner, so that the route matches the request's
+			try {
+				return ((AbstractHttpClient) client).getRoutePlanner().determineRoute(target, request, new BasicHttpContext());
+			} catch (Exception e) {
+				throw new IOException("Could not determine route to " + target, e);
+			}
+		}
+		return new HttpRoute(target, null, "https".equalsIgnoreCase(target.getSchemeName()));
+	}
+
+	/**
+	 * Open the connection: resolve the server's host name, connect,
+	 * and (for https) complete the TLS handshake.  If a connection to
+	 * the server is already in the pool, it is used instead.
+	 * Blocks until the connection is open, or fails.
+	 *
+	 * @throws IOException if the connection can't be opened, or if the warmer was
+	 *                     discarded while connecting
+	 */
+	public void open() throws IOException {
+		ManagedClientConnection c;
+		try {
+			c = connManager.requestConnection(route, null).getConnection(LEASE_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting for a connection");
+		}
+		synchronized (this) {
+			if (state != State.NEW) {
+				// Finished or discarded before the connection was available
+				release(c, state == State.FINISHED);
+				return;
+			}
+			conn = c;
+			state = State.OPENING;
+		}
+
+		boolean opened = false;
+		try {
+			if (!c.isOpen()) {
+				c.open(route, new BasicHttpContext(), params);
+			}
+			opened = true;
+		} finally {
+			synchronized (this) {
+				if (!opened || state == State.DISCARDED) {
+					release(c, false);
+					conn = null;
+				} else if (state == State.FINISHED) {
+					release(c, true);
+					conn = null;
+				} else {
+					state = State.OPEN;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the connection to the pool, so that it can be used by the
+	 * submission request.  If it is still being opened, it is returned
+	 * to the pool once it is open.
+	 */
+	public synchronized void finish() {
+		if (state == State.FINISHED || state == State.DISCARDED) {
+			return;
+		}
+		if (state == State.OPEN) {
+			release(conn, true);
+			conn = null;
+		}
+		state = State.FINISHED;
+	}
+
+	/**
+	 * Close the connection.  If it is still being opened, opening it is
+	 * abandoned.
+	 */
+	public void discard() {
+		ManagedClientConnection c;
+		synchronized (this) {
+			if (state == State.FINISHED || state == State.DISCARDED) {
+				return;
+			}
+			State previous = state;
+			state = State.DISCARDED;
+			if (previous == State.OPEN) {
+				release(conn, false);
+				conn = null;
+				return;
+			}
+			c = previous == State.OPENING ? conn : null;
+		}
+		if (c != null) {
+			// Interrupt connecting: open() releases the connection
+			try {
+				c.shutdown();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private void release(ManagedClientConnection c, boolean reusable) {
+		if (reusable && c.isOpen()) {
+			c.markReusable();
+		} else {
+			c.unmarkReusable();
+		}
+		connManager.releaseConnection(c, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+	}
+}
@@ -0,0 +1,84 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Digest of the contents of an archive: a SHA-1 hash computed over
+ * the name and content digest of each entry, in order.  It depends only
+ * on the archived files, not on how they were compressed, so it can be
+ * used to detect whether anything has changed since a previous submission.
+ * 
+ * @author David Hovemeyer
+ */
+public class ContentDigest {
+	private static final String ALGORITHM = "SHA-1";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final MessageDigest md;
+	
+	/**
+	 * Constructor.
+	 */
+	public ContentDigest() {
+		this.md = newEntryDigest();
+	}
+	
+	/**
+	 * Create a MessageDigest for computing the digest of an entry's contents.
+	 * 
+	 * @return the MessageDigest
+	 */
+	public static MessageDigest newEntryDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Add an entry.
+	 * 
+	 * @param name         the entry name
+	 * @param entryDigest  the digest of the entry's contents
+	 */
+	public void addEntry(String name, byte[] entryDigest) {
+		md.update(name.getBytes(UTF8));
+		md.update((byte) 0);
+		md.update(entryDigest);
+	}
+	
+	/**
+	 * Complete the digest.  This should be called only once,
+	 * after all entries have been added.
+	 * 
+	 * @return the digest as a string of hex digits
+	 */
+	public String finish() {
+		return toHex(md.digest());
+	}
+
+	/**
+	 * Convert bytes to a string of hex digits.
+	 * 
+	 * @param bytes the bytes
+	 * @return the hex string
+	 */
+	public static String toHex(byte[] bytes) {
+		StringBuilder buf = new StringBuilder();
+		for (byte b : bytes) {
+			buf.append(Character.forDigit((b >> 4) & 0xF, 16));
+			buf.append(Character.forDigit(b & 0xF, 16));
+		}
+		return buf.toString();
+	}
+}
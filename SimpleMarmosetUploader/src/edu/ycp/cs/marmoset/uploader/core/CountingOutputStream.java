@@ -0,0 +1,54 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream which counts the bytes written through it.
+ * Closing it does not close the underlying stream.
+ * 
+ * @author David Hovemeyer
+ */
+public class CountingOutputStream extends FilterOutputStream {
+	private long count;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param out the underlying output stream
+	 */
+	public CountingOutputStream(OutputStream out) {
+		super(out);
+	}
+	
+	/**
+	 * @return the number of bytes written
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		count++;
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		count += len;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+}
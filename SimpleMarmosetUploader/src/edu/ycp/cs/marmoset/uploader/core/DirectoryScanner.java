@@ -0,0 +1,176 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Scan stage of the submission pipeline for a project directory
+ * outside of Eclipse: find the files in a directory tree which are
+ * not excluded by a {@link SubmitIgnore}.
+ *
+ * <p>To match what the plugin would submit for the same project,
+ * version control metadata directories are always excluded, and
+ * if derived resources are excluded, so are the output folders
+ * named in an Eclipse .classpath file.
+ *
+ * @author David Hovemeyer
+ */
+public abstract class DirectoryScanner {
+	/** Version control metadata directories (team-private resources in Eclipse). */
+	private static final Set<String> TEAM_PRIVATE_NAMES = new HashSet<String>(Arrays.asList(
+			".git", ".svn", ".hg", ".bzr", "CVS"));
+
+	private static final Pattern OUTPUT_ENTRY_PATTERN =
+			Pattern.compile("<classpathentry\\s+kind=\"output\"\\s+path=\"([^\"]+)\"");
+
+	/**
+	 * A file in a project directory.  Its size and modification
+	 * time are those it had when it was scanned.
+	 */
+	private static class FileSource implements ArchiveSource {
+		private final String name;
+		private final File file;
+		private final long size;
+		private final long time;
+
+		FileSource(String name, File file) {
+			this.name = name;
+			this.file = file;
+			this.size = file.length();
+			this.time = file.lastModified();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getStamp() {
+			return size;
+		}
+
+		public File getLocalFile() {
+			return file;
+		}
+
+		public InputStream open() throws FileNotFoundException {
+			return new FileInputStream(file);
+		}
+	}
+
+	/**
+	 * Find all of the files in a project directory which are not excluded.
+	 * Excluded directories are not scanned.  Files are sorted by path
+	 * (see {@link Manifest#PATH_ORDER}).
+	 *
+	 * @param projectDir  the project directory
+	 * @param ignore      rules determining which files and directories are excluded
+	 * @return manifest of the files to be archived
+	 * @throws IOException
+	 */
+	public static Manifest scan(File projectDir, SubmitIgnore ignore) throws IOException {
+		if (!projectDir.isDirectory()) {
+			throw new FileNotFoundException(projectDir.getPath() + " is not a directory");
+		}
+		if (ignore.isExcludeDerived()) {
+			addOutputFolders(projectDir, ignore);
+		}
+
+		List<ArchiveSource> files = new ArrayList<ArchiveSource>();
+		Set<String> visited = new HashSet<String>();
+		recursivelyScan(projectDir, "", ignore, files, visited);
+		return new Manifest(files);
+	}
+
+	/**
+	 * Find all of the files in a project directory which are not excluded,
+	 * and check that they are within a size budget.
+	 *
+	 * @param projectDir  the project directory
+	 * @param ignore      rules determining which files and directories are excluded
+	 * @param budget      limits on the size of the files
+	 * @return manifest of the files to be archived
+	 * @throws SizeBudgetException if the files are over budget
+	 * @throws IOException
+	 */
+	public static Manifest scan(File projectDir, SubmitIgnore ignore, SizeBudget budget) throws IOException {
+		Manifest manifest = scan(projectDir, ignore);
+		budget.check(manifest);
+		return manifest;
+	}
+
+	private static void recursivelyScan(File dir, String prefix, SubmitIgnore ignore, List<ArchiveSource> files, Set<String> visited) throws IOException {
+		// Don't follow symbolic links around in circles
+		if (!visited.add(dir.getCanonicalPath())) {
+			return;
+		}
+
+		File[] children = dir.listFiles();
+		if (children == null) {
+			throw new IOException("Could not read directory " + dir.getPath());
+		}
+		Arrays.sort(children);
+
+		for (File child : children) {
+			String name = prefix + child.getName();
+			boolean isDirectory = child.isDirectory();
+			if (isDirectory && TEAM_PRIVATE_NAMES.contains(child.getName())) {
+				continue;
+			}
+			if (ignore.matches(name, isDirectory)) {
+				continue;
+			}
+			if (isDirectory) {
+				recursivelyScan(child, name + "/", ignore, files, visited);
+			} else if (child.isFile()) {
+				files.add(new FileSource(name, child));
+			}
+		}
+	}
+
+	private static void addOutputFolders(File projectDir, SubmitIgnore ignore) throws IOException {
+		File classpath = new File(projectDir, ".classpath");
+		if (!classpath.isFile()) {
+			return;
+		}
+
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(classpath), "UTF-8"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				Matcher m = OUTPUT_ENTRY_PATTERN.matcher(line);
+				if (m.find()) {
+					ignore.addPattern("/" + m.group(1) + "/");
+				}
+			}
+		} finally {
+			IOUtil.closeQuietly(reader);
+		}
+	}
+}
@@ -0,0 +1,318 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent per-project cache of compressed archive entries, so that
+ * when a project is resubmitted, only the files that have changed
+ * need to be compressed again.  Entries are keyed by entry name,
+ * and are valid only as long as the file's stamp and modification
+ * time (see {@link ArchiveSource}), and the compression policy,
+ * are unchanged.  The cache is stored
+ * in a directory of its own, and is limited in size: the least recently
+ * used entries are evicted first.
+ * 
+ * @author David Hovemeyer
+ */
+public class EntryCache {
+	/** Default limit on the total size of the compressed data in a project's cache. */
+	public static final long DEFAULT_MAX_SIZE = 32L * 1024L * 1024L;
+	
+	private static final String INDEX_FILE = "index";
+	private static final String DATA_SUFFIX = ".dat";
+	private static final int INDEX_VERSION = 4;
+	
+	/**
+	 * A cached entry.  The compressed data is in a separate file.
+	 */
+	private static class Record {
+		long stamp;
+		long time;
+		String policy;
+		int method;
+		long crc;
+		long size;
+		long compressedSize;
+		byte[] digest;
+		long id;
+	}
+	
+	private final File dir;
+	private final long maxSize;
+	private final LinkedHashMap<String, Record> records;
+	private long totalSize;
+	private long nextId;
+	private boolean loaded;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param dir      directory in which to store the cache
+	 * @param maxSize  maximum total size of compressed data
+	 */
+	public EntryCache(File dir, long maxSize) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+		this.records = new LinkedHashMap<String, Record>(16, 0.75f, true); // access order
+	}
+	
+	/**
+	 * Look up the cached compressed entry for a file.
+	 * 
+	 * @param source  the file
+	 * @param policy  the compression policy
+	 * @return the cached entry, or null if the file is not cached,
+	 *         has been modified since it was cached, or was compressed
+	 *         using a different policy
+	 */
+	public ArchiveEntry get(ArchiveSource source, CompressionPolicy policy) {
+		String name = source.getName();
+		Record rec;
+		synchronized (this) {
+			ensureLoaded();
+			rec = records.get(name);
+			if (rec == null) {
+				return null;
+			}
+			if (rec.stamp != source.getStamp() || rec.time != source.getTime() || !rec.policy.equals(policy.getKey())) {
+				// Stale
+				remove(name);
+				return null;
+			}
+		}
+		
+		// Read the data outside the lock
+		try {
+			byte[] data = readData(rec);
+			return new ArchiveEntry(name, rec.time, rec.method, rec.crc, rec.size, data, rec.digest);
+		} catch (IOException e) {
+			synchronized (this) {
+				// Unless it was replaced (by put) in the meantime
+				if (records.get(name) == rec) {
+					remove(name);
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Look up the digest of a file's contents, as recorded when
+	 * the file was cached.  The data isn't read.
+	 * 
+	 * @param source  the file
+	 * @return the digest (see {@link ContentDigest}), or null if the file
+	 *         is not cached or has been modified since it was cached
+	 */
+	public synchronized byte[] getDigest(ArchiveSource source) {
+		ensureLoaded();
+		Record rec = records.get(source.getName());
+		if (rec == null || rec.stamp != source.getStamp() || rec.time != source.getTime()) {
+			return null;
+		}
+		return rec.digest;
+	}
+
+	/**
+	 * Add a compressed entry for a file to the cache.
+	 * 
+	 * @param source  the file
+	 * @param policy  the compression policy used to compress the entry
+	 * @param entry   the compressed entry
+	 */
+	public void put(ArchiveSource source, CompressionPolicy policy, ArchiveEntry entry) {
+		if (entry.getCompressedSize() > maxSize) {
+			return;
+		}
+		
+		Record rec = new Record();
+		rec.stamp = source.getStamp();
+		rec.time = entry.time;
+		rec.policy = policy.getKey();
+		rec.method = entry.method;
+		rec.crc = entry.crc;
+		rec.size = entry.size;
+		rec.compressedSize = entry.data.length;
+		rec.digest = entry.digest;
+		
+		synchronized (this) {
+			ensureLoaded();
+			rec.id = nextId++;
+		}
+		
+		// Write the data outside the lock
+		try {
+			writeData(rec, entry.data);
+		} catch (IOException e) {
+			getDataFile(rec).delete();
+			return;
+		}
+		
+		synchronized (this) {
+			remove(entry.name);
+			records.put(entry.name, rec);
+			totalSize += rec.compressedSize;
+			
+			// Evict least recently used entries
+			Iterator<Map.Entry<String, Record>> i = records.entrySet().iterator();
+			while (totalSize > maxSize && i.hasNext()) {
+				Record evicted = i.next().getValue();
+				i.remove();
+				totalSize -= evicted.compressedSize;
+				getDataFile(evicted).delete();
+			}
+		}
+	}
+	
+	/**
+	 * Save the cache index.  Errors are ignored: the cache is only an optimization.
+	 */
+	public synchronized void save() {
+		if (!loaded) {
+			return;
+		}
+		
+		File indexFile = new File(dir, INDEX_FILE);
+		File tmpFile = new File(dir, INDEX_FILE + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			out.writeInt(INDEX_VERSION);
+			out.writeLong(nextId);
+			out.writeInt(records.size());
+			// Iteration order is least recently used first, which is preserved on load
+			for (Map.Entry<String, Record> e : records.entrySet()) {
+				Record rec = e.getValue();
+				out.writeUTF(e.getKey());
+				out.writeLong(rec.stamp);
+				out.writeLong(rec.time);
+				out.writeUTF(rec.policy);
+				out.writeInt(rec.method);
+				out.writeLong(rec.crc);
+				out.writeLong(rec.size);
+				out.writeLong(rec.compressedSize);
+				out.writeShort(rec.digest.length);
+				out.write(rec.digest);
+				out.writeLong(rec.id);
+			}
+			out.close();
+			out = null;
+			indexFile.delete();
+			if (!tmpFile.renameTo(indexFile)) {
+				tmpFile.delete();
+			}
+		} catch (IOException e) {
+			// Ignore: the entries will be compressed again next time
+		} finally {
+			IOUtil.closeQuietly(out);
+		}
+	}
+
+	private void ensureLoaded() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+		dir.mkdirs();
+		
+		File indexFile = new File(dir, INDEX_FILE);
+		if (indexFile.exists()) {
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+				if (in.readInt() == INDEX_VERSION) {
+					nextId = in.readLong();
+					int count = in.readInt();
+					for (int i = 0; i < count; i++) {
+						String name = in.readUTF();
+						Record rec = new Record();
+						rec.stamp = in.readLong();
+						rec.time = in.readLong();
+						rec.policy = in.readUTF();
+						rec.method = in.readInt();
+						rec.crc = in.readLong();
+						rec.size = in.readLong();
+						rec.compressedSize = in.readLong();
+						rec.digest = new byte[in.readUnsignedShort()];
+						in.readFully(rec.digest);
+						rec.id = in.readLong();
+						records.put(name, rec);
+						totalSize += rec.compressedSize;
+					}
+				}
+			} catch (IOException e) {
+				// Corrupted index: start over
+				records.clear();
+				totalSize = 0L;
+			} finally {
+				IOUtil.closeQuietly(in);
+			}
+		}
+		
+		// Delete data files not referenced by the index
+		Set<String> referenced = new HashSet<String>();
+		for (Record rec : records.values()) {
+			referenced.add(getDataFile(rec).getName());
+		}
+		File[] dataFiles = dir.listFiles();
+		if (dataFiles != null) {
+			for (File f : dataFiles) {
+				if (f.getName().endsWith(DATA_SUFFIX) && !referenced.contains(f.getName())) {
+					f.delete();
+				}
+			}
+		}
+	}
+
+	private void remove(String name) {
+		Record rec = records.remove(name);
+		if (rec != null) {
+			totalSize -= rec.compressedSize;
+			getDataFile(rec).delete();
+		}
+	}
+
+	private File getDataFile(Record rec) {
+		return new File(dir, rec.id + DATA_SUFFIX);
+	}
+	
+	private byte[] readData(Record rec) throws IOException {
+		byte[] data = new byte[(int) rec.compressedSize];
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(getDataFile(rec)));
+			in.readFully(data);
+			return data;
+		} finally {
+			IOUtil.closeQuietly(in);
+		}
+	}
+	
+	private void writeData(Record rec, byte[] data) throws IOException {
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(getDataFile(rec));
+			out.write(data);
+		} finally {
+			IOUtil.closeQuietly(out);
+		}
+	}
+}
@@ -4,7 +4,7 @@
 // Free software, distributed under the terms of the Apache License, version 2.0
 // See: http://www.apache.org/licenses/LICENSE-2.0.html
 
-package edu.ycp.cs.marmoset.uploader.handlers;
+package edu.ycp.cs.marmoset.uploader.core;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -25,14 +25,33 @@ public abstract class IOUtil {
 		}
 	}
 
-	public static void copy(InputStream in, OutputStream out) throws IOException {
-		byte[] buf = new byte[4096];
-		while (true) {
-			int n = in.read(buf);
+	public static long copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buf = BufferPool.DEFAULT.acquire();
+		try {
+			long total = 0L;
+			while (true) {
+				int n = in.read(buf);
+				if (n < 0) {
+					break;
+				}
+				out.write(buf, 0, n);
+				total += n;
+			}
+			return total;
+		} finally {
+			BufferPool.DEFAULT.release(buf);
+		}
+	}
+
+	public static int readFully(InputStream in, byte[] buf) throws IOException {
+		int total = 0;
+		while (total < buf.length) {
+			int n = in.read(buf, total, buf.length - total);
 			if (n < 0) {
 				break;
 			}
-			out.write(buf, 0, n);
+			total += n;
 		}
+		return total;
 	}
 }
@@ -0,0 +1,150 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Read files in the local file system using {@link FileChannel}
+ * (see {@link ArchiveSource#getLocalFile()}).
+ *
+ * @author David Hovemeyer
+ */
+public abstract class LocalFiles {
+	/** Files at least this large are memory-mapped by {@link #open(File)}. */
+	public static final long MAP_THRESHOLD = 1024L * 1024L;
+
+	/** Size of the region of a file which is mapped at a time. */
+	private static final long MAP_WINDOW = 64L * 1024L * 1024L;
+
+	/**
+	 * Read the entire contents of a file into an array.
+	 * If the file is the expected size, only the returned
+	 * array is allocated.
+	 *
+	 * @param file          the file
+	 * @param expectedSize  the expected size of the file
+	 * @return the contents of the file
+	 * @throws IOException
+	 */
+	public static byte[] read(File file, long expectedSize) throws IOException {
+		if (expectedSize > Integer.MAX_VALUE) {
+			throw new IOException(file.getPath() + " is too large");
+		}
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			byte[] data = new byte[(int) expectedSize];
+			ByteBuffer buf = ByteBuffer.wrap(data);
+			while (buf.hasRemaining()) {
+				if (channel.read(buf) < 0) {
+					// File is smaller than expected
+					return Arrays.copyOf(data, buf.position());
+				}
+			}
+
+			int b = in.read();
+			if (b < 0) {
+				return data;
+			}
+
+			// File is larger than expected
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 2 + 1);
+			out.write(data);
+			out.write(b);
+			IOUtil.copy(in, out);
+			return out.toByteArray();
+		} finally {
+			IOUtil.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Open a file for reading.  Large files are memory-mapped,
+	 * which avoids copying their contents through a read buffer.
+	 * Note that on some platforms (e.g., Windows) a mapped file can't be
+	 * truncated or deleted until the mapping is garbage collected.
+	 *
+	 * @param file the file
+	 * @return input stream to read the contents of the file
+	 * @throws IOException
+	 */
+	public static InputStream open(File file) throws IOException {
+		if (file.length() < MAP_THRESHOLD) {
+			return new FileInputStream(file);
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		return new MappedInputStream(file, raf.getChannel());
+	}
+
+	/**
+	 * Input stream reading a file through a series of memory-mapped
+	 * regions.  The size of the file is fixed when the stream is opened.
+	 */
+	private static class MappedInputStream extends InputStream {
+		private final File file;
+		private final FileChannel channel;
+		private final long size;
+		private long position;
+		private MappedByteBuffer window;
+
+		MappedInputStream(File file, FileChannel channel) throws IOException {
+			this.file = file;
+			this.channel = channel;
+			this.size = channel.size();
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : (b[0] & 0xFF);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (window == null || !window.hasRemaining()) {
+				if (position >= size) {
+					return -1;
+				}
+				long n = Math.min(MAP_WINDOW, size - position);
+				window = channel.map(FileChannel.MapMode.READ_ONLY, position, n);
+				position += n;
+			}
+			int n = Math.min(len, window.remaining());
+			try {
+				window.get(b, off, n);
+			} catch (InternalError e) {
+				// The file was truncated after it was mapped
+				throw new IOException(file.getPath() + " was modified while it was being read");
+			}
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, size - position + (window != null ? window.remaining() : 0));
+		}
+
+		@Override
+		public void close() throws IOException {
+			window = null;
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,126 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Result of the scan stage of the submission pipeline: the files to
+ * be submitted, sorted by path, with the size and stamp each file had
+ * when it was scanned.  The later stages (hashing, caching, archiving,
+ * and previews) work from the manifest rather than scanning again.
+ *
+ * @author David Hovemeyer
+ */
+public class Manifest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Orders paths segment by segment, which is the same order
+	 * as a depth-first traversal visiting the members of each
+	 * directory sorted by name.
+	 */
+	public static final Comparator<String> PATH_ORDER = new Comparator<String>() {
+		public int compare(String a, String b) {
+			int n = Math.min(a.length(), b.length());
+			for (int i = 0; i < n; i++) {
+				char ca = a.charAt(i);
+				char cb = b.charAt(i);
+				if (ca != cb) {
+					if (ca == '/') {
+						return -1;
+					} else if (cb == '/') {
+						return 1;
+					}
+					return ca - cb;
+				}
+			}
+			return a.length() - b.length();
+		}
+	};
+
+	private static final Comparator<ArchiveSource> SOURCE_ORDER = new Comparator<ArchiveSource>() {
+		public int compare(ArchiveSource a, ArchiveSource b) {
+			return PATH_ORDER.compare(a.getName(), b.getName());
+		}
+	};
+
+	private final List<ArchiveSource> sources;
+	private final long totalSize;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sources the files: they are sorted by path
+	 */
+	public Manifest(List<? extends ArchiveSource> sources) {
+		List<ArchiveSource> sorted = new ArrayList<ArchiveSource>(sources);
+		Collections.sort(sorted, SOURCE_ORDER);
+		long total = 0L;
+		for (ArchiveSource source : sorted) {
+			if (source.getSize() > 0) {
+				total += source.getSize();
+			}
+		}
+		this.sources = Collections.unmodifiableList(sorted);
+		this.totalSize = total;
+	}
+
+	/**
+	 * @return the files, sorted by path
+	 */
+	public List<ArchiveSource> getSources() {
+		return sources;
+	}
+
+	/**
+	 * @return the number of files
+	 */
+	public int size() {
+		return sources.size();
+	}
+
+	/**
+	 * @return the total size of the files (not counting files whose size is unknown)
+	 */
+	public long getTotalSize() {
+		return totalSize;
+	}
+
+	/**
+	 * Compute a fingerprint of the manifest from the path, size, and stamp
+	 * of each file.  It changes whenever a file is added, removed, or
+	 * modified, and is computed without reading any file contents.
+	 * (Unlike the {@link ContentDigest}, it may also change when the
+	 * contents don't, e.g., if a file is saved without changes.)
+	 *
+	 * @return the fingerprint as a string of hex digits
+	 */
+	public String getFingerprint() {
+		MessageDigest md = ContentDigest.newEntryDigest();
+		byte[] buf = new byte[16];
+		for (ArchiveSource source : sources) {
+			md.update(source.getName().getBytes(UTF8));
+			md.update((byte) 0);
+			putLong(buf, 0, source.getSize());
+			putLong(buf, 8, source.getStamp());
+			md.update(buf);
+		}
+		return ContentDigest.toHex(md.digest());
+	}
+
+	private static void putLong(byte[] buf, int off, long v) {
+		for (int i = 0; i < 8; i++) {
+			buf[off + i] = (byte) (v >>> (56 - i * 8));
+		}
+	}
+}
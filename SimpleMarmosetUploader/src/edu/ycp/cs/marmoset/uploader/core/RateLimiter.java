@@ -0,0 +1,88 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Limits the rate at which bytes are sent (a token bucket).
+ * A short burst (up to {@link #BURST_MILLIS} milliseconds' worth of
+ * bytes) is allowed after an idle period; otherwise callers are made
+ * to wait so that the average rate doesn't exceed the limit.
+ * A rate limiter may be shared by several threads, in which case
+ * the limit applies to all of them together.
+ *
+ * @author David Hovemeyer
+ */
+public class RateLimiter {
+	/** Maximum burst, in milliseconds' worth of bytes. */
+	public static final long BURST_MILLIS = 250L;
+
+	private final long bytesPerSecond;
+	private final long maxAvailable;
+	private long available;
+	private long lastRefill;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param bytesPerSecond the maximum rate, in bytes per second (must be positive)
+	 */
+	public RateLimiter(long bytesPerSecond) {
+		if (bytesPerSecond <= 0) {
+			throw new IllegalArgumentException("Invalid rate: " + bytesPerSecond);
+		}
+		this.bytesPerSecond = bytesPerSecond;
+		this.maxAvailable = Math.max(1L, bytesPerSecond * BURST_MILLIS / 1000L);
+		this.available = maxAvailable;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * @return the maximum rate, in bytes per second
+	 */
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Wait until given number of bytes may be sent.
+	 *
+	 * @param n the number of bytes
+	 * @throws InterruptedIOException if the thread is interrupted while waiting
+	 */
+	public synchronized void acquire(int n) throws InterruptedIOException {
+		// A request larger than the burst size just waits longer
+		available -= n;
+		while (true) {
+			refill();
+			if (available >= 0) {
+				return;
+			}
+			long waitMillis = Math.max(1L, -available * 1000L / bytesPerSecond);
+			try {
+				Thread.sleep(waitMillis);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting to send");
+			}
+		}
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		long elapsed = now - lastRefill;
+		long added = elapsed < 1000000000L ? (long) ((double) elapsed * bytesPerSecond / 1e9) : bytesPerSecond;
+		if (available + added >= maxAvailable) {
+			available = maxAvailable;
+			lastRefill = now;
+		} else if (added > 0) {
+			// Only account for the time corresponding to whole bytes
+			available += added;
+			lastRefill += (long) (added * 1e9 / bytesPerSecond);
+		}
+	}
+}
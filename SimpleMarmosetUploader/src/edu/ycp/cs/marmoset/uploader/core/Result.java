@@ -0,0 +1,120 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+/**
+ * The server's response to a submission.
+ * 
+ * @author David Hovemeyer
+ */
+public class Result {
+	/**
+	 * What the response means.
+	 */
+	public enum Category {
+		/** The submission was accepted. */
+		SUCCESS,
+		/** The server didn't recognize the password. */
+		BAD_PASSWORD,
+		/** The server didn't recognize the username. */
+		UNKNOWN_USER,
+		/** The server rejected the submission (e.g., the project or course doesn't exist). */
+		REJECTED,
+		/** The server (or a proxy) couldn't handle the submission right now. */
+		SERVER_ERROR,
+		/** A response the server isn't expected to send. */
+		UNEXPECTED,
+	}
+	
+	private final int httpCode;
+	private final String message;
+	private final long elapsedMillis;
+	private final Category category;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param httpCode  the HTTP status code
+	 * @param message   the server's message (the body of the response)
+	 */
+	public Result(int httpCode, String message) {
+		this(httpCode, message, 0L);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param httpCode       the HTTP status code
+	 * @param message        the server's message (the body of the response)
+	 * @param elapsedMillis  time from sending the request to receiving the response
+	 */
+	public Result(int httpCode, String message, long elapsedMillis) {
+		this.httpCode = httpCode;
+		this.message = message;
+		this.elapsedMillis = elapsedMillis;
+		this.category = classify(httpCode, message);
+	}
+	
+	private static Category classify(int httpCode, String message) {
+		if (httpCode == 200) {
+			return Category.SUCCESS;
+		} else if (message.contains("Wrong password")) {
+			return Category.BAD_PASSWORD;
+		} else if (message.contains("Cannot find user")) {
+			return Category.UNKNOWN_USER;
+		} else if (httpCode >= 500 || httpCode == 408 || httpCode == 429) {
+			return Category.SERVER_ERROR;
+		} else if (httpCode >= 400) {
+			return Category.REJECTED;
+		} else {
+			return Category.UNEXPECTED;
+		}
+	}
+	
+	/**
+	 * @return the HTTP status code
+	 */
+	public int getHttpCode() {
+		return httpCode;
+	}
+	
+	/**
+	 * @return the server's message
+	 */
+	public String getMessage() {
+		return message;
+	}
+	
+	/**
+	 * @return the time from sending the request to receiving the response
+	 *         (in milliseconds), or 0 if not known
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+	
+	/**
+	 * @return what the response means
+	 */
+	public Category getCategory() {
+		return category;
+	}
+	
+	/**
+	 * @return true if the submission was accepted
+	 */
+	public boolean isSuccess() {
+		return category == Category.SUCCESS;
+	}
+	
+	/**
+	 * @return true if the same submission might succeed if it is sent again later
+	 */
+	public boolean isRetryable() {
+		return category == Category.SERVER_ERROR;
+	}
+}
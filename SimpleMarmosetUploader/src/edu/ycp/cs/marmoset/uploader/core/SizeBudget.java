@@ -0,0 +1,157 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Limits on the size of a submission: the size of each file, and the
+ * total size of all of the files (before compression).  A budget is
+ * checked against the manifest when a project is scanned, so that a
+ * project which is too large is rejected before any time is spent
+ * compressing and uploading it (only to have the server refuse it).
+ *
+ * @author David Hovemeyer
+ */
+public class SizeBudget {
+	/** Default maximum size of one file. */
+	public static final long DEFAULT_MAX_FILE_SIZE = 10L * 1024L * 1024L;
+
+	/** Default maximum total size of the files. */
+	public static final long DEFAULT_MAX_TOTAL_SIZE = 50L * 1024L * 1024L;
+
+	/** A budget which allows any size. */
+	public static final SizeBudget UNLIMITED = new SizeBudget(0L, 0L);
+
+	// Maximum number of files listed in a report
+	private static final int MAX_LISTED = 10;
+
+	private static final Comparator<ArchiveSource> LARGEST_FIRST = new Comparator<ArchiveSource>() {
+		public int compare(ArchiveSource a, ArchiveSource b) {
+			return a.getSize() > b.getSize() ? -1 : (a.getSize() < b.getSize() ? 1 : 0);
+		}
+	};
+
+	private final long maxFileSize;
+	private final long maxTotalSize;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxFileSize   maximum size of one file, in bytes (0 for no limit)
+	 * @param maxTotalSize  maximum total size of the files, in bytes (0 for no limit)
+	 */
+	public SizeBudget(long maxFileSize, long maxTotalSize) {
+		this.maxFileSize = maxFileSize;
+		this.maxTotalSize = maxTotalSize;
+	}
+
+	/**
+	 * Create a size budget from the submit properties.
+	 * Invalid values are ignored.
+	 *
+	 * @param submitProperties the submit properties (from the .submit file)
+	 * @return the size budget
+	 */
+	public static SizeBudget fromProperties(Properties submitProperties) {
+		return new SizeBudget(
+				getKilobytes(submitProperties, SubmitConfig.PROP_MAX_FILE_SIZE, DEFAULT_MAX_FILE_SIZE),
+				getKilobytes(submitProperties, SubmitConfig.PROP_MAX_SUBMISSION_SIZE, DEFAULT_MAX_TOTAL_SIZE));
+	}
+
+	private static long getKilobytes(Properties submitProperties, String prop, long defaultValue) {
+		int kb = SubmitConfig.getInt(submitProperties, prop, -1);
+		return kb >= 0 ? kb * 1024L : defaultValue;
+	}
+
+	/**
+	 * @return maximum size of one file, in bytes (0 if there is no limit)
+	 */
+	public long getMaxFileSize() {
+		return maxFileSize;
+	}
+
+	/**
+	 * @return maximum total size of the files, in bytes (0 if there is no limit)
+	 */
+	public long getMaxTotalSize() {
+		return maxTotalSize;
+	}
+
+	/**
+	 * Check a manifest against the budget.
+	 * Files whose size is unknown are not counted.
+	 *
+	 * @param manifest the manifest
+	 * @throws SizeBudgetException if the files are over budget
+	 */
+	public void check(Manifest manifest) throws SizeBudgetException {
+		String report = describeViolations(manifest);
+		if (report != null) {
+			throw new SizeBudgetException(report);
+		}
+	}
+
+	/**
+	 * Describe how the files in a manifest are over budget:
+	 * which files are too large, and (if the total is too large)
+	 * which files contribute the most to the total.
+	 *
+	 * @param manifest the manifest
+	 * @return the description, or null if the files are within the budget
+	 */
+	public String describeViolations(Manifest manifest) {
+		List<ArchiveSource> oversized = new ArrayList<ArchiveSource>();
+		if (maxFileSize > 0) {
+			for (ArchiveSource source : manifest.getSources()) {
+				if (source.getSize() > maxFileSize) {
+					oversized.add(source);
+				}
+			}
+		}
+		boolean totalExceeded = maxTotalSize > 0 && manifest.getTotalSize() > maxTotalSize;
+		if (oversized.isEmpty() && !totalExceeded) {
+			return null;
+		}
+
+		StringBuilder buf = new StringBuilder();
+		if (!oversized.isEmpty()) {
+			Collections.sort(oversized, LARGEST_FIRST);
+			buf.append(oversized.size() == 1 ? "1 file is" : oversized.size() + " files are")
+				.append(" larger than the limit of ").append(ArchivePreview.formatSize(maxFileSize)).append(" per file:\n");
+			appendFiles(buf, oversized);
+		}
+		if (totalExceeded) {
+			List<ArchiveSource> largest = new ArrayList<ArchiveSource>(manifest.getSources());
+			Collections.sort(largest, LARGEST_FIRST);
+			if (buf.length() > 0) {
+				buf.append('\n');
+			}
+			buf.append("The ").append(manifest.size()).append(" files total ")
+				.append(ArchivePreview.formatSize(manifest.getTotalSize())).append(", more than the limit of ")
+				.append(ArchivePreview.formatSize(maxTotalSize)).append(". The largest files are:\n");
+			appendFiles(buf, largest);
+		}
+		buf.append("\nExclude files which don't need to be submitted by listing them in a ")
+			.append(SubmitIgnore.SUBMITIGNORE_FILE).append(" file.\n");
+		return buf.toString();
+	}
+
+	private static void appendFiles(StringBuilder buf, List<ArchiveSource> files) {
+		int n = Math.min(MAX_LISTED, files.size());
+		for (ArchiveSource source : files.subList(0, n)) {
+			buf.append("  ").append(ArchivePreview.formatSize(source.getSize())).append("  ").append(source.getName()).append('\n');
+		}
+		if (files.size() > n) {
+			buf.append("  ... and ").append(files.size() - n).append(" more\n");
+		}
+	}
+}
@@ -0,0 +1,28 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when the files to be submitted are over the
+ * {@link SizeBudget}.  The message describes which files are too large.
+ *
+ * @author David Hovemeyer
+ */
+public class SizeBudgetException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param report description of the files which are over budget
+	 */
+	public SizeBudgetException(String report) {
+		super(report);
+	}
+}
@@ -0,0 +1,549 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only history of submissions, kept on disk so that failed or
+ * duplicate submissions can be diagnosed later.  Records are appended
+ * to a data file, and a fixed-size entry for each record (its offset,
+ * length, time, and a hash of the project name) is appended to an
+ * index file.  The index is read into memory when the history is
+ * opened, so finding the records of a project only reads those
+ * records, no matter how long the history is.
+ *
+ * <p>Each record in the data file is preceded by its length and
+ * followed by its CRC, so a record which was only partly written
+ * (e.g., because Eclipse crashed) is detected and discarded.  If the
+ * index doesn't match the data file, it is rebuilt.  When the data
+ * file grows beyond {@link #MAX_DATA_SIZE} bytes, the oldest records
+ * are discarded.
+ *
+ * @author David Hovemeyer
+ */
+public class SubmissionHistory {
+	/** The data file is compacted when it grows beyond this size. */
+	public static final long MAX_DATA_SIZE = 8L * 1024L * 1024L;
+
+	/** Maximum length of the server message kept in a record. */
+	public static final int MAX_MESSAGE_LENGTH = 1000;
+
+	private static final String DATA_FILE = "history.dat";
+	private static final String INDEX_FILE = "history.idx";
+	private static final int RECORD_VERSION = 1;
+
+	// Index entry: offset (long), time (long), project name hash (int), record length (int)
+	private static final int INDEX_ENTRY_SIZE = 24;
+
+	/**
+	 * One submission in the history.
+	 */
+	public static class Record {
+		private final long time;
+		private final String projectName;
+		private final String courseName;
+		private final String semester;
+		private final String inbox;
+		private final String digest;
+		private final String outcome;
+		private final int httpCode;
+		private final String message;
+		private final long[] phaseMillis;
+		private final long timeToFirstByteMillis;
+		private final long filesScanned;
+		private final long rawBytes;
+		private final long archiveBytes;
+		private final long requestBytes;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param time         when the submission finished (milliseconds since the epoch)
+		 * @param projectName  the name of the project submitted
+		 * @param courseName   the course name (from the .submit file)
+		 * @param semester     the semester (from the .submit file)
+		 * @param inbox        the project number (inbox) submitted to
+		 * @param digest       content digest of the archive, or null if unknown
+		 * @param outcome      short description of the outcome (e.g., "ok", "http-500")
+		 * @param httpCode     the HTTP status of the server's response, or -1 if there was none
+		 * @param message      the server's message, or a description of the error
+		 * @param metrics      timing and byte counts of the submission
+		 */
+		public Record(long time, String projectName, String courseName, String semester, String inbox,
+				String digest, String outcome, int httpCode, String message, SubmissionMetrics metrics) {
+			this.time = time;
+			this.projectName = nonNull(projectName);
+			this.courseName = nonNull(courseName);
+			this.semester = nonNull(semester);
+			this.inbox = nonNull(inbox);
+			this.digest = nonNull(digest);
+			this.outcome = nonNull(outcome);
+			this.httpCode = httpCode;
+			String m = nonNull(message);
+			this.message = m.length() > MAX_MESSAGE_LENGTH ? m.substring(0, MAX_MESSAGE_LENGTH) : m;
+			SubmissionMetrics.Phase[] phases = SubmissionMetrics.Phase.values();
+			this.phaseMillis = new long[phases.length];
+			for (int i = 0; i < phases.length; i++) {
+				phaseMillis[i] = metrics.getMillis(phases[i]);
+			}
+			this.timeToFirstByteMillis = metrics.getTimeToFirstByteMillis();
+			this.filesScanned = metrics.getFilesScanned();
+			this.rawBytes = metrics.getRawBytes();
+			this.archiveBytes = metrics.getArchiveBytes();
+			this.requestBytes = metrics.getRequestBytes();
+		}
+
+		private Record(DataInputStream in) throws IOException {
+			if (in.readUnsignedByte() != RECORD_VERSION) {
+				throw new IOException("Unknown history record version");
+			}
+			time = in.readLong();
+			projectName = in.readUTF();
+			courseName = in.readUTF();
+			semester = in.readUTF();
+			inbox = in.readUTF();
+			digest = in.readUTF();
+			outcome = in.readUTF();
+			httpCode = in.readInt();
+			message = in.readUTF();
+			int numPhases = in.readUnsignedByte();
+			phaseMillis = new long[SubmissionMetrics.Phase.values().length];
+			for (int i = 0; i < numPhases; i++) {
+				long millis = in.readLong();
+				if (i < phaseMillis.length) {
+					phaseMillis[i] = millis;
+				}
+			}
+			timeToFirstByteMillis = in.readLong();
+			filesScanned = in.readLong();
+			rawBytes = in.readLong();
+			archiveBytes = in.readLong();
+			requestBytes = in.readLong();
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeByte(RECORD_VERSION);
+			out.writeLong(time);
+			out.writeUTF(projectName);
+			out.writeUTF(courseName);
+			out.writeUTF(semester);
+			out.writeUTF(inbox);
+			out.writeUTF(digest);
+			out.writeUTF(outcome);
+			out.writeInt(httpCode);
+			out.writeUTF(message);
+			out.writeByte(phaseMillis.length);
+			for (long millis : phaseMillis) {
+				out.writeLong(millis);
+			}
+			out.writeLong(timeToFirstByteMillis);
+			out.writeLong(filesScanned);
+			out.writeLong(rawBytes);
+			out.writeLong(archiveBytes);
+			out.writeLong(requestBytes);
+		}
+
+		/**
+		 * @return when the submission finished (milliseconds since the epoch)
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return the name of the project submitted
+		 */
+		public String getProjectName() {
+			return projectName;
+		}
+
+		/**
+		 * @return the course name
+		 */
+		public String getCourseName() {
+			return courseName;
+		}
+
+		/**
+		 * @return the semester
+		 */
+		public String getSemester() {
+			return semester;
+		}
+
+		/**
+		 * @return the project number (inbox) submitted to
+		 */
+		public String getInbox() {
+			return inbox;
+		}
+
+		/**
+		 * @return content digest of the archive, or "" if unknown
+		 */
+		public String getDigest() {
+			return digest;
+		}
+
+		/**
+		 * @return short description of the outcome
+		 */
+		public String getOutcome() {
+			return outcome;
+		}
+
+		/**
+		 * @return the HTTP status of the server's response, or -1 if there was none
+		 */
+		public int getHttpCode() {
+			return httpCode;
+		}
+
+		/**
+		 * @return the server's message, or a description of the error
+		 */
+		public String getMessage() {
+			return message;
+		}
+
+		/**
+		 * @return the timing and byte counts of the submission
+		 */
+		public SubmissionMetrics getMetrics() {
+			SubmissionMetrics metrics = new SubmissionMetrics();
+			SubmissionMetrics.Phase[] phases = SubmissionMetrics.Phase.values();
+			for (int i = 0; i < phases.length; i++) {
+				metrics.addTime(phases[i], phaseMillis[i] * 1000000L);
+			}
+			metrics.setTimeToFirstByte(timeToFirstByteMillis * 1000000L);
+			metrics.setFilesScanned(filesScanned);
+			metrics.setRawBytes(rawBytes);
+			metrics.setArchiveBytes(archiveBytes);
+			metrics.setRequestBytes(requestBytes);
+			return metrics;
+		}
+	}
+
+	private final File dataFile;
+	private final File indexFile;
+
+	// The index, in memory
+	private int count;
+	private long[] offsets = new long[64];
+	private long[] times = new long[64];
+	private int[] projectHashes = new int[64];
+	private int[] lengths = new int[64];
+	private long dataSize;
+
+	/**
+	 * Open (or create) a submission history.
+	 *
+	 * @param dir the directory containing the history files
+	 * @throws IOException
+	 */
+	public SubmissionHistory(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir.getPath());
+		}
+		this.dataFile = new File(dir, DATA_FILE);
+		this.indexFile = new File(dir, INDEX_FILE);
+		loadIndex();
+	}
+
+	/**
+	 * @return the number of records
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * Add a record to the history.
+	 *
+	 * @param record the record
+	 * @throws IOException
+	 */
+	public synchronized void append(Record record) throws IOException {
+		if (dataSize > MAX_DATA_SIZE) {
+			compact();
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		record.write(new DataOutputStream(bytes));
+		byte[] payload = bytes.toByteArray();
+
+		long offset = dataSize;
+		RandomAccessFile data = new RandomAccessFile(dataFile, "rw");
+		try {
+			data.seek(offset);
+			writeRecord(data, payload);
+		} finally {
+			data.close();
+		}
+		dataSize = offset + 8 + payload.length;
+
+		addEntry(offset, record.time, record.projectName.hashCode(), payload.length);
+		RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+		try {
+			index.seek((long) (count - 1) * INDEX_ENTRY_SIZE);
+			writeEntry(index, count - 1);
+		} finally {
+			index.close();
+		}
+	}
+
+	/**
+	 * Get the most recent records.
+	 *
+	 * @param max maximum number of records to get
+	 * @return the records, most recent first
+	 * @throws IOException
+	 */
+	public List<Record> getRecent(int max) throws IOException {
+		return find(null, max);
+	}
+
+	/**
+	 * Get the most recent records of a project.
+	 *
+	 * @param projectName the name of the project
+	 * @param max maximum number of records to get
+	 * @return the records, most recent first
+	 * @throws IOException
+	 */
+	public List<Record> getRecent(String projectName, int max) throws IOException {
+		return find(projectName, max);
+	}
+
+	private synchronized List<Record> find(String projectName, int max) throws IOException {
+		List<Record> result = new ArrayList<Record>();
+		if (count == 0) {
+			return result;
+		}
+		int hash = projectName != null ? projectName.hashCode() : 0;
+		RandomAccessFile data = new RandomAccessFile(dataFile, "r");
+		try {
+			for (int i = count - 1; i >= 0 && result.size() < max; i--) {
+				if (projectName != null && projectHashes[i] != hash) {
+					continue;
+				}
+				Record record = readRecord(data, offsets[i], lengths[i]);
+				if (record != null && (projectName == null || record.projectName.equals(projectName))) {
+					result.add(record);
+				}
+			}
+		} finally {
+			data.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Read the index, checking that it matches the data file.
+	 * If it doesn't, the index is rebuilt from the data file.
+	 */
+	private void loadIndex() throws IOException {
+		long length = dataFile.length();
+		if (length > 0 && indexFile.length() % INDEX_ENTRY_SIZE == 0) {
+			byte[] buf = new byte[(int) indexFile.length()];
+			RandomAccessFile index = new RandomAccessFile(indexFile, "r");
+			try {
+				index.readFully(buf);
+			} finally {
+				index.close();
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf));
+			int n = buf.length / INDEX_ENTRY_SIZE;
+			for (int i = 0; i < n; i++) {
+				addEntry(in.readLong(), in.readLong(), in.readInt(), in.readInt());
+			}
+			long end = count > 0 ? offsets[count - 1] + 8 + lengths[count - 1] : 0L;
+			if (end == length) {
+				dataSize = length;
+				return;
+			}
+		}
+		rebuildIndex();
+	}
+
+	/**
+	 * Rebuild the index by reading the data file.  A partial or corrupt
+	 * record at the end of the data file (and anything after it) is discarded.
+	 */
+	private void rebuildIndex() throws IOException {
+		count = 0;
+		dataSize = 0L;
+		if (dataFile.exists()) {
+			RandomAccessFile data = new RandomAccessFile(dataFile, "rw");
+			try {
+				long length = data.length();
+				long offset = 0L;
+				while (offset + 8 <= length) {
+					data.seek(offset);
+					int len = data.readInt();
+					if (len < 0 || offset + 8 + len > length) {
+						break;
+					}
+					Record record = readRecord(data, offset, len);
+					if (record == null) {
+						break;
+					}
+					addEntry(offset, record.time, record.projectName.hashCode(), len);
+					offset += 8 + len;
+				}
+				data.setLength(offset);
+				dataSize = offset;
+			} finally {
+				data.close();
+			}
+		}
+		writeIndex();
+	}
+
+	/**
+	 * Discard the oldest records, so that the data file is about half
+	 * of its maximum size.  The new data file and index are written
+	 * before they replace the old ones.
+	 */
+	private void compact() throws IOException {
+		int first = count;
+		long kept = 0L;
+		while (first > 0 && kept + 8 + lengths[first - 1] <= MAX_DATA_SIZE / 2) {
+			first--;
+			kept += 8 + lengths[first];
+		}
+
+		File newDataFile = new File(dataFile.getPath() + ".new");
+		RandomAccessFile data = new RandomAccessFile(dataFile, "r");
+		RandomAccessFile newData = new RandomAccessFile(newDataFile, "rw");
+		try {
+			newData.setLength(0L);
+			byte[] buf = new byte[1024];
+			long offset = 0L;
+			for (int i = first; i < count; i++) {
+				int len = 8 + lengths[i];
+				if (buf.length < len) {
+					buf = new byte[len];
+				}
+				data.seek(offsets[i]);
+				data.readFully(buf, 0, len);
+				newData.write(buf, 0, len);
+				offsets[i - first] = offset;
+				times[i - first] = times[i];
+				projectHashes[i - first] = projectHashes[i];
+				lengths[i - first] = lengths[i];
+				offset += len;
+			}
+			count -= first;
+			dataSize = offset;
+		} finally {
+			data.close();
+			newData.close();
+		}
+		if (!dataFile.delete() || !newDataFile.renameTo(dataFile)) {
+			// Make the index match whatever is left on disk
+			rebuildIndex();
+			throw new IOException("Could not replace " + dataFile.getPath());
+		}
+		writeIndex();
+	}
+
+	private void writeIndex() throws IOException {
+		RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+		try {
+			index.setLength(0L);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(count * INDEX_ENTRY_SIZE);
+			DataOutputStream out = new DataOutputStream(bytes);
+			for (int i = 0; i < count; i++) {
+				out.writeLong(offsets[i]);
+				out.writeLong(times[i]);
+				out.writeInt(projectHashes[i]);
+				out.writeInt(lengths[i]);
+			}
+			index.write(bytes.toByteArray());
+		} finally {
+			index.close();
+		}
+	}
+
+	private void writeEntry(RandomAccessFile index, int i) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(INDEX_ENTRY_SIZE);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(offsets[i]);
+		out.writeLong(times[i]);
+		out.writeInt(projectHashes[i]);
+		out.writeInt(lengths[i]);
+		index.write(bytes.toByteArray());
+	}
+
+	private void addEntry(long offset, long time, int projectHash, int length) {
+		if (count == offsets.length) {
+			int newLength = count * 2;
+			offsets = Arrays.copyOf(offsets, newLength);
+			times = Arrays.copyOf(times, newLength);
+			projectHashes = Arrays.copyOf(projectHashes, newLength);
+			lengths = Arrays.copyOf(lengths, newLength);
+		}
+		offsets[count] = offset;
+		times[count] = time;
+		projectHashes[count] = projectHash;
+		lengths[count] = length;
+		count++;
+	}
+
+	private static void writeRecord(RandomAccessFile data, byte[] payload) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 8);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(payload.length);
+		out.write(payload);
+		out.writeInt((int) crc.getValue());
+		data.write(bytes.toByteArray());
+	}
+
+	/**
+	 * Read a record from the data file.
+	 *
+	 * @return the record, or null if it is corrupt
+	 */
+	private static Record readRecord(RandomAccessFile data, long offset, int length) throws IOException {
+		byte[] buf = new byte[length + 8];
+		data.seek(offset);
+		data.readFully(buf);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf));
+		if (in.readInt() != length) {
+			return null;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buf, 4, length);
+		in.skipBytes(length);
+		if (in.readInt() != (int) crc.getValue()) {
+			return null;
+		}
+		try {
+			return new Record(new DataInputStream(new ByteArrayInputStream(buf, 4, length)));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static String nonNull(String s) {
+		return s != null ? s : "";
+	}
+}
@@ -0,0 +1,173 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timing and byte counts for the stages of one submission, so that
+ * slow submissions can be diagnosed.  Metrics are recorded by the
+ * code running each stage, and may be recorded from any thread.
+ *
+ * <p>When the archive is streamed into the upload request, zipping
+ * happens while the request body is sent, so the {@link Phase#ZIP}
+ * time is included in the {@link Phase#UPLOAD} time.
+ *
+ * @author David Hovemeyer
+ */
+public class SubmissionMetrics {
+	/**
+	 * Timed phases of a submission.
+	 */
+	public enum Phase {
+		/** Reading and checking the .submit file. */
+		CONFIG,
+		/** Finding the files to submit. */
+		SCAN,
+		/** Writing the zip archive. */
+		ZIP,
+		/** Sending the request body. */
+		UPLOAD,
+		/** Waiting for the server's response after the request body was sent. */
+		SERVER,
+	}
+
+	private static final int FILES_SCANNED = 0;
+	private static final int RAW_BYTES = 1;
+	private static final int ARCHIVE_BYTES = 2;
+	private static final int REQUEST_BYTES = 3;
+	private static final int TIME_TO_FIRST_BYTE = 4;
+	private static final int NUM_COUNTERS = 5;
+
+	private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+	private final AtomicLongArray counters = new AtomicLongArray(NUM_COUNTERS);
+
+	/**
+	 * Add time spent in a phase.
+	 *
+	 * @param phase  the phase
+	 * @param nanos  the time in nanoseconds
+	 */
+	public void addTime(Phase phase, long nanos) {
+		phaseNanos.addAndGet(phase.ordinal(), nanos);
+	}
+
+	/**
+	 * @param phase the phase
+	 * @return time spent in the phase, in milliseconds
+	 */
+	public long getMillis(Phase phase) {
+		return phaseNanos.get(phase.ordinal()) / 1000000L;
+	}
+
+	/**
+	 * @param filesScanned number of files found to submit
+	 */
+	public void setFilesScanned(long filesScanned) {
+		counters.set(FILES_SCANNED, filesScanned);
+	}
+
+	/**
+	 * @return number of files found to submit
+	 */
+	public long getFilesScanned() {
+		return counters.get(FILES_SCANNED);
+	}
+
+	/**
+	 * @param rawBytes total size of the files archived, before compression
+	 */
+	public void setRawBytes(long rawBytes) {
+		counters.set(RAW_BYTES, rawBytes);
+	}
+
+	/**
+	 * @return total size of the files archived, before compression
+	 */
+	public long getRawBytes() {
+		return counters.get(RAW_BYTES);
+	}
+
+	/**
+	 * @param archiveBytes size of the zip archive
+	 */
+	public void setArchiveBytes(long archiveBytes) {
+		counters.set(ARCHIVE_BYTES, archiveBytes);
+	}
+
+	/**
+	 * @return size of the zip archive
+	 */
+	public long getArchiveBytes() {
+		return counters.get(ARCHIVE_BYTES);
+	}
+
+	/**
+	 * @param requestBytes size of the request body sent to the server
+	 */
+	public void setRequestBytes(long requestBytes) {
+		counters.set(REQUEST_BYTES, requestBytes);
+	}
+
+	/**
+	 * @return size of the request body sent to the server
+	 */
+	public long getRequestBytes() {
+		return counters.get(REQUEST_BYTES);
+	}
+
+	/**
+	 * @param nanos time from starting to send the request until the
+	 *              server's response started to arrive, in nanoseconds
+	 */
+	public void setTimeToFirstByte(long nanos) {
+		counters.set(TIME_TO_FIRST_BYTE, nanos);
+	}
+
+	/**
+	 * @return time from starting to send the request until the server's
+	 *         response started to arrive, in milliseconds
+	 */
+	public long getTimeToFirstByteMillis() {
+		return counters.get(TIME_TO_FIRST_BYTE) / 1000000L;
+	}
+
+	/**
+	 * @return rate at which the request body was sent, in bytes per second,
+	 *         or 0 if the request hasn't been sent
+	 */
+	public long getUploadBytesPerSecond() {
+		long nanos = phaseNanos.get(Phase.UPLOAD.ordinal());
+		return nanos > 0 ? (long) (getRequestBytes() * 1e9 / nanos) : 0L;
+	}
+
+	/**
+	 * Format the metrics as space-separated key=value pairs,
+	 * suitable for a log message.
+	 *
+	 * @return the formatted metrics
+	 */
+	public String format() {
+		StringBuilder buf = new StringBuilder();
+		for (Phase phase : Phase.values()) {
+			buf.append(phase.name().toLowerCase(Locale.ENGLISH)).append("_ms=").append(getMillis(phase)).append(' ');
+		}
+		buf.append("ttfb_ms=").append(getTimeToFirstByteMillis());
+		buf.append(" files=").append(getFilesScanned());
+		buf.append(" raw_bytes=").append(getRawBytes());
+		buf.append(" archive_bytes=").append(getArchiveBytes());
+		buf.append(" request_bytes=").append(getRequestBytes());
+		buf.append(" upload_bytes_per_sec=").append(getUploadBytesPerSecond());
+		return buf.toString();
+	}
+
+	@Override
+	public String toString() {
+		return format();
+	}
+}
@@ -0,0 +1,200 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Names of the properties in a .submit file, and methods for
+ * reading and checking them.
+ *
+ * @author David Hovemeyer
+ */
+public abstract class SubmitConfig {
+	/** Name of the file containing the submit properties. */
+	public static final String SUBMIT_FILE = ".submit";
+
+	public static final String PROP_SUBMIT_URL = "submitURL";
+	public static final String PROP_SEMESTER = "semester";
+	public static final String PROP_COURSE_NAME = "courseName";
+	public static final String PROP_PROJECT_NUMBER = "projectNumber";
+
+	/**
+	 * Optional property: if set to false, the project is zipped to a
+	 * temporary file before uploading, rather than streamed directly
+	 * into the request.
+	 */
+	public static final String PROP_STREAM_UPLOAD = "streamUpload";
+
+	/**
+	 * Optional property: comma-separated list of patterns specifying
+	 * files to exclude from the submission (see {@link SubmitIgnore}).
+	 */
+	public static final String PROP_EXCLUDE = "exclude";
+
+	/**
+	 * Optional property: if set to false, derived resources are
+	 * included in the submission.
+	 */
+	public static final String PROP_EXCLUDE_DERIVED = "excludeDerived";
+
+	/**
+	 * Optional properties: connect timeout, read timeout, and overall
+	 * time limit for uploading a submission, in seconds.
+	 */
+	public static final String PROP_CONNECT_TIMEOUT = "connectTimeout";
+	public static final String PROP_READ_TIMEOUT = "readTimeout";
+	public static final String PROP_UPLOAD_DEADLINE = "uploadDeadline";
+
+	/**
+	 * Optional property: maximum rate at which a submission is uploaded,
+	 * in kilobytes per second (e.g., so that a lab submitting at once
+	 * doesn't saturate a shared uplink).  Not limited by default.
+	 */
+	public static final String PROP_MAX_UPLOAD_RATE = "maxUploadRate";
+
+	/**
+	 * Optional properties: maximum size of one file, and maximum total
+	 * size of the files, in kilobytes (see {@link SizeBudget}).
+	 * A project over either limit is not submitted.  0 means no limit.
+	 */
+	public static final String PROP_MAX_FILE_SIZE = "maxFileSize";
+	public static final String PROP_MAX_SUBMISSION_SIZE = "maxSubmissionSize";
+
+	/**
+	 * Optional property: maximum number of concurrent uploads when
+	 * several projects are submitted at once.
+	 */
+	public static final String PROP_MAX_CONCURRENT_UPLOADS = "maxConcurrentUploads";
+
+	/**
+	 * Optional property: if set to false, submissions which can't be
+	 * uploaded because of a network or server error are not queued
+	 * to be retried later.
+	 */
+	public static final String PROP_RETRY_FAILED_UPLOADS = "retryFailedUploads";
+
+	/**
+	 * Optional properties controlling how files are compressed
+	 * (see {@link CompressionPolicy}): whether files which are already
+	 * compressed are stored rather than deflated (true by default),
+	 * the deflate level (0-9, where 0 means store everything), and
+	 * a comma-separated list of extensions of files to store.
+	 */
+	public static final String PROP_ADAPTIVE_COMPRESSION = "adaptiveCompression";
+	public static final String PROP_COMPRESSION_LEVEL = "compressionLevel";
+	public static final String PROP_STORE_EXTENSIONS = "storeExtensions";
+
+	/**
+	 * Optional property: if set to false, students can't choose to have
+	 * their username and password remembered (e.g., in a shared lab).
+	 */
+	public static final String PROP_REMEMBER_CREDENTIALS = "rememberCredentials";
+
+	/**
+	 * Optional properties controlling watch mode, in which a project is
+	 * submitted automatically when files are saved: if autoSubmit is set
+	 * to false, students can't turn it on, and autoSubmitInterval is the
+	 * minimum time between automatic submissions, in seconds.
+	 */
+	public static final String PROP_AUTO_SUBMIT = "autoSubmit";
+	public static final String PROP_AUTO_SUBMIT_INTERVAL = "autoSubmitInterval";
+
+	/**
+	 * Optional property: if set to false, the project's files are not
+	 * compressed in advance while the user enters their password.
+	 */
+	public static final String PROP_PREPARE_ARCHIVE = "prepareArchive";
+
+	/** Properties which every .submit file must define. */
+	public static final String[] REQUIRED_PROPERTIES = new String[]{
+		PROP_PROJECT_NUMBER, PROP_COURSE_NAME, PROP_SEMESTER, PROP_SUBMIT_URL
+	};
+
+	/**
+	 * Regex pattern matching the submit url in a .submit file.
+	 * All we care about is the hostname and context path, since we will force submission via
+	 * the BlueJ upload servlet.
+	 */
+	public static final Pattern SUBMIT_URL_PATTERN =
+		Pattern.compile("^(https?://([^/]+))(/.*)$");
+
+	/**
+	 * Read and check submit properties.
+	 * The input stream is not closed.
+	 *
+	 * @param in input stream to read the .submit file from
+	 * @return the submit properties
+	 * @throws IOException
+	 * @throws IllegalArgumentException if a required property is missing or invalid
+	 */
+	public static Properties load(InputStream in) throws IOException {
+		Properties submitProperties = new Properties();
+		submitProperties.load(in);
+		check(submitProperties);
+		return submitProperties;
+	}
+
+	/**
+	 * Check that the required properties are defined, and that
+	 * the submit URL is valid.
+	 *
+	 * @param submitProperties the submit properties
+	 * @throws IllegalArgumentException if a required property is missing or invalid
+	 */
+	public static void check(Properties submitProperties) {
+		for (String prop : REQUIRED_PROPERTIES) {
+			if (submitProperties.getProperty(prop) == null) {
+				throw new IllegalArgumentException("Missing required " + prop + " property");
+			}
+		}
+
+		// Check submit URL
+		String submitUrl = submitProperties.getProperty(PROP_SUBMIT_URL);
+		Matcher m = SUBMIT_URL_PATTERN.matcher(submitUrl);
+		if (!m.matches()) {
+			throw new IllegalArgumentException("Invalid submit URL: " + submitUrl);
+		}
+	}
+
+	/**
+	 * Get the value of an optional boolean property.
+	 *
+	 * @param submitProperties  the submit properties
+	 * @param prop              the property name
+	 * @param defaultValue      value to return if the property is not set
+	 * @return the property value
+	 */
+	public static boolean getBoolean(Properties submitProperties, String prop, boolean defaultValue) {
+		String value = submitProperties.getProperty(prop);
+		return value != null ? Boolean.valueOf(value.trim()) : defaultValue;
+	}
+
+	/**
+	 * Get the value of an optional integer property.
+	 *
+	 * @param submitProperties  the submit properties
+	 * @param prop              the property name
+	 * @param defaultValue      value to return if the property is not set or is not a valid integer
+	 * @return the property value
+	 */
+	public static int getInt(Properties submitProperties, String prop, int defaultValue) {
+		String value = submitProperties.getProperty(prop);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+}
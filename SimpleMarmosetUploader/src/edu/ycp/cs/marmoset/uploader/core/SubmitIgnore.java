@@ -0,0 +1,263 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Rules determining which project files are excluded from a submission.
+ * Patterns use the same syntax as .gitignore files: "*", "?", "**",
+ * and character classes, "!" to negate (re-include), a trailing "/" to match
+ * only directories, and a leading "/" (or any other "/") to match relative
+ * to the project root rather than at any depth.  When several patterns match,
+ * the last one wins.  Files in an excluded directory are always excluded.
+ * 
+ * <p>Patterns are read from the project's .submitignore file, and from the
+ * comma-separated "exclude" property in the .submit file.  Derived resources
+ * (e.g., compiled class files) and team-private resources (e.g., version
+ * control metadata) are excluded by default: since those are Eclipse
+ * concepts, it is up to the code scanning the project to check for them.
+ * 
+ * @author David Hovemeyer
+ */
+public class SubmitIgnore {
+	/** Name of the file containing exclusion patterns. */
+	public static final String SUBMITIGNORE_FILE = ".submitignore";
+	
+	/**
+	 * A compiled pattern.
+	 */
+	private static class Rule {
+		final Pattern regex;
+		final boolean negate;
+		final boolean dirOnly;
+		
+		Rule(Pattern regex, boolean negate, boolean dirOnly) {
+			this.regex = regex;
+			this.negate = negate;
+			this.dirOnly = dirOnly;
+		}
+	}
+	
+	private final List<Rule> rules;
+	private boolean excludeDerived;
+	
+	/**
+	 * Constructor: creates an empty set of rules.
+	 */
+	public SubmitIgnore() {
+		this.rules = new ArrayList<Rule>();
+		this.excludeDerived = true;
+	}
+	
+	/**
+	 * Create exclusion rules from the "exclude" and "excludeDerived"
+	 * submit properties.
+	 * 
+	 * @param submitProperties  the submit properties (from the .submit file)
+	 * @return the exclusion rules
+	 */
+	public static SubmitIgnore fromProperties(Properties submitProperties) {
+		SubmitIgnore ignore = new SubmitIgnore();
+		
+		ignore.setExcludeDerived(SubmitConfig.getBoolean(submitProperties, SubmitConfig.PROP_EXCLUDE_DERIVED, true));
+		
+		String exclude = submitProperties.getProperty(SubmitConfig.PROP_EXCLUDE);
+		if (exclude != null) {
+			for (String pattern : exclude.split(",")) {
+				ignore.addPattern(pattern);
+			}
+		}
+		
+		return ignore;
+	}
+	
+	/**
+	 * Load the exclusion rules for a project directory.
+	 * 
+	 * @param projectDir        the project directory
+	 * @param submitProperties  the submit properties (from the .submit file)
+	 * @return the exclusion rules
+	 * @throws IOException
+	 */
+	public static SubmitIgnore load(File projectDir, Properties submitProperties) throws IOException {
+		SubmitIgnore ignore = fromProperties(submitProperties);
+		
+		File file = new File(projectDir, SUBMITIGNORE_FILE);
+		if (file.isFile()) {
+			ignore.addPatterns(new FileInputStream(file));
+		}
+		
+		return ignore;
+	}
+	
+	/**
+	 * Add the patterns in a .submitignore file, one per line.
+	 * The input stream is closed.
+	 * 
+	 * @param in input stream to read the patterns from
+	 * @throws IOException
+	 */
+	public void addPatterns(InputStream in) throws IOException {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				addPattern(line);
+			}
+		} finally {
+			IOUtil.closeQuietly(reader);
+			IOUtil.closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * Set whether derived resources are excluded.
+	 * 
+	 * @param excludeDerived true if derived resources should be excluded
+	 */
+	public void setExcludeDerived(boolean excludeDerived) {
+		this.excludeDerived = excludeDerived;
+	}
+	
+	/**
+	 * @return true if derived resources should be excluded
+	 */
+	public boolean isExcludeDerived() {
+		return excludeDerived;
+	}
+	
+	/**
+	 * Add a pattern.  Blank lines and comments (starting with "#") are ignored.
+	 * 
+	 * @param line the pattern
+	 */
+	public void addPattern(String line) {
+		String p = line.trim();
+		if (p.length() == 0 || p.startsWith("#")) {
+			return;
+		}
+		
+		boolean negate = false;
+		if (p.startsWith("!")) {
+			negate = true;
+			p = p.substring(1);
+		} else if (p.startsWith("\\#") || p.startsWith("\\!")) {
+			p = p.substring(1);
+		}
+		
+		boolean dirOnly = false;
+		if (p.endsWith("/")) {
+			dirOnly = true;
+			p = p.substring(0, p.length() - 1);
+		}
+		
+		// A pattern containing a slash is relative to the project root
+		boolean anchored = p.indexOf('/') >= 0;
+		if (p.startsWith("/")) {
+			p = p.substring(1);
+		}
+		if (p.length() == 0) {
+			return;
+		}
+		
+		String regex = (anchored ? "" : "(?:.*/)?") + toRegex(p);
+		rules.add(new Rule(Pattern.compile(regex), negate, dirOnly));
+	}
+	
+	/**
+	 * Determine whether a path should be excluded, taking into account
+	 * whether any of its parent directories are excluded.
+	 * 
+	 * @param path         project-relative path (using "/" as the separator)
+	 * @param isDirectory  true if the path is a directory
+	 * @return true if the path should be excluded
+	 */
+	public boolean isExcluded(String path, boolean isDirectory) {
+		int slash = -1;
+		while ((slash = path.indexOf('/', slash + 1)) >= 0) {
+			if (matches(path.substring(0, slash), true)) {
+				return true;
+			}
+		}
+		return matches(path, isDirectory);
+	}
+
+	/**
+	 * Determine whether a path is matched by the rules.  The path's
+	 * parent directories are assumed <em>not</em> to be excluded:
+	 * callers scanning a project should not descend into excluded directories.
+	 * 
+	 * @param path         project-relative path (using "/" as the separator)
+	 * @param isDirectory  true if the path is a directory
+	 * @return true if the path should be excluded
+	 */
+	public boolean matches(String path, boolean isDirectory) {
+		boolean excluded = false;
+		for (Rule rule : rules) {
+			if (rule.dirOnly && !isDirectory) {
+				continue;
+			}
+			if (rule.negate == excluded && rule.regex.matcher(path).matches()) {
+				excluded = !rule.negate;
+			}
+		}
+		return excluded;
+	}
+
+	private static String toRegex(String p) {
+		StringBuilder buf = new StringBuilder();
+		int len = p.length();
+		int i = 0;
+		while (i < len) {
+			char c = p.charAt(i);
+			if (c == '*') {
+				boolean doubleStar = i + 1 < len && p.charAt(i + 1) == '*';
+				boolean atSegmentStart = i == 0 || p.charAt(i - 1) == '/';
+				if (doubleStar && atSegmentStart && i + 2 < len && p.charAt(i + 2) == '/') {
+					// "**/": zero or more directories
+					buf.append("(?:.*/)?");
+					i += 3;
+				} else if (doubleStar) {
+					buf.append(".*");
+					i += 2;
+				} else {
+					buf.append("[^/]*");
+					i++;
+				}
+			} else if (c == '?') {
+				buf.append("[^/]");
+				i++;
+			} else if (c == '[' && p.indexOf(']', i + 1) > i + 1) {
+				int end = p.indexOf(']', i + 1);
+				String cls = p.substring(i + 1, end);
+				if (cls.startsWith("!")) {
+					cls = "^" + cls.substring(1);
+				}
+				buf.append('[').append(cls.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+				i = end + 1;
+			} else if (c == '\\' && i + 1 < len) {
+				buf.append(Pattern.quote(String.valueOf(p.charAt(i + 1))));
+				i += 2;
+			} else {
+				buf.append(Pattern.quote(String.valueOf(c)));
+				i++;
+			}
+		}
+		return buf.toString();
+	}
+}
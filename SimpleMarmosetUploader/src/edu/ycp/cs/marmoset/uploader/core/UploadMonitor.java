@@ -0,0 +1,41 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+/**
+ * Receives progress reports while a submission request is sent
+ * (see {@link Uploader}), and allows sending to be canceled.
+ *
+ * @author David Hovemeyer
+ */
+public interface UploadMonitor {
+	/**
+	 * A monitor which ignores progress reports and is never canceled.
+	 */
+	public static final UploadMonitor NULL = new UploadMonitor() {
+		public void sent(long bytesSent, long totalBytes) {
+		}
+		public void checkCanceled() {
+		}
+	};
+
+	/**
+	 * Called periodically while the request body is sent, and
+	 * when it has been sent completely.
+	 *
+	 * @param bytesSent   the number of bytes sent so far
+	 * @param totalBytes  the size of the request body, or -1 if it isn't
+	 *                    known in advance (e.g., if the archive is streamed)
+	 */
+	public void sent(long bytesSent, long totalBytes);
+
+	/**
+	 * Called before each part of the request body is sent: should throw
+	 * an unchecked exception if the upload should stop.
+	 */
+	public void checkCanceled();
+}
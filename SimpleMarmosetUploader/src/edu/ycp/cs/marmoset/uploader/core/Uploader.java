@@ -0,0 +1,512 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.mime.HttpMultipartMode;
+import org.apache.http.entity.mime.MultipartEntity;
+import org.apache.http.entity.mime.content.ContentBody;
+import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+/**
+ * Upload stage of the submission pipeline: send a zip archive
+ * to the submit server.
+ * 
+ * @author David Hovemeyer
+ */
+public abstract class Uploader {
+	private static final String SUBMIT_PROJECT_VIA_BLUE_J_SUBMITTER = "/bluej/SubmitProjectViaBlueJSubmitter";
+	private static final String SUBMIT_PROJECT_VIA_ECLIPSE = "/eclipse/SubmitProjectViaEclipse";
+	
+	// Default overall time limit for a submission, in milliseconds
+	private static final int DEFAULT_UPLOAD_DEADLINE = 10 * 60 * 1000;
+	
+	// Default connect and read timeouts, in milliseconds
+	private static final int DEFAULT_CONNECT_TIMEOUT = 30 * 1000;
+	private static final int DEFAULT_READ_TIMEOUT = 2 * 60 * 1000;
+	
+	// Largest timeout which may be specified in the .submit file, in seconds
+	private static final int MAX_TIMEOUT_SECONDS = 24 * 60 * 60;
+	
+	// Maximum number of bytes of a response body which are read,
+	// and maximum length of the server message
+	private static final int MAX_RESPONSE_SIZE = 16 * 1024;
+	private static final int MAX_MESSAGE_LENGTH = 2000;
+	
+	// Charset of a response which doesn't specify one (the HTTP default)
+	private static final Charset DEFAULT_CHARSET = Charset.forName("ISO-8859-1");
+	
+	private static final Pattern CHARSET_PATTERN = Pattern.compile("charset=\"?([^;\"\\s]+)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern SCRIPT_PATTERN = Pattern.compile("<(script|style)\\b.*?</\\1\\s*>", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern TAG_PATTERN = Pattern.compile("<[^>]*>");
+	private static final Pattern CONTROL_CHARS = Pattern.compile("[\\x00-\\x08\\x0B\\x0C\\x0E-\\x1F\\x7F]");
+	
+	private static Timer deadlineTimer;
+	private static volatile String clientVersion = "unknown";
+
+	// Largest amount of data sent at once by a MeteredEntity, and the
+	// minimum time between its progress reports (in nanoseconds)
+	private static final int MAX_WRITE_SIZE = 8 * 1024;
+	private static final long PROGRESS_INTERVAL = 200L * 1000000L;
+	
+	/**
+	 * Request entity which records when its body is written, and its size.
+	 * It can also limit the rate at which the body is sent, report
+	 * progress, and stop sending if the upload is canceled.
+	 */
+	private static class MeteredEntity extends HttpEntityWrapper {
+		final RateLimiter limiter;
+		final UploadMonitor monitor;
+		volatile long writeStart;
+		volatile long writeEnd;
+		volatile long bytesWritten;
+
+		MeteredEntity(HttpEntity entity, RateLimiter limiter, UploadMonitor monitor) {
+			super(entity);
+			this.limiter = limiter;
+			this.monitor = monitor != null ? monitor : UploadMonitor.NULL;
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			writeStart = System.nanoTime();
+			MeteredOutputStream metered = new MeteredOutputStream(out, this);
+			try {
+				super.writeTo(metered);
+				monitor.sent(metered.count, getContentLength());
+			} finally {
+				bytesWritten = metered.count;
+				writeEnd = System.nanoTime();
+			}
+		}
+	}
+	
+	/**
+	 * Output stream through which a {@link MeteredEntity} is written.
+	 * Large writes are split up, so that the rate limit is applied
+	 * smoothly, and so that cancellation is noticed promptly.
+	 */
+	private static class MeteredOutputStream extends FilterOutputStream {
+		final MeteredEntity entity;
+		final long totalBytes;
+		long count;
+		long lastReport;
+		
+		MeteredOutputStream(OutputStream out, MeteredEntity entity) {
+			super(out);
+			this.entity = entity;
+			this.totalBytes = entity.getContentLength();
+			this.lastReport = System.nanoTime();
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{ (byte) b }, 0, 1);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				int n = Math.min(len, MAX_WRITE_SIZE);
+				entity.monitor.checkCanceled();
+				if (entity.limiter != null) {
+					entity.limiter.acquire(n);
+				}
+				out.write(b, off, n);
+				count += n;
+				off += n;
+				len -= n;
+				
+				long now = System.nanoTime();
+				if (now - lastReport >= PROGRESS_INTERVAL) {
+					lastReport = now;
+					entity.monitor.sent(count, totalBytes);
+				}
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	/**
+	 * Set the client version reported to the server.
+	 * 
+	 * @param version the version (e.g., the plugin's Bundle-Version)
+	 */
+	public static void setClientVersion(String version) {
+		clientVersion = version;
+	}
+
+	/**
+	 * Create an HttpClient suitable for uploading submissions.
+	 * It pools connections, so that repeated requests to the same
+	 * server can reuse them, and it can be used by several threads
+	 * at once.  The default timeouts can be overridden using the
+	 * parameters of individual requests.
+	 * The caller should shut down its connection manager when it
+	 * is no longer needed.
+	 * 
+	 * @param maxConnections          maximum number of pooled connections
+	 * @param maxConnectionsPerRoute  maximum number of pooled connections to the same server
+	 * @return the HttpClient
+	 */
+	public static HttpClient createHttpClient(int maxConnections, int maxConnectionsPerRoute) {
+		ThreadSafeClientConnManager connManager = new ThreadSafeClientConnManager(SchemeRegistryFactory.createDefault());
+		connManager.setMaxTotal(maxConnections);
+		connManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+		
+		HttpParams params = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(params, DEFAULT_CONNECT_TIMEOUT);
+		HttpConnectionParams.setSoTimeout(params, DEFAULT_READ_TIMEOUT);
+		
+		return new DefaultHttpClient(connManager, params);
+	}
+
+	/**
+	 * Get the URL of the upload servlet from the submit properties.
+	 * 
+	 * @param submitProperties the submit properties (from the .submit file)
+	 * @return the URL to which submissions are posted
+	 */
+	public static String getUploadUrl(Properties submitProperties) {
+		String submitUrl = submitProperties.getProperty(SubmitConfig.PROP_SUBMIT_URL);
+		Matcher m = SubmitConfig.SUBMIT_URL_PATTERN.matcher(submitUrl);
+		if (!m.matches()) {
+			throw new IllegalStateException(); // we've already verified that it's a match
+		}
+
+		String proto = submitUrl.substring(0, submitUrl.indexOf(':')+1);
+		
+		String hostName = m.group(2);
+		String portNumber = ""; // assume no port was specified
+		int colonInHostName = hostName.indexOf(':');
+		if (colonInHostName >= 0) {
+			// host name is qualified with a port number
+			portNumber = hostName.substring(colonInHostName);
+			hostName = hostName.substring(0, colonInHostName);
+		}
+		String resourceName = m.group(3);
+		
+		// If the submit url was generated by the Marmoset UI, it will
+		// end in /eclipse/SubmitProjectViaEclipse.  If this is the case,
+		// change it to /bluej/SubmitProjectViaBlueJSubmitter.
+		if (resourceName.endsWith(SUBMIT_PROJECT_VIA_ECLIPSE)) {
+			resourceName =
+					resourceName.substring(0, resourceName.length() - SUBMIT_PROJECT_VIA_ECLIPSE.length()) +
+					SUBMIT_PROJECT_VIA_BLUE_J_SUBMITTER;
+		}
+
+		// Build the URL to access the upload servlet.
+		return proto + "//" + hostName + portNumber + resourceName;
+	}
+
+	/**
+	 * Create the POST request to submit a zip archive to the server.
+	 * The request can be aborted (from any thread) by calling
+	 * {@link HttpPost#abort()}.
+	 * 
+	 * @param submitProperties  the submit properties (from the .submit file)
+	 * @param archive           the zip archive to submit: either a FileBody
+	 *                          or a {@link ZipContentBody}
+	 * @param username          the username
+	 * @param password          the password
+	 * @return the POST request
+	 * @throws IOException
+	 */
+	public static HttpPost createSubmitRequest(Properties submitProperties, ContentBody archive, String username, String password) throws IOException {
+		HttpPost post = new HttpPost(getUploadUrl(submitProperties));
+		
+		// Timeouts specified in the .submit file override the defaults
+		HttpConnectionParams.setConnectionTimeout(post.getParams(), getConnectTimeout(submitProperties));
+		HttpConnectionParams.setSoTimeout(post.getParams(), getReadTimeout(submitProperties));
+			
+		// See:
+		// http://stackoverflow.com/questions/18733562/how-to-sending-multipart-form-data-post-request-in-with-use-of-apache-httpcompon
+		
+		MultipartEntity entity = new MultipartEntity(HttpMultipartMode.BROWSER_COMPATIBLE);
+		
+		entity.addPart("campusUID", new StringBody(username));
+		entity.addPart("password", new StringBody(password));
+		entity.addPart("submitClientTool", new StringBody("SimpleMarmosetUploader"));
+
+		entity.addPart("submitClientVersion", new StringBody(clientVersion));
+		
+		// All submit properties except the submit URL must be added as parameters
+		for (String prop : SubmitConfig.REQUIRED_PROPERTIES) {
+			if (!prop.equals(SubmitConfig.PROP_SUBMIT_URL)) {
+				entity.addPart(prop, new StringBody(submitProperties.getProperty(prop)));
+			}
+		}
+		
+		// Add the file part
+		entity.addPart("submittedFiles", archive);
+		
+		// Add the MultipartEntity to the POST request
+		post.setEntity(entity);
+		
+		return post;
+	}
+
+	/**
+	 * Send a submission request to the server.
+	 * If the request is aborted while in progress, or isn't completed
+	 * before the deadline, an IOException is thrown.
+	 * 
+	 * @param client    the HttpClient to use (see {@link #createHttpClient(int, int)})
+	 * @param post      the request (created by {@link #createSubmitRequest(Properties, ContentBody, String, String)})
+	 * @param deadline  overall time limit for the request in milliseconds, 0 for no limit
+	 * @return the {@link Result} of the submission
+	 * @throws IOException
+	 */
+	public static Result sendToServer(HttpClient client, final HttpPost post, long deadline) throws IOException {
+		return sendToServer(client, post, deadline, null);
+	}
+
+	/**
+	 * Send a submission request to the server, recording the time taken
+	 * to send the request body, the time the server took to respond,
+	 * and the number of bytes sent.
+	 * 
+	 * @param client    the HttpClient to use (see {@link #createHttpClient(int, int)})
+	 * @param post      the request (created by {@link #createSubmitRequest(Properties, ContentBody, String, String)})
+	 * @param deadline  overall time limit for the request in milliseconds, 0 for no limit
+	 * @param metrics   the metrics to record to (may be null)
+	 * @return the {@link Result} of the submission
+	 * @throws IOException
+	 */
+	public static Result sendToServer(HttpClient client, HttpPost post, long deadline, SubmissionMetrics metrics) throws IOException {
+		return sendToServer(client, post, deadline, metrics, null, null);
+	}
+
+	/**
+	 * Send a submission request to the server, recording metrics,
+	 * limiting the rate at which the request body is sent, and reporting
+	 * the progress of sending it.  If the monitor's
+	 * {@link UploadMonitor#checkCanceled()} method throws an exception,
+	 * the request is aborted and the exception is rethrown.
+	 * 
+	 * @param client    the HttpClient to use (see {@link #createHttpClient(int, int)})
+	 * @param post      the request (created by {@link #createSubmitRequest(Properties, ContentBody, String, String)})
+	 * @param deadline  overall time limit for the request in milliseconds, 0 for no limit
+	 * @param metrics   the metrics to record to (may be null)
+	 * @param limiter   limits the rate at which the request is sent (null for no limit;
+	 *                  see {@link #getRateLimiter(Properties)})
+	 * @param monitor   receives progress reports (may be null)
+	 * @return the {@link Result} of the submission
+	 * @throws IOException
+	 */
+	public static Result sendToServer(HttpClient client, final HttpPost post, long deadline, SubmissionMetrics metrics,
+			RateLimiter limiter, UploadMonitor monitor) throws IOException {
+		final AtomicBoolean timedOut = new AtomicBoolean(false);
+		TimerTask abortTask = null;
+		if (deadline > 0) {
+			abortTask = new TimerTask() {
+				@Override
+				public void run() {
+					timedOut.set(true);
+					post.abort();
+				}
+			};
+			getDeadlineTimer().schedule(abortTask, deadline);
+		}
+		
+		MeteredEntity entity = null;
+		if ((metrics != null || limiter != null || monitor != null) && post.getEntity() != null) {
+			entity = new MeteredEntity(post.getEntity(), limiter, monitor);
+			post.setEntity(entity);
+		}
+		
+		boolean success = false;
+		long start = System.nanoTime();
+		try {
+			// Execute the request!
+			HttpResponse response = client.execute(post);
+			if (metrics != null && entity != null) {
+				recordMetrics(metrics, entity, start, System.nanoTime());
+			}
+			
+			// Read the server's message, and return the result
+			int httpCode = response.getStatusLine().getStatusCode();
+			String message = readMessage(response.getEntity(), post);
+			Result result = new Result(httpCode, message, (System.nanoTime() - start) / 1000000L);
+			success = true;
+			
+			return result;
+		} catch (IOException e) {
+			if (timedOut.get()) {
+				throw new IOException("The upload did not complete within " + (deadline / 1000) + " seconds");
+			}
+			throw e;
+		} finally {
+			if (abortTask != null) {
+				abortTask.cancel();
+			}
+			if (!success) {
+				// Make sure the connection is released
+				post.abort();
+			}
+		}
+	}
+
+	/**
+	 * Read the server's message from the body of a response.  At most
+	 * {@link #MAX_RESPONSE_SIZE} bytes are read: if the body is larger
+	 * (e.g., an error page from a proxy), the request is aborted rather
+	 * than reading the rest of it.  Otherwise, the connection is released
+	 * as soon as the body has been read.  HTML markup is removed, so that
+	 * the message can be shown to the user.
+	 */
+	private static String readMessage(HttpEntity entity, HttpPost post) throws IOException {
+		if (entity == null) {
+			return "";
+		}
+		
+		byte[] buf = new byte[MAX_RESPONSE_SIZE];
+		int n = 0;
+		boolean complete = false;
+		InputStream in = entity.getContent();
+		try {
+			n = IOUtil.readFully(in, buf);
+			complete = n < buf.length || in.read() < 0;
+		} finally {
+			if (!complete) {
+				// Closing the stream would read the rest of the body
+				post.abort();
+			}
+			IOUtil.closeQuietly(in);
+		}
+		
+		Header contentType = entity.getContentType();
+		String type = contentType != null ? contentType.getValue() : "";
+		String message = new String(buf, 0, n, getCharset(type));
+		if (type.toLowerCase(Locale.ENGLISH).startsWith("text/html") || message.trim().startsWith("<")) {
+			message = stripMarkup(message);
+		}
+		message = CONTROL_CHARS.matcher(message).replaceAll("");
+		if (!complete || message.length() > MAX_MESSAGE_LENGTH) {
+			message = message.substring(0, Math.min(message.length(), MAX_MESSAGE_LENGTH)) + "...";
+		}
+		return message;
+	}
+	
+	private static Charset getCharset(String contentType) {
+		Matcher m = CHARSET_PATTERN.matcher(contentType);
+		if (m.find()) {
+			try {
+				return Charset.forName(m.group(1));
+			} catch (IllegalArgumentException e) {
+				// Unknown or invalid charset: use the default
+			}
+		}
+		return DEFAULT_CHARSET;
+	}
+	
+	private static String stripMarkup(String html) {
+		String text = SCRIPT_PATTERN.matcher(html).replaceAll(" ");
+		text = TAG_PATTERN.matcher(text).replaceAll(" ");
+		text = text.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+				.replace("&#39;", "'").replace("&nbsp;", " ").replace("&amp;", "&");
+		return text.replaceAll("\\s+", " ").trim();
+	}
+
+	private static void recordMetrics(SubmissionMetrics metrics, MeteredEntity entity, long start, long responseReceived) {
+		metrics.setTimeToFirstByte(responseReceived - start);
+		if (entity.writeEnd != 0L) {
+			metrics.addTime(SubmissionMetrics.Phase.UPLOAD, entity.writeEnd - entity.writeStart);
+			metrics.addTime(SubmissionMetrics.Phase.SERVER, responseReceived - entity.writeEnd);
+			metrics.setRequestBytes(entity.bytesWritten);
+		}
+	}
+
+	/**
+	 * Get the upload rate limit from the submit properties.
+	 * 
+	 * @param submitProperties the submit properties (from the .submit file)
+	 * @return a rate limiter, or null if the upload rate is not limited
+	 */
+	public static RateLimiter getRateLimiter(Properties submitProperties) {
+		int kbPerSecond = SubmitConfig.getInt(submitProperties, SubmitConfig.PROP_MAX_UPLOAD_RATE, 0);
+		return kbPerSecond > 0 ? new RateLimiter(kbPerSecond * 1024L) : null;
+	}
+
+	/**
+	 * Get the overall deadline for a submission from the submit properties.
+	 * 
+	 * @param submitProperties the submit properties (from the .submit file)
+	 * @return the deadline in milliseconds, 0 for no limit
+	 */
+	public static long getDeadline(Properties submitProperties) {
+		int seconds = SubmitConfig.getInt(submitProperties, SubmitConfig.PROP_UPLOAD_DEADLINE, -1);
+		if (seconds == 0) {
+			return 0;
+		}
+		return seconds > 0 ? toMillis(seconds) : DEFAULT_UPLOAD_DEADLINE;
+	}
+
+	/**
+	 * Get the connect timeout from the submit properties.
+	 * An invalid value is ignored: there is always a timeout.
+	 * 
+	 * @param submitProperties the submit properties (from the .submit file)
+	 * @return the connect timeout in milliseconds
+	 */
+	public static int getConnectTimeout(Properties submitProperties) {
+		int seconds = SubmitConfig.getInt(submitProperties, SubmitConfig.PROP_CONNECT_TIMEOUT, -1);
+		return seconds > 0 ? toMillis(seconds) : DEFAULT_CONNECT_TIMEOUT;
+	}
+
+	/**
+	 * Get the read timeout from the submit properties.
+	 * An invalid value is ignored: there is always a timeout.
+	 * 
+	 * @param submitProperties the submit properties (from the .submit file)
+	 * @return the read timeout in milliseconds
+	 */
+	public static int getReadTimeout(Properties submitProperties) {
+		int seconds = SubmitConfig.getInt(submitProperties, SubmitConfig.PROP_READ_TIMEOUT, -1);
+		return seconds > 0 ? toMillis(seconds) : DEFAULT_READ_TIMEOUT;
+	}
+
+	private static int toMillis(int seconds) {
+		// Property values are in seconds
+		return Math.min(seconds, MAX_TIMEOUT_SECONDS) * 1000;
+	}
+
+	private static synchronized Timer getDeadlineTimer() {
+		if (deadlineTimer == null) {
+			deadlineTimer = new Timer("Marmoset upload deadline", true);
+		}
+		return deadlineTimer;
+	}
+}
@@ -0,0 +1,172 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+/**
+ * Multipart content body which zips the files directly
+ * into the request body as it is sent, so that no temporary zip
+ * file is needed and zipping overlaps with uploading.
+ * The length of the archive isn't known in advance, so the request
+ * is sent using chunked transfer encoding.
+ * 
+ * <p>Optionally, a copy of the archive is written to a file as it is
+ * sent, so that exactly the same archive can be sent again if the
+ * upload fails (see {@link #setCopyFile(File)}).
+ * 
+ * @author David Hovemeyer
+ */
+public class ZipContentBody extends AbstractContentBody {
+	private static final int BUFFER_SIZE = 8192;
+	
+	/**
+	 * Output stream which writes to a file as well as the request.
+	 * If writing to the request fails, writing to the file continues,
+	 * so that the copy of the archive is complete; the failure is
+	 * reported once the archive has been written.
+	 */
+	private static class CopyingOutputStream extends OutputStream {
+		final OutputStream out;
+		final OutputStream copy;
+		IOException failure;
+		
+		CopyingOutputStream(OutputStream out, OutputStream copy) {
+			this.out = out;
+			this.copy = copy;
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			copy.write(b);
+			if (failure == null) {
+				try {
+					out.write(b);
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			copy.write(b, off, len);
+			if (failure == null) {
+				try {
+					out.write(b, off, len);
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			copy.flush();
+			if (failure == null) {
+				try {
+					out.flush();
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+		}
+	}
+	
+	private final Archiver archiver;
+	private final ArchiveMonitor monitor;
+	private File copyFile;
+	private volatile boolean copyComplete;
+	private volatile boolean written;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param archiver the archiver which will write the archive
+	 * @param monitor  progress monitor (used once, when the body is written)
+	 */
+	public ZipContentBody(Archiver archiver, ArchiveMonitor monitor) {
+		super("application/zip");
+		this.archiver = archiver;
+		this.monitor = monitor;
+	}
+
+	/**
+	 * Set a file to which a copy of the archive is written as it is sent.
+	 * The copy is complete (see {@link #isCopyComplete()}) even if
+	 * sending fails part way through, as long as the archive itself
+	 * could be written.
+	 * 
+	 * @param copyFile the file
+	 */
+	public void setCopyFile(File copyFile) {
+		this.copyFile = copyFile;
+	}
+	
+	/**
+	 * @return true if the archive was written to the copy file completely
+	 */
+	public boolean isCopyComplete() {
+		return copyComplete;
+	}
+	
+	/**
+	 * @return true if writing the archive into the request was started
+	 */
+	public boolean isWritten() {
+		return written;
+	}
+
+	public String getFilename() {
+		return "submit.zip";
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		written = true;
+		if (copyFile == null) {
+			// The zip headers are written a field at a time
+			OutputStream buffered = new BufferedOutputStream(out, BUFFER_SIZE);
+			archiver.writeZip(buffered, monitor);
+			buffered.flush();
+			return;
+		}
+		
+		OutputStream copy = new BufferedOutputStream(new FileOutputStream(copyFile));
+		CopyingOutputStream tee = new CopyingOutputStream(out, copy);
+		try {
+			OutputStream buffered = new BufferedOutputStream(tee, BUFFER_SIZE);
+			archiver.writeZip(buffered, monitor);
+			buffered.flush();
+			copy.close();
+			copyComplete = true;
+		} finally {
+			IOUtil.closeQuietly(copy);
+		}
+		if (tee.failure != null) {
+			throw tee.failure;
+		}
+	}
+
+	public String getCharset() {
+		return null;
+	}
+
+	public String getTransferEncoding() {
+		return MIME.ENC_BINARY;
+	}
+
+	public long getContentLength() {
+		return -1L; // not known until the archive is written
+	}
+}
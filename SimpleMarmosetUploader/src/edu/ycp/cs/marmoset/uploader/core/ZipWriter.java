@@ -0,0 +1,322 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Write a zip archive from entries whose data is compressed ahead of
+ * time ({@link ArchiveEntry}), or streamed (for entries too large to
+ * be buffered in memory).  Unlike ZipOutputStream, this allows
+ * entries to be compressed in parallel and written in order.
+ * ZIP64 is not supported: archives are limited to 65535 entries
+ * and 4 GB.
+ * 
+ * @author David Hovemeyer
+ */
+public class ZipWriter {
+	private static final int LOCAL_HEADER_SIG = 0x04034b50;
+	private static final int DATA_DESCRIPTOR_SIG = 0x08074b50;
+	private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIR_SIG = 0x06054b50;
+	private static final int VERSION = 20;
+	private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+	private static final int FLAG_UTF8 = 0x0800;
+	private static final long MAX_32 = 0xFFFFFFFFL;
+	private static final int MAX_ENTRIES = 0xFFFF;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/**
+	 * Central directory information for an entry that has been written.
+	 */
+	private static class CentralEntry {
+		byte[] name;
+		int flags;
+		int method;
+		int dosTime;
+		long crc;
+		long compressedSize;
+		long size;
+		long offset;
+	}
+	
+	private final OutputStream out;
+	private final List<CentralEntry> central;
+	private long offset;
+	private long uncompressedBytes;
+	private byte[] buf;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param out the output stream to write the archive to
+	 *            (it is not closed by {@link #finish()})
+	 */
+	public ZipWriter(OutputStream out) {
+		this.out = out;
+		this.central = new ArrayList<CentralEntry>();
+		this.offset = 0L;
+		this.buf = BufferPool.DEFAULT.acquire();
+	}
+	
+	/**
+	 * @return the number of bytes written so far
+	 */
+	public long getBytesWritten() {
+		return offset;
+	}
+	
+	/**
+	 * @return the total uncompressed size of the entries written so far
+	 */
+	public long getUncompressedBytes() {
+		return uncompressedBytes;
+	}
+	
+	/**
+	 * Write an entry whose data is already compressed.
+	 * 
+	 * @param entry the entry
+	 * @throws IOException
+	 */
+	public void writeEntry(ArchiveEntry entry) throws IOException {
+		CentralEntry ce = beginEntry(entry.name, entry.time, entry.method, 0);
+		ce.crc = entry.crc;
+		ce.compressedSize = entry.data.length;
+		ce.size = entry.size;
+		checkLimits(ce);
+		
+		writeLocalHeader(ce);
+		out.write(entry.data);
+		offset += entry.data.length;
+		uncompressedBytes += entry.size;
+	}
+	
+	/**
+	 * Write a deflated entry by streaming its data from an input stream,
+	 * using a data descriptor for the CRC and sizes.  Uses a fixed
+	 * amount of memory regardless of the size of the entry.
+	 * The input stream is not closed.
+	 * 
+	 * @param name   entry name
+	 * @param time   modification time
+	 * @param in     the input stream to read the entry data from
+	 * @param level  deflate level (1-9)
+	 * @return digest of the entry data (see {@link ContentDigest})
+	 * @throws IOException
+	 */
+	public byte[] writeStreamedEntry(String name, long time, InputStream in, int level) throws IOException {
+		CentralEntry ce = beginEntry(name, time, ZipEntry.DEFLATED, FLAG_DATA_DESCRIPTOR);
+		writeLocalHeader(ce);
+		
+		CRC32 crc = new CRC32();
+		MessageDigest md = ContentDigest.newEntryDigest();
+		CountingOutputStream counter = new CountingOutputStream(out);
+		Deflater deflater = new Deflater(level, true);
+		try {
+			DeflaterOutputStream dout = new DeflaterOutputStream(counter, deflater);
+			long size = 0L;
+			while (true) {
+				int n = in.read(buf);
+				if (n < 0) {
+					break;
+				}
+				crc.update(buf, 0, n);
+				md.update(buf, 0, n);
+				dout.write(buf, 0, n);
+				size += n;
+			}
+			dout.finish();
+			ce.crc = crc.getValue();
+			ce.size = size;
+			ce.compressedSize = counter.getCount();
+		} finally {
+			deflater.end();
+		}
+		offset += ce.compressedSize;
+		uncompressedBytes += ce.size;
+		checkLimits(ce);
+		
+		writeInt(DATA_DESCRIPTOR_SIG);
+		writeInt(ce.crc);
+		writeInt(ce.compressedSize);
+		writeInt(ce.size);
+		
+		return md.digest();
+	}
+	
+	/**
+	 * Write a stored (uncompressed) entry by streaming its data from an
+	 * input stream.  Stored entries can't use a data descriptor (readers
+	 * such as ZipInputStream don't support it), so the CRC and size
+	 * must be known in advance: the data read must match them, otherwise
+	 * the file was modified while it was being archived, and an
+	 * IOException is thrown.  The input stream is not closed.
+	 * 
+	 * @param name  entry name
+	 * @param time  modification time
+	 * @param size  size of the entry data
+	 * @param crc   CRC-32 of the entry data
+	 * @param in    the input stream to read the entry data from
+	 * @throws IOException
+	 */
+	public void writeStoredEntry(String name, long time, long size, long crc, InputStream in) throws IOException {
+		CentralEntry ce = beginEntry(name, time, ZipEntry.STORED, 0);
+		ce.crc = crc;
+		ce.size = size;
+		ce.compressedSize = size;
+		checkLimits(ce);
+		writeLocalHeader(ce);
+		
+		CRC32 actualCrc = new CRC32();
+		long remaining = size;
+		while (remaining > 0) {
+			int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+			if (n < 0) {
+				break;
+			}
+			actualCrc.update(buf, 0, n);
+			out.write(buf, 0, n);
+			offset += n;
+			remaining -= n;
+		}
+		if (remaining != 0 || in.read() >= 0 || actualCrc.getValue() != crc) {
+			throw new IOException(name + " was modified while it was being archived");
+		}
+		uncompressedBytes += size;
+	}
+	
+	/**
+	 * Write the central directory.  The underlying output stream
+	 * is flushed, but not closed.  No more entries may be written.
+	 * 
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		long centralOffset = offset;
+		for (CentralEntry ce : central) {
+			writeInt(CENTRAL_HEADER_SIG);
+			writeShort(VERSION); // version made by
+			writeShort(VERSION); // version needed to extract
+			writeShort(ce.flags);
+			writeShort(ce.method);
+			writeInt(ce.dosTime);
+			writeInt(ce.crc);
+			writeInt(ce.compressedSize);
+			writeInt(ce.size);
+			writeShort(ce.name.length);
+			writeShort(0); // extra field length
+			writeShort(0); // comment length
+			writeShort(0); // disk number
+			writeShort(0); // internal attributes
+			writeInt(0);   // external attributes
+			writeInt(ce.offset);
+			writeBytes(ce.name);
+		}
+		long centralSize = offset - centralOffset;
+		if (offset > MAX_32) {
+			throw new IOException("Archive is too large");
+		}
+		
+		writeInt(END_OF_CENTRAL_DIR_SIG);
+		writeShort(0); // this disk
+		writeShort(0); // disk with central directory
+		writeShort(central.size());
+		writeShort(central.size());
+		writeInt(centralSize);
+		writeInt(centralOffset);
+		writeShort(0); // comment length
+		
+		out.flush();
+		BufferPool.DEFAULT.release(buf);
+		buf = null;
+	}
+
+	private CentralEntry beginEntry(String name, long time, int method, int flags) throws IOException {
+		if (central.size() >= MAX_ENTRIES) {
+			throw new IOException("Too many files in archive");
+		}
+		CentralEntry ce = new CentralEntry();
+		ce.name = name.getBytes(UTF8);
+		ce.flags = flags;
+		if (ce.name.length != name.length()) {
+			// Name has non-ASCII characters
+			ce.flags |= FLAG_UTF8;
+		}
+		ce.method = method;
+		ce.dosTime = toDosTime(time);
+		ce.offset = offset;
+		central.add(ce);
+		return ce;
+	}
+	
+	private void writeLocalHeader(CentralEntry ce) throws IOException {
+		boolean descriptor = (ce.flags & FLAG_DATA_DESCRIPTOR) != 0;
+		writeInt(LOCAL_HEADER_SIG);
+		writeShort(VERSION);
+		writeShort(ce.flags);
+		writeShort(ce.method);
+		writeInt(ce.dosTime);
+		writeInt(descriptor ? 0 : ce.crc);
+		writeInt(descriptor ? 0 : ce.compressedSize);
+		writeInt(descriptor ? 0 : ce.size);
+		writeShort(ce.name.length);
+		writeShort(0); // extra field length
+		writeBytes(ce.name);
+	}
+
+	private void checkLimits(CentralEntry ce) throws IOException {
+		if (ce.size > MAX_32 || ce.compressedSize > MAX_32 || ce.offset > MAX_32) {
+			throw new IOException("Archive is too large");
+		}
+	}
+	
+	private void writeShort(int v) throws IOException {
+		out.write(v & 0xFF);
+		out.write((v >>> 8) & 0xFF);
+		offset += 2;
+	}
+	
+	private void writeInt(long v) throws IOException {
+		out.write((int) (v & 0xFF));
+		out.write((int) ((v >>> 8) & 0xFF));
+		out.write((int) ((v >>> 16) & 0xFF));
+		out.write((int) ((v >>> 24) & 0xFF));
+		offset += 4;
+	}
+	
+	private void writeBytes(byte[] b) throws IOException {
+		out.write(b);
+		offset += b.length;
+	}
+	
+	private static int toDosTime(long time) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(time);
+		int year = cal.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16); // 1/1/1980
+		}
+		return ((year - 1980) << 25)
+				| ((cal.get(Calendar.MONTH) + 1) << 21)
+				| (cal.get(Calendar.DAY_OF_MONTH) << 16)
+				| (cal.get(Calendar.HOUR_OF_DAY) << 11)
+				| (cal.get(Calendar.MINUTE) << 5)
+				| (cal.get(Calendar.SECOND) >> 1);
+	}
+}
@@ -0,0 +1,151 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.handlers;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Background job which submits several projects.
+ * Archives are built in parallel, and then uploaded with a limit
+ * on the number of concurrent uploads.  As with {@link SubmitJob},
+ * the outcome of each {@link Submission} is retrieved after the job
+ * is done.
+ * 
+ * @author David Hovemeyer
+ */
+public class BatchSubmitJob extends Job {
+	/** Default limit on the number of concurrent uploads. */
+	public static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 4;
+	
+	/**
+	 * Progress monitor for a single submission: reports the
+	 * job's cancellation status, but not progress (since the
+	 * submissions run concurrently).
+	 */
+	private static class CancelMonitor extends NullProgressMonitor {
+		private final IProgressMonitor parent;
+		
+		CancelMonitor(IProgressMonitor parent) {
+			this.parent = parent;
+		}
+		
+		@Override
+		public boolean isCanceled() {
+			return parent.isCanceled();
+		}
+	}
+	
+	private final List<Submission> submissions;
+	private final int maxConcurrentUploads;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param submissions           the submissions to run
+	 * @param maxConcurrentUploads  maximum number of concurrent uploads
+	 */
+	public BatchSubmitJob(List<Submission> submissions, int maxConcurrentUploads) {
+		super("Submitting " + submissions.size() + " projects");
+		this.submissions = submissions;
+		this.maxConcurrentUploads = maxConcurrentUploads;
+	}
+	
+	/**
+	 * @return the submissions
+	 */
+	public List<Submission> getSubmissions() {
+		return submissions;
+	}
+
+	@Override
+	protected IStatus run(final IProgressMonitor monitor) {
+		SubMonitor progress = SubMonitor.convert(monitor, getName(), submissions.size());
+		
+		// Enough threads to build archives on every processor, and to
+		// allow the maximum number of concurrent uploads.  The files
+		// of all of the archives are compressed in a single pool with
+		// one thread per processor.
+		int nProcessors = Runtime.getRuntime().availableProcessors();
+		int nThreads = Math.min(Math.max(nProcessors, maxConcurrentUploads), submissions.size());
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads, createThreadFactory("Marmoset batch submit"));
+		ExecutorService archiveExecutor = Executors.newFixedThreadPool(nProcessors, createThreadFactory("Marmoset archiver"));
+		
+		try {
+			Semaphore uploadPermits = new Semaphore(maxConcurrentUploads);
+			CompletionService<Submission> completionService = new ExecutorCompletionService<Submission>(executor);
+			for (final Submission submission : submissions) {
+				// Zip to a temporary file, so that archives can be built
+				// while other projects are being uploaded
+				submission.setStreamUpload(false);
+				submission.setUploadPermits(uploadPermits);
+				submission.setArchiveExecutor(archiveExecutor);
+				completionService.submit(new Callable<Submission>() {
+					public Submission call() throws Exception {
+						try {
+							submission.run(new CancelMonitor(monitor));
+						} catch (RuntimeException e) {
+							// Report it with the submission's outcome, and carry on with the others
+							submission.failed(e);
+						}
+						return submission;
+					}
+				});
+			}
+			
+			for (int i = 0; i < submissions.size(); i++) {
+				Future<Submission> done = completionService.take();
+				progress.subTask("Finished " + done.get().getProject().getName());
+				progress.worked(1);
+			}
+		} catch (Exception e) {
+			// Interrupted
+			abortAll();
+		} finally {
+			executor.shutdownNow();
+			archiveExecutor.shutdownNow();
+			monitor.done();
+		}
+		
+		return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+	}
+	
+	private static ThreadFactory createThreadFactory(final String name) {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+	
+	@Override
+	protected void canceling() {
+		abortAll();
+	}
+
+	private void abortAll() {
+		for (Submission submission : submissions) {
+			submission.abort();
+		}
+	}
+}
@@ -0,0 +1,119 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.handlers;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+import edu.ycp.cs.marmoset.uploader.core.ContentDigest;
+import edu.ycp.cs.marmoset.uploader.core.SubmitConfig;
+
+/**
+ * Remembered username and password for a course, so that a student
+ * who submits repeatedly doesn't have to enter them every time.
+ * Sessions are optional (the user chooses to be remembered), are kept
+ * in secure storage (see {@link CredentialStore}), and expire when
+ * they haven't been used for {@link #SESSION_TIMEOUT} milliseconds.
+ * A session is specific to the submit server, course, and semester.
+ *
+ * @author David Hovemeyer
+ */
+public abstract class CredentialSession {
+	/** A session expires if it isn't used for this long. */
+	public static final long SESSION_TIMEOUT = 8L * 60L * 60L * 1000L;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String USERNAME_KEY = "username";
+	private static final String PASSWORD_KEY = "password";
+	private static final String LAST_USED_KEY = "lastUsed";
+
+	/**
+	 * Determine whether the submit properties allow the credentials
+	 * to be remembered.
+	 *
+	 * @param submitProperties the submit properties (from the .submit file)
+	 * @return true if credentials may be remembered
+	 */
+	public static boolean isAllowed(Properties submitProperties) {
+		return SubmitConfig.getBoolean(submitProperties, SubmitConfig.PROP_REMEMBER_CREDENTIALS, true);
+	}
+
+	/**
+	 * Get the remembered credentials for the course of a project.
+	 * Using the session extends it.
+	 *
+	 * @param submitProperties the project's submit properties
+	 * @return the username and password, or null if there is no
+	 *         current session
+	 */
+	public static String[] get(Properties submitProperties) {
+		if (!isAllowed(submitProperties)) {
+			return null;
+		}
+		String path = getPath(submitProperties);
+		String username = CredentialStore.get(path, USERNAME_KEY);
+		String password = CredentialStore.get(path, PASSWORD_KEY);
+		String lastUsed = CredentialStore.get(path, LAST_USED_KEY);
+		if (username == null || password == null || lastUsed == null) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		try {
+			if (now - Long.parseLong(lastUsed) > SESSION_TIMEOUT) {
+				CredentialStore.remove(path);
+				return null;
+			}
+		} catch (NumberFormatException e) {
+			CredentialStore.remove(path);
+			return null;
+		}
+		CredentialStore.put(path, LAST_USED_KEY, Long.toString(now));
+		return new String[]{ username, password };
+	}
+
+	/**
+	 * Remember the credentials for the course of a project.
+	 *
+	 * @param submitProperties  the project's submit properties
+	 * @param username          the username
+	 * @param password          the password
+	 */
+	public static void put(Properties submitProperties, String username, String password) {
+		if (!isAllowed(submitProperties)) {
+			return;
+		}
+		String path = getPath(submitProperties);
+		if (CredentialStore.put(path, USERNAME_KEY, username)
+				&& CredentialStore.put(path, PASSWORD_KEY, password)) {
+			CredentialStore.put(path, LAST_USED_KEY, Long.toString(System.currentTimeMillis()));
+		} else {
+			CredentialStore.remove(path);
+		}
+	}
+
+	/**
+	 * Forget the credentials for the course of a project
+	 * (e.g., because the server rejected them).
+	 *
+	 * @param submitProperties the project's submit properties
+	 */
+	public static void clear(Properties submitProperties) {
+		CredentialStore.remove(getPath(submitProperties));
+	}
+
+	private static String getPath(Properties submitProperties) {
+		// Secure storage node names can't contain "/", so use a hash
+		MessageDigest md = ContentDigest.newEntryDigest();
+		for (String prop : new String[]{ SubmitConfig.PROP_SUBMIT_URL, SubmitConfig.PROP_COURSE_NAME, SubmitConfig.PROP_SEMESTER }) {
+			md.update(submitProperties.getProperty(prop, "").getBytes(UTF8));
+			md.update((byte) 0);
+		}
+		return "session/" + ContentDigest.toHex(md.digest());
+	}
+}
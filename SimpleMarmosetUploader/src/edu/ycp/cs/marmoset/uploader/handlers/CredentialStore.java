@@ -0,0 +1,95 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.handlers;
+
+import java.io.IOException;
+
+import org.eclipse.equinox.security.storage.ISecurePreferences;
+import org.eclipse.equinox.security.storage.SecurePreferencesFactory;
+import org.eclipse.equinox.security.storage.StorageException;
+
+import edu.ycp.cs.marmoset.uploader.Activator;
+
+/**
+ * Store credentials in Eclipse secure storage, which encrypts them.
+ * Passwords are never written anywhere else.
+ * 
+ * @author David Hovemeyer
+ */
+public abstract class CredentialStore {
+	/**
+	 * Store a value (encrypted).
+	 * 
+	 * @param path   path of the node within the plugin's secure storage node
+	 * @param key    the key
+	 * @param value  the value
+	 * @return true if successful, false if the value couldn't be stored securely
+	 */
+	public static boolean put(String path, String key, String value) {
+		ISecurePreferences node = getNode(path);
+		if (node == null) {
+			return false;
+		}
+		try {
+			node.put(key, value, true);
+			node.flush();
+			return true;
+		} catch (StorageException e) {
+			Activator.logMessage("Could not store credentials: " + e.getMessage());
+			return false;
+		} catch (IOException e) {
+			Activator.logMessage("Could not store credentials: " + e.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * Retrieve a value.
+	 * 
+	 * @param path  path of the node within the plugin's secure storage node
+	 * @param key   the key
+	 * @return the value, or null if there is no value or it couldn't be retrieved
+	 */
+	public static String get(String path, String key) {
+		ISecurePreferences root = SecurePreferencesFactory.getDefault();
+		if (root == null || !root.nodeExists(getAbsolutePath(path))) {
+			return null;
+		}
+		try {
+			return root.node(getAbsolutePath(path)).get(key, null);
+		} catch (StorageException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Remove all of the values in a node.
+	 * 
+	 * @param path  path of the node within the plugin's secure storage node
+	 */
+	public static void remove(String path) {
+		ISecurePreferences root = SecurePreferencesFactory.getDefault();
+		if (root == null || !root.nodeExists(getAbsolutePath(path))) {
+			return;
+		}
+		root.node(getAbsolutePath(path)).removeNode();
+		try {
+			root.flush();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	private static ISecurePreferences getNode(String path) {
+		ISecurePreferences root = SecurePreferencesFactory.getDefault();
+		return root != null ? root.node(getAbsolutePath(path)) : null;
+	}
+
+	private static String getAbsolutePath(String path) {
+		return "/" + Activator.PLUGIN_ID + "/" + path;
+	}
+}
@@ -0,0 +1,176 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.handlers;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+/**
+ * Keeps track of the submissions in progress, so that at most one
+ * submission of each project runs at a time (e.g., if the submit
+ * command is invoked twice by a double click, or a project is
+ * submitted by hand while it is being submitted automatically).
+ *
+ * <p>A submission which starts while another submission of the same
+ * project is running waits for it to finish.  Only one submission
+ * waits: if another one starts, the one that was waiting is
+ * superseded, since the latest submission will include the latest
+ * changes anyway.  When a waiting submission runs after the previous
+ * submission succeeded, it is skipped if the project hasn't changed
+ * (see {@link Submission}), so the duplicate is never uploaded.
+ *
+ * <p>Retries of queued submissions (see {@link SubmissionQueue}) also
+ * take a project's turn, but never wait for it.
+ *
+ * @author David Hovemeyer
+ */
+public class InFlightSubmissions {
+	/**
+	 * Result of waiting for a submission's turn to run.
+	 */
+	public enum Turn {
+		/** No other submission of the project was running. */
+		RUN,
+		/** The submission ran after a submission of the project which succeeded. */
+		FOLLOW_UP,
+		/** A later submission of the project replaced this one: it should not run. */
+		SUPERSEDED,
+	}
+
+	// How often a waiting submission checks whether it was canceled
+	private static final long CANCEL_POLL_MILLIS = 200L;
+
+	/**
+	 * The running submission (or retry) of a project, and the
+	 * submission waiting to run after it.
+	 */
+	private static class Slot {
+		Object running;
+		Submission waiting;
+		boolean lastSucceeded;
+	}
+
+	private static final InFlightSubmissions instance = new InFlightSubmissions();
+
+	private final Map<IProject, Slot> slots = new HashMap<IProject, Slot>();
+
+	/**
+	 * @return the singleton instance
+	 */
+	public static InFlightSubmissions getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Wait until a submission may run.  If the result is
+	 * {@link Turn#RUN} or {@link Turn#FOLLOW_UP}, the caller must
+	 * call {@link #finish(Submission, boolean)} when the submission is done.
+	 *
+	 * @param submission  the submission
+	 * @param monitor     progress monitor: waiting stops if it is canceled
+	 * @return the submission's turn
+	 * @throws OperationCanceledException if the submission was canceled or aborted while waiting
+	 */
+	public synchronized Turn start(Submission submission, IProgressMonitor monitor) {
+		IProject project = submission.getProject();
+		Slot slot = slots.get(project);
+		if (slot == null) {
+			slot = new Slot();
+			slot.running = submission;
+			slots.put(project, slot);
+			return Turn.RUN;
+		}
+
+		// Latest wins: replace the waiting submission (if any)
+		slot.waiting = submission;
+		notifyAll();
+		monitor.subTask("Waiting for the previous submission of " + project.getName() + " to finish");
+		try {
+			while (true) {
+				if (slot.waiting != submission) {
+					return Turn.SUPERSEDED;
+				}
+				if (slot.running == null) {
+					slot.running = submission;
+					slot.waiting = null;
+					return slot.lastSucceeded ? Turn.FOLLOW_UP : Turn.RUN;
+				}
+				if (monitor.isCanceled() || submission.isAborted()) {
+					throw new OperationCanceledException();
+				}
+				wait(CANCEL_POLL_MILLIS);
+			}
+		} catch (InterruptedException e) {
+			throw new OperationCanceledException();
+		} finally {
+			if (slot.waiting == submission) {
+				// Canceled while waiting
+				slot.waiting = null;
+				if (slot.running == null) {
+					slots.remove(project);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Take a project's turn for a retry of a queued submission,
+	 * if no submission of the project is running or waiting.
+	 * If the result is true, the caller must call
+	 * {@link #finish(IProject, Object, boolean)} when the retry is done.
+	 *
+	 * @param project  the project
+	 * @param retry    object identifying the retry
+	 * @return true if the retry may run, false if it should be tried later
+	 */
+	public synchronized boolean tryStart(IProject project, Object retry) {
+		if (slots.containsKey(project)) {
+			return false;
+		}
+		Slot slot = new Slot();
+		slot.running = retry;
+		slots.put(project, slot);
+		return true;
+	}
+
+	/**
+	 * Record that a submission is done, allowing the next submission
+	 * of its project to run.
+	 *
+	 * @param submission  the submission
+	 * @param succeeded   true if the submission was uploaded successfully
+	 */
+	public void finish(Submission submission, boolean succeeded) {
+		finish(submission.getProject(), submission, succeeded);
+	}
+
+	/**
+	 * Record that a submission or retry is done, allowing the next
+	 * submission of its project to run.
+	 *
+	 * @param project    the project
+	 * @param running    the submission or retry
+	 * @param succeeded  true if it was uploaded successfully
+	 */
+	public synchronized void finish(IProject project, Object running, boolean succeeded) {
+		Slot slot = slots.get(project);
+		if (slot == null || slot.running != running) {
+			return;
+		}
+		slot.running = null;
+		if (slot.waiting == null) {
+			slots.remove(project);
+		} else {
+			slot.lastSucceeded = succeeded;
+			notifyAll();
+		}
+	}
+}
@@ -0,0 +1,180 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.handlers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import edu.ycp.cs.marmoset.uploader.Activator;
+import edu.ycp.cs.marmoset.uploader.core.Result;
+import edu.ycp.cs.marmoset.uploader.core.SubmissionHistory;
+import edu.ycp.cs.marmoset.uploader.core.SubmissionMetrics;
+import edu.ycp.cs.marmoset.uploader.core.SubmitConfig;
+
+/**
+ * Keeps the metrics of recent submissions, so that slow submissions
+ * can be diagnosed.  Each submission's metrics are also written to the
+ * Eclipse log as a single line of key=value pairs, and (when the
+ * details of the submission are known) appended to the
+ * {@link SubmissionHistory}.
+ *
+ * @author David Hovemeyer
+ */
+public class MetricsRegistry {
+	/** Maximum number of submissions whose metrics are kept. */
+	public static final int MAX_RECORDS = 50;
+
+	/**
+	 * The metrics of one submission.
+	 */
+	public static class Record {
+		private final long time;
+		private final String projectName;
+		private final String outcome;
+		private final SubmissionMetrics metrics;
+
+		Record(long time, String projectName, String outcome, SubmissionMetrics metrics) {
+			this.time = time;
+			this.projectName = projectName;
+			this.outcome = outcome;
+			this.metrics = metrics;
+		}
+
+		/**
+		 * @return when the submission finished (milliseconds since the epoch)
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return the name of the project submitted
+		 */
+		public String getProjectName() {
+			return projectName;
+		}
+
+		/**
+		 * @return short description of the outcome (e.g., "ok", "http-500", "error")
+		 */
+		public String getOutcome() {
+			return outcome;
+		}
+
+		/**
+		 * @return the metrics
+		 */
+		public SubmissionMetrics getMetrics() {
+			return metrics;
+		}
+	}
+
+	/**
+	 * Notified when a submission's metrics are recorded.
+	 */
+	public interface Listener {
+		/**
+		 * Called from the thread which ran the submission.
+		 *
+		 * @param record the new record
+		 */
+		public void metricsRecorded(Record record);
+	}
+
+	private static final MetricsRegistry instance = new MetricsRegistry();
+
+	private final LinkedList<Record> records = new LinkedList<Record>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	/**
+	 * @return the singleton instance
+	 */
+	public static MetricsRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Record the metrics of a finished submission, and add it to the
+	 * submission history.
+	 *
+	 * @param projectName       the name of the project submitted
+	 * @param submitProperties  the submit properties (with the inbox submitted to)
+	 * @param digest            content digest of the archive, or null if unknown
+	 * @param outcome           short description of the outcome
+	 * @param result            the server's response, or null if there was none
+	 * @param exception         the exception which stopped the submission, or null
+	 * @param metrics           the metrics
+	 */
+	public void record(String projectName, Properties submitProperties, String digest, String outcome,
+			Result result, Exception exception, SubmissionMetrics metrics) {
+		Activator activator = Activator.getDefault();
+		SubmissionHistory history = activator != null ? activator.getSubmissionHistory() : null;
+		if (history != null) {
+			String message = result != null ? result.getMessage() : (exception != null ? exception.getMessage() : null);
+			try {
+				history.append(new SubmissionHistory.Record(System.currentTimeMillis(), projectName,
+						submitProperties.getProperty(SubmitConfig.PROP_COURSE_NAME),
+						submitProperties.getProperty(SubmitConfig.PROP_SEMESTER),
+						submitProperties.getProperty(SubmitConfig.PROP_PROJECT_NUMBER),
+						digest, outcome, result != null ? result.getHttpCode() : -1, message, metrics));
+			} catch (IOException e) {
+				Activator.logMessage("Could not record submission history: " + e.getMessage());
+			}
+		}
+		record(projectName, outcome, metrics);
+	}
+
+	/**
+	 * Record the metrics of a finished submission.
+	 *
+	 * @param projectName  the name of the project submitted
+	 * @param outcome      short description of the outcome
+	 * @param metrics      the metrics
+	 */
+	public void record(String projectName, String outcome, SubmissionMetrics metrics) {
+		Record record = new Record(System.currentTimeMillis(), projectName, outcome, metrics);
+		synchronized (this) {
+			records.addFirst(record);
+			if (records.size() > MAX_RECORDS) {
+				records.removeLast();
+			}
+		}
+
+		if (Activator.getDefault() != null) {
+			Activator.logMessage("submission-metrics project=" + projectName.replace(' ', '_') + " outcome=" + outcome + " " + metrics.format());
+		}
+
+		for (Listener listener : listeners) {
+			listener.metricsRecorded(record);
+		}
+	}
+
+	/**
+	 * @return the recorded metrics, most recent first
+	 */
+	public synchronized List<Record> getRecords() {
+		return new ArrayList<Record>(records);
+	}
+
+	/**
+	 * @param listener listener to notify when metrics are recorded
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener listener to remove
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+}
@@ -0,0 +1,141 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.handlers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+import edu.ycp.cs.marmoset.uploader.core.ArchivePreview;
+import edu.ycp.cs.marmoset.uploader.core.CompressionPolicy;
+import edu.ycp.cs.marmoset.uploader.core.Manifest;
+import edu.ycp.cs.marmoset.uploader.core.SizeBudget;
+import edu.ycp.cs.marmoset.uploader.core.SubmitConfig;
+import edu.ycp.cs.marmoset.uploader.core.SubmitIgnore;
+
+/**
+ * Command handler for previewing a submission: shows which files
+ * would be submitted, and estimates how large the archive would be
+ * (see {@link ArchivePreview}).  Nothing is written and the server is
+ * not contacted, so no username or password is needed.
+ *
+ * @author David Hovemeyer
+ */
+public class PreviewProjectHandler extends AbstractHandler {
+	// The dialog lists at most this many files
+	private static final int MAX_LISTED_FILES = 40;
+
+	/**
+	 * The constructor.
+	 */
+	public PreviewProjectHandler() {
+	}
+
+	public Object execute(ExecutionEvent event) throws ExecutionException {
+		final IWorkbenchWindow window = HandlerUtil.getActiveWorkbenchWindowChecked(event);
+
+		final List<IProject> projects = new ArrayList<IProject>();
+		ISelection selection = window.getSelectionService().getSelection();
+		if (selection instanceof IStructuredSelection) {
+			projects.addAll(SubmitProjectHandler.getSelectedProjects((IStructuredSelection) selection));
+		}
+
+		if (projects.isEmpty()) {
+			MessageDialog.openError(
+					window.getShell(),
+					"No project selected",
+					"Please select a project in the package explorer.");
+			return null;
+		}
+
+		Job job = new Job("Previewing submission") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				SubMonitor progress = SubMonitor.convert(monitor, projects.size());
+				final StringBuilder report = new StringBuilder();
+				try {
+					for (IProject project : projects) {
+						if (report.length() > 0) {
+							report.append('\n');
+						}
+						if (projects.size() > 1) {
+							report.append(project.getName()).append(":\n");
+						}
+						report.append(preview(project, progress.newChild(1)));
+					}
+				} catch (OperationCanceledException e) {
+					return Status.CANCEL_STATUS;
+				}
+
+				final Shell shell = window.getShell();
+				if (shell != null && !shell.isDisposed()) {
+					shell.getDisplay().asyncExec(new Runnable() {
+						public void run() {
+							if (!shell.isDisposed()) {
+								MessageDialog.openInformation(shell, "Submission preview", report.toString());
+							}
+						}
+					});
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.setUser(true);
+		job.schedule();
+
+		return null;
+	}
+
+	/**
+	 * Preview the submission of one project.
+	 *
+	 * @param project  the project
+	 * @param monitor  progress monitor
+	 * @return the preview report, or a description of why the project can't be previewed
+	 */
+	private static String preview(IProject project, IProgressMonitor monitor) {
+		if (!project.getFile(SubmitConfig.SUBMIT_FILE).exists()) {
+			return "This project does not contain project submission information.\n";
+		}
+		SubMonitor progress = SubMonitor.convert(monitor, "Previewing submission of " + project.getName(), 100);
+		try {
+			Properties submitProperties = SubmitConfigCache.getInstance().get(project);
+			SubmitIgnore ignore = ProjectArchiver.loadSubmitIgnore(project, submitProperties);
+			Manifest manifest = ProjectArchiver.scan(project, ignore, progress.newChild(20));
+			ArchivePreview preview = ArchivePreview.compute(manifest,
+					CompressionPolicy.fromProperties(submitProperties),
+					ProjectArchiver.toArchiveMonitor(progress.newChild(80)));
+			String violations = SizeBudget.fromProperties(submitProperties).describeViolations(manifest);
+			return violations != null
+					? preview.format(MAX_LISTED_FILES) + "\nThis project is too large to submit.\n" + violations
+					: preview.format(MAX_LISTED_FILES);
+		} catch (OperationCanceledException e) {
+			throw e;
+		} catch (Exception e) {
+			return "Could not preview the submission: " + e.getMessage() + "\n";
+		} finally {
+			monitor.done();
+		}
+	}
+}
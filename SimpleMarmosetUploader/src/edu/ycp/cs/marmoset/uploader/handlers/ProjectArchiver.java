@@ -0,0 +1,309 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.SubMonitor;
+
+import edu.ycp.cs.marmoset.uploader.core.ArchiveMonitor;
+import edu.ycp.cs.marmoset.uploader.core.ArchiveSource;
+import edu.ycp.cs.marmoset.uploader.core.Archiver;
+import edu.ycp.cs.marmoset.uploader.core.Manifest;
+import edu.ycp.cs.marmoset.uploader.core.SizeBudget;
+import edu.ycp.cs.marmoset.uploader.core.SizeBudgetException;
+import edu.ycp.cs.marmoset.uploader.core.SubmitIgnore;
+
+/**
+ * Scan and zip stages of the submission pipeline for an Eclipse project:
+ * find the files in a project, and write them to a zip archive
+ * (using the workspace resource API, so that linked resources and
+ * unsaved-to-disk changes are handled consistently with the rest of Eclipse).
+ *
+ * @author David Hovemeyer
+ */
+public class ProjectArchiver extends Archiver {
+	/**
+	 * Adapts a workspace file to an {@link ArchiveSource}.  Its name,
+	 * size, and stamp are those it had when it was scanned.
+	 * A CoreException reading the file is reported as an IOException
+	 * whose cause is the CoreException.
+	 */
+	private static class ResourceSource implements ArchiveSource {
+		private final IFile file;
+		private final String name;
+		private final long size;
+		private final long stamp;
+
+		ResourceSource(IFile file, String name, long stamp) {
+			this.file = file;
+			this.name = name;
+			IPath location = file.getLocation();
+			this.size = location != null ? location.toFile().length() : -1L;
+			this.stamp = stamp;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getTime() {
+			long time = file.getLocalTimeStamp();
+			return time != IResource.NULL_STAMP ? time : System.currentTimeMillis();
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getStamp() {
+			return stamp;
+		}
+
+		public File getLocalFile() {
+			// Linked and virtual resources, and files which are out of sync
+			// with the file system, must be read through the workspace
+			if (file.isLinked(IResource.CHECK_ANCESTORS) || !file.isSynchronized(IResource.DEPTH_ZERO)) {
+				return null;
+			}
+			IPath location = file.getLocation();
+			return location != null ? location.toFile() : null;
+		}
+
+		public InputStream open() throws IOException {
+			try {
+				return file.getContents();
+			} catch (CoreException e) {
+				throw new IOException("Error reading " + getName(), e);
+			}
+		}
+	}
+
+	private final Manifest manifest;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param manifest the files to archive (see {@link #scan(IContainer, SubmitIgnore, IProgressMonitor)})
+	 */
+	public ProjectArchiver(Manifest manifest) {
+		super(manifest.getSources());
+		this.manifest = manifest;
+	}
+
+	/**
+	 * @return the manifest of the files to archive
+	 */
+	public Manifest getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * Load the exclusion rules for a project: the "exclude" and
+	 * "excludeDerived" submit properties, and the project's
+	 * .submitignore file.
+	 *
+	 * @param project           the project
+	 * @param submitProperties  the submit properties (from the .submit file)
+	 * @return the exclusion rules
+	 * @throws CoreException
+	 * @throws IOException
+	 */
+	public static SubmitIgnore loadSubmitIgnore(IProject project, Properties submitProperties) throws CoreException, IOException {
+		SubmitIgnore ignore = SubmitIgnore.fromProperties(submitProperties);
+
+		IFile file = project.getFile(SubmitIgnore.SUBMITIGNORE_FILE);
+		if (file.exists()) {
+			ignore.addPatterns(file.getContents());
+		}
+
+		return ignore;
+	}
+
+	/**
+	 * Find all of the files in given container which are not excluded.
+	 * Excluded directories are not scanned.  Team-private and hidden
+	 * resources (e.g., version control metadata) are always excluded.
+	 * The resource tree is traversed using a proxy visitor, so resource
+	 * handles are only created for the files which are found.
+	 *
+	 * @param container  the container (i.e., the project)
+	 * @param ignore     rules determining which files and directories are excluded
+	 * @param monitor    progress monitor
+	 * @return manifest of the files to be archived
+	 * @throws CoreException
+	 */
+	public static Manifest scan(final IContainer container, final SubmitIgnore ignore, IProgressMonitor monitor) throws CoreException {
+		final SubMonitor progress = SubMonitor.convert(monitor, IProgressMonitor.UNKNOWN);
+		progress.subTask("Finding files in " + container.getName());
+
+		final List<ArchiveSource> files = new ArrayList<ArchiveSource>();
+		final int containerSegments = container.getFullPath().segmentCount();
+		container.accept(new IResourceProxyVisitor() {
+			public boolean visit(IResourceProxy proxy) {
+				if (proxy.getType() != IResource.FILE) {
+					checkCanceled(progress);
+				}
+				if (ignore.isExcludeDerived() && proxy.isDerived()) {
+					return false;
+				}
+
+				// Paths are project-relative
+				IPath path = proxy.requestFullPath();
+				if (path.segmentCount() <= containerSegments) {
+					// The container itself
+					return true;
+				}
+				String name = path.removeFirstSegments(1).toPortableString();
+
+				if (proxy.getType() != IResource.FILE) {
+					return !ignore.matches(name, true);
+				}
+				if (!ignore.matches(name, false)) {
+					files.add(new ResourceSource((IFile) proxy.requestResource(), name, proxy.getModificationStamp()));
+					progress.setWorkRemaining(100);
+					progress.worked(1);
+				}
+				return false;
+			}
+		}, IContainer.NONE);
+
+		return new Manifest(files);
+	}
+
+	/**
+	 * Find all of the files in given container which are not excluded
+	 * (see {@link #scan(IContainer, SubmitIgnore, IProgressMonitor)}),
+	 * and check that they are within a size budget.  The check uses the
+	 * sizes the files have in the file system, so a project which is too
+	 * large is rejected without reading any file contents.
+	 *
+	 * @param container  the container (i.e., the project)
+	 * @param ignore     rules determining which files and directories are excluded
+	 * @param budget     limits on the size of the files
+	 * @param monitor    progress monitor
+	 * @return manifest of the files to be archived
+	 * @throws CoreException
+	 * @throws SizeBudgetException if the files are over budget
+	 */
+	public static Manifest scan(IContainer container, SubmitIgnore ignore, SizeBudget budget, IProgressMonitor monitor)
+			throws CoreException, SizeBudgetException {
+		Manifest manifest = scan(container, ignore, monitor);
+		budget.check(manifest);
+		return manifest;
+	}
+
+	/**
+	 * Create a temporary zip file containing the files.
+	 * The caller is responsible for deleting it.
+	 *
+	 * @param monitor  progress monitor
+	 * @return the zip file
+	 * @throws IOException
+	 * @throws CoreException
+	 */
+	public File createZipFile(IProgressMonitor monitor) throws IOException, CoreException {
+		try {
+			return createZipFile(toArchiveMonitor(monitor));
+		} catch (IOException e) {
+			throw unwrap(e);
+		}
+	}
+
+	/**
+	 * Compute the content digest of the files without keeping
+	 * the archive (see {@link Archiver#computeDigest(ArchiveMonitor)}).
+	 *
+	 * @param monitor  progress monitor
+	 * @return the content digest
+	 * @throws IOException
+	 * @throws CoreException
+	 */
+	public String computeDigest(IProgressMonitor monitor) throws IOException, CoreException {
+		try {
+			return computeDigest(toArchiveMonitor(monitor));
+		} catch (IOException e) {
+			throw unwrap(e);
+		}
+	}
+
+	/**
+	 * Write a zip archive of the files to given output stream.
+	 * The output stream is not closed.
+	 *
+	 * @param os       the output stream to write the archive to
+	 * @param monitor  progress monitor
+	 * @throws IOException
+	 * @throws CoreException
+	 */
+	public void writeZip(OutputStream os, IProgressMonitor monitor) throws IOException, CoreException {
+		try {
+			writeZip(os, toArchiveMonitor(monitor));
+		} catch (IOException e) {
+			throw unwrap(e);
+		}
+	}
+
+	/**
+	 * Adapt an Eclipse progress monitor to report archiving progress.
+	 * If the monitor is canceled, archiving stops with an
+	 * OperationCanceledException.
+	 *
+	 * @param monitor the progress monitor (may be null)
+	 * @return the {@link ArchiveMonitor}
+	 */
+	public static ArchiveMonitor toArchiveMonitor(IProgressMonitor monitor) {
+		final SubMonitor progress = SubMonitor.convert(monitor);
+		return new ArchiveMonitor() {
+			public void beginTask(int totalWork) {
+				progress.setWorkRemaining(totalWork);
+			}
+			public void subTask(String name) {
+				progress.subTask(name);
+			}
+			public void worked(int work) {
+				progress.worked(work);
+			}
+			public void checkCanceled() {
+				ProjectArchiver.checkCanceled(progress);
+			}
+		};
+	}
+
+	private static IOException unwrap(IOException e) throws CoreException {
+		if (e instanceof InterruptedIOException) {
+			throw new OperationCanceledException();
+		}
+		if (e.getCause() instanceof CoreException) {
+			throw (CoreException) e.getCause();
+		}
+		return e;
+	}
+
+	private static void checkCanceled(IProgressMonitor monitor) {
+		if (monitor.isCanceled()) {
+			throw new OperationCanceledException();
+		}
+	}
+}
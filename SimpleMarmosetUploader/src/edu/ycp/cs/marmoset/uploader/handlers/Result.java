@@ -1,12 +0,0 @@
-// Simple Marmoset Uploader
-// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
-//
-// Free software, distributed under the terms of the Apache License, version 2.0
-// See: http://www.apache.org/licenses/LICENSE-2.0.html
-
-package edu.ycp.cs.marmoset.uploader.handlers;
-
-public class Result {
-	int httpCode;
-	String responseBody;
-}
\ No newline at end of file
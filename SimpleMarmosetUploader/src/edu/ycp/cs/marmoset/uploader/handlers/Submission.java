@@ -0,0 +1,514 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.mime.content.ContentBody;
+import org.apache.http.entity.mime.content.FileBody;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.QualifiedName;
+import org.eclipse.core.runtime.SubMonitor;
+
+import edu.ycp.cs.marmoset.uploader.Activator;
+import edu.ycp.cs.marmoset.uploader.core.ArchivePreview;
+import edu.ycp.cs.marmoset.uploader.core.CompressionPolicy;
+import edu.ycp.cs.marmoset.uploader.core.Manifest;
+import edu.ycp.cs.marmoset.uploader.core.Result;
+import edu.ycp.cs.marmoset.uploader.core.SizeBudget;
+import edu.ycp.cs.marmoset.uploader.core.SubmissionMetrics;
+import edu.ycp.cs.marmoset.uploader.core.SubmitConfig;
+import edu.ycp.cs.marmoset.uploader.core.SubmitIgnore;
+import edu.ycp.cs.marmoset.uploader.core.UploadMonitor;
+import edu.ycp.cs.marmoset.uploader.core.Uploader;
+import edu.ycp.cs.marmoset.uploader.core.ZipContentBody;
+
+/**
+ * The submission pipeline for a single project: scan, zip, and upload.
+ * The outcome (a {@link Result} or an exception) is available
+ * once {@link #run(IProgressMonitor)} returns.  Submissions of the
+ * same project don't run concurrently (see {@link InFlightSubmissions}).
+ * 
+ * @author David Hovemeyer
+ */
+public class Submission {
+	/**
+	 * Stages of the submission pipeline.
+	 */
+	public enum Stage {
+		SCAN,
+		ZIP,
+		UPLOAD,
+	}
+	
+	/**
+	 * Callback to decide whether to submit a project which hasn't changed
+	 * since its last successful submission.
+	 */
+	public interface UnchangedHandler {
+		/**
+		 * Called from the submission's thread if the project is unchanged.
+		 * 
+		 * @param submission the submission
+		 * @return true if the project should be submitted anyway, false to skip the submission
+		 */
+		public boolean submitUnchanged(Submission submission);
+	}
+	
+	private final IProject project;
+	private final Properties submitProperties;
+	private final String username;
+	private final String password;
+	private UnchangedHandler unchangedHandler;
+	private boolean streamUpload;
+	private Semaphore uploadPermits;
+	private ExecutorService archiveExecutor;
+	private boolean retryFailedUploads;
+	private volatile boolean queued;
+	private volatile boolean aborted;
+	private volatile HttpPost post;
+	private volatile Stage stage;
+	private volatile Result result;
+	private volatile Exception exception;
+	private final SubmissionMetrics metrics;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param project           the project to submit
+	 * @param submitProperties  the submit properties (from the .submit file)
+	 * @param username          the username
+	 * @param password          the password
+	 */
+	public Submission(IProject project, Properties submitProperties, String username, String password) {
+		this.project = project;
+		this.submitProperties = submitProperties;
+		this.username = username;
+		this.password = password;
+		this.streamUpload = SubmitConfig.getBoolean(submitProperties, SubmitConfig.PROP_STREAM_UPLOAD, true);
+		this.retryFailedUploads = SubmitConfig.getBoolean(submitProperties, SubmitConfig.PROP_RETRY_FAILED_UPLOADS, true);
+		this.metrics = new SubmissionMetrics();
+	}
+	
+	/**
+	 * Set the callback to decide whether an unchanged project should be
+	 * submitted.  If not set, projects are always submitted.
+	 * 
+	 * @param unchangedHandler the callback
+	 */
+	public void setUnchangedHandler(UnchangedHandler unchangedHandler) {
+		this.unchangedHandler = unchangedHandler;
+	}
+	
+	/**
+	 * Set whether the archive is streamed into the upload request
+	 * (the default, unless the .submit file says otherwise),
+	 * or zipped to a temporary file before uploading.
+	 * 
+	 * @param streamUpload true if the archive should be streamed
+	 */
+	public void setStreamUpload(boolean streamUpload) {
+		this.streamUpload = streamUpload;
+	}
+	
+	/**
+	 * Set whether an upload which fails because of a network or server
+	 * error is added to the {@link SubmissionQueue} to be retried later
+	 * (the default, unless the .submit file says otherwise).
+	 * 
+	 * @param retryFailedUploads true if failed uploads should be queued
+	 */
+	public void setRetryFailedUploads(boolean retryFailedUploads) {
+		this.retryFailedUploads = retryFailedUploads;
+	}
+	
+	/**
+	 * Set a semaphore limiting the number of concurrent uploads.
+	 * A permit is held while the request is sent.
+	 * 
+	 * @param uploadPermits the semaphore
+	 */
+	public void setUploadPermits(Semaphore uploadPermits) {
+		this.uploadPermits = uploadPermits;
+	}
+	
+	/**
+	 * Set a thread pool, shared with other submissions, in which the
+	 * project's files are compressed (see {@link ProjectArchiver#setExecutor(ExecutorService)}).
+	 * 
+	 * @param archiveExecutor the thread pool
+	 */
+	public void setArchiveExecutor(ExecutorService archiveExecutor) {
+		this.archiveExecutor = archiveExecutor;
+	}
+	
+	/**
+	 * @return the submit properties
+	 */
+	public Properties getSubmitProperties() {
+		return submitProperties;
+	}
+	
+	/**
+	 * @return the project being submitted
+	 */
+	public IProject getProject() {
+		return project;
+	}
+	
+	/**
+	 * @return the stage the submission reached (if there was an exception, the stage in which it occurred)
+	 */
+	public Stage getStage() {
+		return stage;
+	}
+	
+	/**
+	 * @return the server's response, or null if the upload was not completed
+	 */
+	public Result getUploadResult() {
+		return result;
+	}
+	
+	/**
+	 * @return the exception that stopped the submission, or null if there was no exception
+	 */
+	public Exception getException() {
+		return exception;
+	}
+	
+	/**
+	 * @return timing and byte counts for the stages of the submission
+	 */
+	public SubmissionMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * @return true if the upload failed, but the submission was added to the
+	 *         {@link SubmissionQueue} to be retried later
+	 */
+	public boolean isQueued() {
+		return queued;
+	}
+
+	/**
+	 * Run the submission pipeline.  Errors are recorded rather than thrown.
+	 * 
+	 * @param monitor  progress monitor
+	 * @return true if the submission ran to completion (successfully or not),
+	 *         false if it was canceled or skipped
+	 */
+	public boolean run(IProgressMonitor monitor) {
+		SubMonitor progress = SubMonitor.convert(monitor, "Submitting project " + project.getName(), 100);
+		File zipFile = null;
+		ZipContentBody streamed = null;
+		ProjectArchiver archiver = null;
+		boolean started = false;
+		
+		try {
+			InFlightSubmissions.Turn turn = InFlightSubmissions.getInstance().start(this, progress);
+			if (turn == InFlightSubmissions.Turn.SUPERSEDED) {
+				return false;
+			}
+			started = true;
+			
+			stage = Stage.SCAN;
+			long scanStart = System.nanoTime();
+			SubmitIgnore ignore = ProjectArchiver.loadSubmitIgnore(project, submitProperties);
+			Manifest manifest = ProjectArchiver.scan(project, ignore, SizeBudget.fromProperties(submitProperties),
+					progress.newChild(10));
+			metrics.addTime(SubmissionMetrics.Phase.SCAN, System.nanoTime() - scanStart);
+			metrics.setFilesScanned(manifest.size());
+			
+			// Compressed entries are cached, so that unchanged files
+			// don't need to be compressed again on resubmission
+			archiver = new ProjectArchiver(manifest);
+			archiver.setMetrics(metrics);
+			archiver.setCompressionPolicy(CompressionPolicy.fromProperties(submitProperties));
+			archiver.setExecutor(archiveExecutor);
+			Activator activator = Activator.getDefault();
+			if (activator != null) {
+				archiver.setEntryCache(activator.getEntryCache(project));
+			}
+			
+			// If the project hasn't changed since it was last successfully
+			// submitted, check whether the user really wants to submit it again.
+			// If it was submitted successfully while this submission waited,
+			// the same files have just been uploaded, so don't ask.
+			boolean followUp = turn == InFlightSubmissions.Turn.FOLLOW_UP;
+			String lastDigest = getLastSubmittedDigest();
+			if (lastDigest != null && (unchangedHandler != null || followUp)) {
+				stage = Stage.ZIP;
+				progress.subTask("Checking for changes");
+				String digest = archiver.computeDigest(progress.newChild(20));
+				if (digest.equals(lastDigest) && (followUp || !unchangedHandler.submitUnchanged(this))) {
+					return false;
+				}
+			}
+			progress.setWorkRemaining(90);
+			
+			ContentBody archive;
+			if (streamUpload) {
+				// The archive is written as the request is sent.  If the upload
+				// might be queued, a copy is kept, so that the same archive is retried.
+				streamed = new ZipContentBody(archiver, ProjectArchiver.toArchiveMonitor(progress.newChild(80)));
+				if (retryFailedUploads) {
+					zipFile = File.createTempFile("marmosetSubmit", ".zip");
+					zipFile.deleteOnExit();
+					streamed.setCopyFile(zipFile);
+				}
+				archive = streamed;
+			} else {
+				stage = Stage.ZIP;
+				zipFile = archiver.createZipFile(progress.newChild(40));
+				archive = new FileBody(zipFile, "application/zip");
+			}
+			
+			// When the archive is streamed, its progress is the upload's progress
+			stage = Stage.UPLOAD;
+			progress.subTask("Uploading to server");
+			UploadMonitor uploadMonitor = streamUpload
+					? createUploadMonitor(progress, false)
+					: createUploadMonitor(progress.newChild(40), true);
+			post = Uploader.createSubmitRequest(submitProperties, archive, username, password);
+			if (aborted || progress.isCanceled()) {
+				return false;
+			}
+			acquireUploadPermit();
+			try {
+				if (aborted) {
+					return false;
+				}
+				result = Uploader.sendToServer(Activator.getDefault().getHttpClient(), post, Uploader.getDeadline(submitProperties),
+						metrics, Uploader.getRateLimiter(submitProperties), uploadMonitor);
+			} finally {
+				releaseUploadPermit();
+			}
+			progress.setWorkRemaining(0);
+			
+			if (result.isSuccess()) {
+				setLastSubmittedDigest(archiver.getDigest());
+				
+				// Anything queued for this inbox is out of date now
+				SubmissionQueue.getInstance().remove(project, submitProperties);
+			} else if (SubmissionQueue.isRetryable(result)) {
+				// Server error: try again later
+				enqueue(archiver, zipFile, streamed);
+			}
+			
+			return true;
+		} catch (OperationCanceledException e) {
+			return false;
+		} catch (IOException e) {
+			if (aborted || progress.isCanceled()) {
+				// Most likely the upload was aborted
+				return false;
+			}
+			if (e.getCause() instanceof CoreException) {
+				// A project file couldn't be read while streaming the archive
+				stage = Stage.ZIP;
+				exception = (CoreException) e.getCause();
+			} else {
+				exception = e;
+				if (stage == Stage.UPLOAD) {
+					// Server couldn't be reached: try again later
+					enqueue(archiver, zipFile, streamed);
+				}
+			}
+			return true;
+		} catch (CoreException e) {
+			exception = e;
+			return true;
+		} finally {
+			post = null;
+			if (started) {
+				InFlightSubmissions.getInstance().finish(this, result != null && result.isSuccess());
+			}
+			if (result != null || exception != null) {
+				MetricsRegistry.getInstance().record(project.getName(), submitProperties,
+						archiver != null ? archiver.getDigest() : null, describeOutcome(), result, exception, metrics);
+			}
+			if (zipFile != null) {
+				// delete eagerly (even though we've marked it delete-on-exit)
+				zipFile.delete();
+			}
+			if (monitor != null) {
+				monitor.done();
+			}
+		}
+	}
+	
+	/**
+	 * Abort the submission.  May be called from any thread.
+	 */
+	public void abort() {
+		aborted = true;
+		HttpPost inProgress = post;
+		if (inProgress != null) {
+			inProgress.abort();
+		}
+	}
+	
+	/**
+	 * Record an unexpected exception which stopped the submission,
+	 * so that it is reported like any other error.
+	 * 
+	 * @param e the exception
+	 */
+	void failed(RuntimeException e) {
+		if (exception == null) {
+			exception = e;
+		}
+	}
+	
+	/**
+	 * @return true if the submission was aborted
+	 */
+	boolean isAborted() {
+		return aborted;
+	}
+	
+	/**
+	 * Create a monitor which reports the progress of the upload.
+	 * Sending stops if the submission is aborted or canceled.
+	 * 
+	 * @param progress    the progress monitor
+	 * @param reportWork  true if the monitor's work should be reported
+	 *                    (when the size of the request is known)
+	 * @return the upload monitor
+	 */
+	private UploadMonitor createUploadMonitor(final SubMonitor progress, final boolean reportWork) {
+		if (reportWork) {
+			progress.setWorkRemaining(100);
+		}
+		return new UploadMonitor() {
+			private int percentReported;
+			
+			public void sent(long bytesSent, long totalBytes) {
+				progress.subTask("Uploading to server (" + ArchivePreview.formatSize(bytesSent)
+						+ (totalBytes > 0 ? " of " + ArchivePreview.formatSize(totalBytes) : "") + " sent)");
+				if (reportWork && totalBytes > 0) {
+					int percent = (int) Math.min(100L, bytesSent * 100L / totalBytes);
+					progress.worked(percent - percentReported);
+					percentReported = percent;
+				}
+			}
+			
+			public void checkCanceled() {
+				if (aborted || progress.isCanceled()) {
+					throw new OperationCanceledException();
+				}
+			}
+		};
+	}
+	
+	private String describeOutcome() {
+		String outcome;
+		if (result != null) {
+			outcome = result.isSuccess() ? "ok" : "http-" + result.getHttpCode();
+		} else {
+			outcome = "error-" + stage.name().toLowerCase(Locale.ENGLISH);
+		}
+		return queued ? outcome + "-queued" : outcome;
+	}
+	
+	/**
+	 * Queue a failed upload to be retried, with the archive that was sent.
+	 * 
+	 * @param archiver  the archiver
+	 * @param zipFile   the zip file which was sent, or the copy of the streamed archive
+	 * @param streamed  the streamed archive, or null if the zip file was sent
+	 */
+	private void enqueue(ProjectArchiver archiver, File zipFile, ZipContentBody streamed) {
+		if (!retryFailedUploads) {
+			return;
+		}
+		if (streamed != null && !streamed.isCopyComplete()) {
+			if (streamed.isWritten()) {
+				// The archive couldn't be written, so there is nothing to retry
+				return;
+			}
+			
+			// The server couldn't be reached before any of the archive was sent
+			try {
+				zipFile.delete();
+				zipFile = archiver.createZipFile(new NullProgressMonitor());
+			} catch (Exception e) {
+				Activator.logMessage("Could not queue submission: " + e.getMessage());
+				return;
+			}
+		}
+		try {
+			queued = SubmissionQueue.getInstance().enqueue(project, submitProperties, username, password,
+					zipFile, archiver.getDigest());
+		} finally {
+			// Unless it was moved to the queue
+			zipFile.delete();
+		}
+	}
+	
+	private void acquireUploadPermit() {
+		if (uploadPermits != null) {
+			try {
+				uploadPermits.acquire();
+			} catch (InterruptedException e) {
+				throw new OperationCanceledException();
+			}
+		}
+	}
+	
+	private void releaseUploadPermit() {
+		if (uploadPermits != null) {
+			uploadPermits.release();
+		}
+	}
+	
+	/**
+	 * @return the content digest of the last successful submission of
+	 *         the project to this inbox, or null if there is none
+	 */
+	private String getLastSubmittedDigest() {
+		try {
+			return project.getPersistentProperty(getDigestPropertyName(submitProperties));
+		} catch (CoreException e) {
+			return null;
+		}
+	}
+
+	private void setLastSubmittedDigest(String digest) {
+		try {
+			project.setPersistentProperty(getDigestPropertyName(submitProperties), digest);
+		} catch (CoreException e) {
+			Activator.logMessage("Could not record submission digest: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Get the name of the project persistent property recording the
+	 * content digest of the last successful submission to an inbox.
+	 * 
+	 * @param submitProperties the submit properties
+	 * @return the property name
+	 */
+	static QualifiedName getDigestPropertyName(Properties submitProperties) {
+		return new QualifiedName(Activator.PLUGIN_ID, "lastSubmittedDigest:"
+				+ submitProperties.getProperty(SubmitConfig.PROP_COURSE_NAME) + ":"
+				+ submitProperties.getProperty(SubmitConfig.PROP_SEMESTER) + ":"
+				+ submitProperties.getProperty(SubmitConfig.PROP_PROJECT_NUMBER));
+	}
+}
@@ -0,0 +1,525 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.handlers;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.mime.content.FileBody;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PlatformUI;
+
+import edu.ycp.cs.marmoset.uploader.Activator;
+import edu.ycp.cs.marmoset.uploader.core.IOUtil;
+import edu.ycp.cs.marmoset.uploader.core.Result;
+import edu.ycp.cs.marmoset.uploader.core.SubmissionMetrics;
+import edu.ycp.cs.marmoset.uploader.core.SubmitConfig;
+import edu.ycp.cs.marmoset.uploader.core.Uploader;
+
+/**
+ * Persistent queue of submissions whose upload failed because the
+ * server couldn't be reached or was overloaded.  Each queued submission's
+ * archive (exactly as it was sent) and metadata are stored in the plugin
+ * state location (the password is kept in secure storage), and a
+ * background job retries the upload with exponential backoff and random
+ * jitter, so that retries from many clients are staggered.  The queue
+ * survives workbench restarts.
+ * 
+ * <p>At most one submission of a project to an inbox is queued: a later
+ * submission replaces it, whether it is queued too or succeeds.
+ * 
+ * @author David Hovemeyer
+ */
+public class SubmissionQueue {
+	// Delay before the first retry, and maximum delay between retries
+	private static final long INITIAL_RETRY_DELAY = 30L * 1000L;
+	private static final long MAX_RETRY_DELAY = 30L * 60L * 1000L;
+	
+	// Queued submissions older than this are abandoned
+	private static final long MAX_AGE = 24L * 60L * 60L * 1000L;
+	
+	private static final String ARCHIVE_SUFFIX = ".zip";
+	private static final String METADATA_SUFFIX = ".properties";
+	
+	// Metadata keys
+	private static final String KEY_PROJECT = "project";
+	private static final String KEY_USERNAME = "username";
+	private static final String KEY_DIGEST = "digest";
+	private static final String KEY_CREATED = "created";
+	private static final String KEY_ATTEMPTS = "attempts";
+	private static final String KEY_NEXT_ATTEMPT = "nextAttempt";
+	private static final String SUBMIT_PREFIX = "submit.";
+	
+	private static final String PASSWORD_KEY = "password";
+	
+	private static SubmissionQueue instance;
+	
+	/**
+	 * A queued submission.
+	 */
+	private static class Item {
+		String id;
+		Properties metadata;
+		
+		long getLong(String key) {
+			try {
+				return Long.parseLong(metadata.getProperty(key, "0"));
+			} catch (NumberFormatException e) {
+				return 0L;
+			}
+		}
+		
+		boolean matches(String projectName, Properties submitProperties) {
+			return projectName.equals(metadata.getProperty(KEY_PROJECT))
+					&& matches(submitProperties, SubmitConfig.PROP_COURSE_NAME)
+					&& matches(submitProperties, SubmitConfig.PROP_SEMESTER)
+					&& matches(submitProperties, SubmitConfig.PROP_PROJECT_NUMBER);
+		}
+		
+		private boolean matches(Properties submitProperties, String prop) {
+			String value = submitProperties.getProperty(prop);
+			return value != null && value.equals(metadata.getProperty(SUBMIT_PREFIX + prop));
+		}
+		
+		Properties getSubmitProperties() {
+			Properties submitProperties = new Properties();
+			for (String key : metadata.stringPropertyNames()) {
+				if (key.startsWith(SUBMIT_PREFIX)) {
+					submitProperties.setProperty(key.substring(SUBMIT_PREFIX.length()), metadata.getProperty(key));
+				}
+			}
+			return submitProperties;
+		}
+	}
+	
+	/**
+	 * Job which retries the queued submissions that are due.
+	 */
+	private class RetryJob extends Job {
+		RetryJob() {
+			super("Retrying queued Marmoset submissions");
+			setSystem(true);
+		}
+		
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			retryDueItems(monitor);
+			scheduleNext();
+			return Status.OK_STATUS;
+		}
+	}
+	
+	private final File dir;
+	private final Random random;
+	private final RetryJob retryJob;
+	private List<Item> items;
+	
+	private SubmissionQueue(File dir) {
+		this.dir = dir;
+		this.random = new Random();
+		this.retryJob = new RetryJob();
+	}
+	
+	/**
+	 * Get the submission queue.
+	 * 
+	 * @return the submission queue
+	 */
+	public static synchronized SubmissionQueue getInstance() {
+		if (instance == null) {
+			File dir = Activator.getDefault().getStateLocation().append("queue").toFile();
+			instance = new SubmissionQueue(dir);
+		}
+		return instance;
+	}
+	
+	/**
+	 * Shut down the submission queue, if it has been started.
+	 * Queued submissions remain on disk.
+	 */
+	public static synchronized void shutdown() {
+		if (instance != null) {
+			instance.retryJob.cancel();
+			instance = null;
+		}
+	}
+	
+	/**
+	 * Load queued submissions and schedule retries.
+	 */
+	public synchronized void start() {
+		ensureLoaded();
+		scheduleNext();
+	}
+	
+	/**
+	 * @return number of queued submissions
+	 */
+	public synchronized int size() {
+		ensureLoaded();
+		return items.size();
+	}
+	
+	/**
+	 * Add a submission to the queue, replacing any queued submission
+	 * of the project to the same inbox.  The archive file is moved to
+	 * the queue directory.  The password is kept in secure storage:
+	 * if that isn't available, the submission is not queued.
+	 * 
+	 * @param project           the project
+	 * @param submitProperties  the submit properties
+	 * @param username          the username
+	 * @param password          the password
+	 * @param archiveFile       the archive which was sent
+	 * @param digest            the content digest of the archive, or null if not known
+	 * @return true if the submission was queued, false if not
+	 */
+	public boolean enqueue(IProject project, Properties submitProperties, String username, String password,
+			File archiveFile, String digest) {
+		String id = Long.toString(System.currentTimeMillis(), 36) + "-" + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36);
+		
+		if (!CredentialStore.put(getCredentialPath(id), PASSWORD_KEY, password)) {
+			return false;
+		}
+		
+		Item item = new Item();
+		item.id = id;
+		item.metadata = new Properties();
+		item.metadata.setProperty(KEY_PROJECT, project.getName());
+		item.metadata.setProperty(KEY_USERNAME, username);
+		item.metadata.setProperty(KEY_CREATED, Long.toString(System.currentTimeMillis()));
+		item.metadata.setProperty(KEY_ATTEMPTS, "1");
+		for (String key : submitProperties.stringPropertyNames()) {
+			item.metadata.setProperty(SUBMIT_PREFIX + key, submitProperties.getProperty(key));
+		}
+		setNextAttempt(item, 1);
+		
+		if (digest != null) {
+			item.metadata.setProperty(KEY_DIGEST, digest);
+		}
+		
+		try {
+			dir.mkdirs();
+			moveFile(archiveFile, getArchiveFile(item));
+			saveMetadata(item);
+		} catch (IOException e) {
+			Activator.logMessage("Could not queue submission: " + e.getMessage());
+			delete(item);
+			return false;
+		}
+		
+		synchronized (this) {
+			ensureLoaded();
+			removeMatching(project.getName(), submitProperties);
+			items.add(item);
+			scheduleNext();
+		}
+		return true;
+	}
+	
+	/**
+	 * Remove any queued submission of a project to an inbox
+	 * (e.g., because the project has just been submitted successfully).
+	 * 
+	 * @param project           the project
+	 * @param submitProperties  the submit properties
+	 */
+	public synchronized void remove(IProject project, Properties submitProperties) {
+		ensureLoaded();
+		removeMatching(project.getName(), submitProperties);
+	}
+	
+	private void removeMatching(String projectName, Properties submitProperties) {
+		for (Item item : new ArrayList<Item>(items)) {
+			if (item.matches(projectName, submitProperties)) {
+				remove(item);
+			}
+		}
+	}
+	
+	/**
+	 * Determine whether the outcome of an upload means that it should be retried later.
+	 * 
+	 * @param result     the result, or null if the upload failed with an exception
+	 * @return true if the upload should be retried
+	 */
+	public static boolean isRetryable(Result result) {
+		return result == null || result.isRetryable();
+	}
+
+	private void retryDueItems(IProgressMonitor monitor) {
+		List<Item> due = new ArrayList<Item>();
+		synchronized (this) {
+			ensureLoaded();
+			long now = System.currentTimeMillis();
+			for (Item item : items) {
+				if (item.getLong(KEY_NEXT_ATTEMPT) <= now) {
+					due.add(item);
+				}
+			}
+		}
+		
+		for (Item item : due) {
+			if (monitor.isCanceled()) {
+				return;
+			}
+			retry(item);
+		}
+	}
+
+	private void retry(Item item) {
+		String projectName = item.metadata.getProperty(KEY_PROJECT);
+		IProject project = ResourcesPlugin.getWorkspace().getRoot().getProject(projectName);
+		
+		// Don't send the queued archive while the project is being
+		// submitted: if that succeeds, the queued archive is out of date
+		if (!InFlightSubmissions.getInstance().tryStart(project, item)) {
+			postpone(item);
+			return;
+		}
+		boolean succeeded = false;
+		try {
+			synchronized (this) {
+				if (!items.contains(item)) {
+					// Replaced or removed since the retry was due
+					return;
+				}
+			}
+			succeeded = retry(item, project);
+		} finally {
+			InFlightSubmissions.getInstance().finish(project, item, succeeded);
+		}
+	}
+
+	/**
+	 * Send a queued submission.
+	 * 
+	 * @return true if it was uploaded successfully
+	 */
+	private boolean retry(Item item, IProject project) {
+		String projectName = item.metadata.getProperty(KEY_PROJECT);
+		String password = CredentialStore.get(getCredentialPath(item.id), PASSWORD_KEY);
+		if (password == null) {
+			remove(item);
+			notifyUser(false, "Queued submission of " + projectName + " failed", "The submission could not be retried because the password is no longer available.");
+			return false;
+		}
+		
+		Properties submitProperties = item.getSubmitProperties();
+		SubmissionMetrics metrics = new SubmissionMetrics();
+		Result result = null;
+		IOException exception = null;
+		try {
+			HttpPost post = Uploader.createSubmitRequest(submitProperties,
+					new FileBody(getArchiveFile(item), "application/zip"), item.metadata.getProperty(KEY_USERNAME), password);
+			result = Uploader.sendToServer(Activator.getDefault().getHttpClient(), post, Uploader.getDeadline(submitProperties),
+					metrics, Uploader.getRateLimiter(submitProperties), null);
+		} catch (IOException e) {
+			// Still can't reach the server
+			exception = e;
+		}
+		MetricsRegistry.getInstance().record(projectName, submitProperties, item.metadata.getProperty(KEY_DIGEST),
+				result != null ? "retry-http-" + result.getHttpCode() : "retry-error", result, exception, metrics);
+		
+		if (!isRetryable(result)) {
+			remove(item);
+			if (result.isSuccess()) {
+				recordDigest(item, project, submitProperties);
+				notifyUser(true, "Queued submission of " + projectName + " delivered", result.getMessage());
+				return true;
+			} else {
+				notifyUser(false, "Queued submission of " + projectName + " failed", result.getMessage());
+			}
+		} else if (System.currentTimeMillis() - item.getLong(KEY_CREATED) > MAX_AGE) {
+			remove(item);
+			notifyUser(false, "Queued submission of " + projectName + " failed", "The server could not be reached. Please try submitting again.");
+		} else {
+			int attempts = (int) item.getLong(KEY_ATTEMPTS) + 1;
+			item.metadata.setProperty(KEY_ATTEMPTS, Integer.toString(attempts));
+			setNextAttempt(item, attempts);
+			try {
+				saveMetadata(item);
+			} catch (IOException e) {
+				// it will be retried on schedule anyway, at least in this session
+			}
+		}
+		return false;
+	}
+	
+	private void postpone(Item item) {
+		// Not counted as an attempt
+		item.metadata.setProperty(KEY_NEXT_ATTEMPT, Long.toString(System.currentTimeMillis() + INITIAL_RETRY_DELAY));
+	}
+	
+	private void recordDigest(Item item, IProject project, Properties submitProperties) {
+		String digest = item.metadata.getProperty(KEY_DIGEST);
+		if (digest != null && project.isAccessible()) {
+			try {
+				project.setPersistentProperty(Submission.getDigestPropertyName(submitProperties), digest);
+			} catch (CoreException e) {
+				// ignore
+			}
+		}
+	}
+	
+	private void setNextAttempt(Item item, int attempts) {
+		// Exponential backoff, with jitter of +/- 50%
+		long delay = INITIAL_RETRY_DELAY << Math.min(attempts - 1, 16);
+		delay = Math.min(delay, MAX_RETRY_DELAY);
+		delay = delay / 2 + (long) (random.nextDouble() * delay);
+		item.metadata.setProperty(KEY_NEXT_ATTEMPT, Long.toString(System.currentTimeMillis() + delay));
+	}
+
+	private synchronized void scheduleNext() {
+		if (items == null || items.isEmpty() || instance != this) {
+			return;
+		}
+		long next = Long.MAX_VALUE;
+		for (Item item : items) {
+			next = Math.min(next, item.getLong(KEY_NEXT_ATTEMPT));
+		}
+		if (retryJob.getState() != Job.RUNNING) {
+			// Replace any existing schedule: the next retry may be sooner
+			retryJob.cancel();
+		}
+		retryJob.schedule(Math.max(0L, next - System.currentTimeMillis()));
+	}
+
+	private void notifyUser(final boolean success, final String title, final String message) {
+		Activator.logMessage(title + ": " + message);
+		if (!PlatformUI.isWorkbenchRunning()) {
+			return;
+		}
+		final Display display = PlatformUI.getWorkbench().getDisplay();
+		display.asyncExec(new Runnable() {
+			public void run() {
+				IWorkbenchWindow window = PlatformUI.getWorkbench().getActiveWorkbenchWindow();
+				Shell shell = window != null ? window.getShell() : display.getActiveShell();
+				if (success) {
+					MessageDialog.openInformation(shell, title, message);
+				} else {
+					MessageDialog.openError(shell, title, message);
+				}
+			}
+		});
+	}
+
+	private void ensureLoaded() {
+		if (items != null) {
+			return;
+		}
+		items = new ArrayList<Item>();
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File f : files) {
+			String name = f.getName();
+			if (!name.endsWith(METADATA_SUFFIX)) {
+				continue;
+			}
+			Item item = new Item();
+			item.id = name.substring(0, name.length() - METADATA_SUFFIX.length());
+			item.metadata = new Properties();
+			InputStream in = null;
+			try {
+				in = new FileInputStream(f);
+				item.metadata.load(in);
+			} catch (IOException e) {
+				continue;
+			} finally {
+				IOUtil.closeQuietly(in);
+			}
+			if (getArchiveFile(item).exists()) {
+				items.add(item);
+			} else {
+				delete(item);
+			}
+		}
+	}
+
+	private synchronized void remove(Item item) {
+		items.remove(item);
+		delete(item);
+	}
+	
+	private void delete(Item item) {
+		getArchiveFile(item).delete();
+		getMetadataFile(item).delete();
+		CredentialStore.remove(getCredentialPath(item.id));
+	}
+
+	private static void moveFile(File from, File to) throws IOException {
+		if (from.renameTo(to)) {
+			return;
+		}
+		
+		// Probably on a different file system
+		InputStream in = null;
+		OutputStream out = null;
+		try {
+			in = new FileInputStream(from);
+			out = new BufferedOutputStream(new FileOutputStream(to));
+			IOUtil.copy(in, out);
+			out.close();
+			out = null;
+		} finally {
+			IOUtil.closeQuietly(in);
+			IOUtil.closeQuietly(out);
+		}
+		from.delete();
+	}
+
+	private void saveMetadata(Item item) throws IOException {
+		// Write to a temporary file and rename, so the metadata is never partially written
+		File tmp = new File(dir, item.id + METADATA_SUFFIX + ".tmp");
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(tmp);
+			item.metadata.store(out, "Queued Marmoset submission");
+		} finally {
+			IOUtil.closeQuietly(out);
+		}
+		File metadataFile = getMetadataFile(item);
+		metadataFile.delete();
+		if (!tmp.renameTo(metadataFile)) {
+			throw new IOException("Could not save queued submission");
+		}
+	}
+
+	private File getArchiveFile(Item item) {
+		return new File(dir, item.id + ARCHIVE_SUFFIX);
+	}
+
+	private File getMetadataFile(Item item) {
+		return new File(dir, item.id + METADATA_SUFFIX);
+	}
+	
+	private static String getCredentialPath(String id) {
+		return "queue/" + id;
+	}
+}
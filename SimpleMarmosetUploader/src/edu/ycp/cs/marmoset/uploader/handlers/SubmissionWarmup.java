@@ -0,0 +1,198 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.handlers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+
+import edu.ycp.cs.marmoset.uploader.Activator;
+import edu.ycp.cs.marmoset.uploader.core.CompressionPolicy;
+import edu.ycp.cs.marmoset.uploader.core.ConnectionWarmer;
+import edu.ycp.cs.marmoset.uploader.core.Manifest;
+import edu.ycp.cs.marmoset.uploader.core.SizeBudget;
+import edu.ycp.cs.marmoset.uploader.core.SubmitConfig;
+import edu.ycp.cs.marmoset.uploader.core.SubmitIgnore;
+import edu.ycp.cs.marmoset.uploader.core.Uploader;
+
+/**
+ * Work done in the background while the user enters their username
+ * and password, so that the submission can start sooner when they click OK:
+ * a connection to the server is opened (see {@link ConnectionWarmer}),
+ * and the project's files are compressed into its entry cache, so that
+ * the archive is quick to write.  (The latter can be turned off with the
+ * "prepareArchive" submit property.)
+ *
+ * <p>When several projects are submitted at once, one connection is
+ * opened for each distinct submit URL, and the projects are prepared
+ * one at a time, so that the warm-up doesn't compete with itself
+ * for processors and pooled connections.
+ *
+ * <p>{@link #close(boolean)} must be called when the dialog is closed.
+ * Errors are ignored: the submission will encounter (and report) them again.
+ *
+ * @author David Hovemeyer
+ */
+public class SubmissionWarmup {
+	private final Job connectJob;
+	private final Job prepareJob;
+	private final List<ConnectionWarmer> warmers = new ArrayList<ConnectionWarmer>();
+	private boolean closed;
+
+	private SubmissionWarmup(final List<IProject> projects, final List<Properties> submitPropertiesList) {
+		connectJob = new Job("Connecting to submission server") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				Activator activator = Activator.getDefault();
+				if (activator == null) {
+					return Status.OK_STATUS;
+				}
+				Set<String> urls = new HashSet<String>();
+				for (Properties submitProperties : submitPropertiesList) {
+					try {
+						if (!urls.add(Uploader.getUploadUrl(submitProperties))) {
+							// Already connected (or connecting) to this URL
+							continue;
+						}
+						ConnectionWarmer w = new ConnectionWarmer(activator.getHttpClient(), submitProperties);
+						synchronized (SubmissionWarmup.this) {
+							if (closed) {
+								// The dialog was closed already
+								return Status.OK_STATUS;
+							}
+							warmers.add(w);
+						}
+						w.open();
+					} catch (Exception e) {
+						// The submission will report it if it happens again
+					}
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		connectJob.setSystem(true);
+		connectJob.setPriority(Job.SHORT);
+
+		final List<IProject> toPrepare = new ArrayList<IProject>();
+		final List<Properties> toPrepareProperties = new ArrayList<Properties>();
+		for (int i = 0; i < projects.size(); i++) {
+			if (SubmitConfig.getBoolean(submitPropertiesList.get(i), SubmitConfig.PROP_PREPARE_ARCHIVE, true)) {
+				toPrepare.add(projects.get(i));
+				toPrepareProperties.add(submitPropertiesList.get(i));
+			}
+		}
+		if (!toPrepare.isEmpty()) {
+			String name = toPrepare.size() == 1 ? toPrepare.get(0).getName() : toPrepare.size() + " projects";
+			prepareJob = new Job("Preparing submission of " + name) {
+				@Override
+				protected IStatus run(IProgressMonitor monitor) {
+					SubMonitor progress = SubMonitor.convert(monitor, toPrepare.size());
+					for (int i = 0; i < toPrepare.size(); i++) {
+						try {
+							prepareArchive(toPrepare.get(i), toPrepareProperties.get(i), progress.newChild(1));
+						} catch (OperationCanceledException e) {
+							return Status.CANCEL_STATUS;
+						} catch (Exception e) {
+							// The submission will report it if it happens again
+						}
+					}
+					return Status.OK_STATUS;
+				}
+			};
+			prepareJob.setSystem(true);
+			prepareJob.setPriority(Job.LONG);
+		} else {
+			prepareJob = null;
+		}
+	}
+
+	/**
+	 * Start warming up for the submission of a project.
+	 *
+	 * @param project           the project
+	 * @param submitProperties  the submit properties (from the .submit file)
+	 * @return the warmup: call {@link #close(boolean)} when the dialog is closed
+	 */
+	public static SubmissionWarmup start(IProject project, Properties submitProperties) {
+		return start(Collections.singletonList(project), Collections.singletonList(submitProperties));
+	}
+
+	/**
+	 * Start warming up for the submission of several projects.
+	 *
+	 * @param projects              the projects
+	 * @param submitPropertiesList  the submit properties of each project
+	 * @return the warmup: call {@link #close(boolean)} when the dialog is closed
+	 */
+	public static SubmissionWarmup start(List<IProject> projects, List<Properties> submitPropertiesList) {
+		SubmissionWarmup warmup = new SubmissionWarmup(projects, submitPropertiesList);
+		warmup.connectJob.schedule();
+		if (warmup.prepareJob != null) {
+			warmup.prepareJob.schedule();
+		}
+		return warmup;
+	}
+
+	/**
+	 * Stop warming up when the dialog is closed.  Compressing files
+	 * stops: files which were already compressed stay in the project's
+	 * entry cache (where they are valid for as long as the files don't
+	 * change), and the submission compresses the rest.
+	 * If the user chose to submit, the connections are returned to the
+	 * pool to be used by the submission; if they canceled, they are closed.
+	 *
+	 * @param submit true if the user chose to submit, false if they canceled
+	 */
+	public void close(boolean submit) {
+		if (prepareJob != null) {
+			prepareJob.cancel();
+		}
+		List<ConnectionWarmer> opened;
+		synchronized (this) {
+			closed = true;
+			opened = new ArrayList<ConnectionWarmer>(warmers);
+		}
+		// Connections which weren't started yet won't be now
+		for (ConnectionWarmer w : opened) {
+			if (submit) {
+				w.finish();
+			} else {
+				w.discard();
+			}
+		}
+	}
+
+	/**
+	 * Compress the project's files into its entry cache.
+	 * Nothing is done if the project is over its size budget.
+	 */
+	private static void prepareArchive(IProject project, Properties submitProperties, IProgressMonitor monitor) throws Exception {
+		Activator activator = Activator.getDefault();
+		if (activator == null) {
+			return;
+		}
+		SubMonitor progress = SubMonitor.convert(monitor, 100);
+		SubmitIgnore ignore = ProjectArchiver.loadSubmitIgnore(project, submitProperties);
+		Manifest manifest = ProjectArchiver.scan(project, ignore, SizeBudget.fromProperties(submitProperties),
+				progress.newChild(10));
+		ProjectArchiver archiver = new ProjectArchiver(manifest);
+		archiver.setCompressionPolicy(CompressionPolicy.fromProperties(submitProperties));
+		archiver.setEntryCache(activator.getEntryCache(project));
+		archiver.fillEntryCache(ProjectArchiver.toArchiveMonitor(progress.newChild(90)));
+	}
+}
@@ -0,0 +1,139 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.handlers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.Path;
+
+import edu.ycp.cs.marmoset.uploader.core.IOUtil;
+import edu.ycp.cs.marmoset.uploader.core.SubmitConfig;
+
+/**
+ * Cache of the parsed .submit file of each project, so that it
+ * doesn't need to be read and parsed again every time the project
+ * is submitted.  A project's entry is discarded when its .submit
+ * file changes (detected by a resource change listener), and the
+ * file's modification stamp is checked as well.
+ *
+ * @author David Hovemeyer
+ */
+public class SubmitConfigCache {
+	/**
+	 * A parsed .submit file.
+	 */
+	private static class Entry {
+		final long stamp;
+		final Properties properties;
+
+		Entry(long stamp, Properties properties) {
+			this.stamp = stamp;
+			this.properties = properties;
+		}
+	}
+
+	private static SubmitConfigCache instance;
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	private final IResourceChangeListener listener = new IResourceChangeListener() {
+		public void resourceChanged(IResourceChangeEvent event) {
+			IResourceDelta delta = event.getDelta();
+			if (delta == null) {
+				return;
+			}
+			for (IResourceDelta projectDelta : delta.getAffectedChildren()) {
+				String projectName = projectDelta.getResource().getName();
+				if (projectDelta.getKind() == IResourceDelta.REMOVED
+						|| (projectDelta.getFlags() & IResourceDelta.OPEN) != 0
+						|| projectDelta.findMember(new Path(SubmitConfig.SUBMIT_FILE)) != null) {
+					invalidate(projectName);
+				}
+			}
+		}
+	};
+
+	/**
+	 * @return the singleton instance
+	 */
+	public static synchronized SubmitConfigCache getInstance() {
+		if (instance == null) {
+			instance = new SubmitConfigCache();
+			ResourcesPlugin.getWorkspace().addResourceChangeListener(instance.listener, IResourceChangeEvent.POST_CHANGE);
+		}
+		return instance;
+	}
+
+	/**
+	 * Discard the cache, if it has been created.
+	 */
+	public static synchronized void shutdown() {
+		if (instance != null) {
+			ResourcesPlugin.getWorkspace().removeResourceChangeListener(instance.listener);
+			instance = null;
+		}
+	}
+
+	/**
+	 * Get the submit properties of a project.  The caller may modify
+	 * the returned properties without affecting the cache.
+	 *
+	 * @param project the project (which must have a .submit file)
+	 * @return the submit properties
+	 * @throws CoreException
+	 * @throws IOException
+	 */
+	public Properties get(IProject project) throws CoreException, IOException {
+		IFile dotSubmit = project.getFile(SubmitConfig.SUBMIT_FILE);
+		long stamp = dotSubmit.getModificationStamp();
+
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(project.getName());
+		}
+		if (entry == null || entry.stamp != stamp) {
+			entry = new Entry(stamp, read(dotSubmit));
+			synchronized (this) {
+				entries.put(project.getName(), entry);
+			}
+		}
+
+		Properties copy = new Properties();
+		copy.putAll(entry.properties);
+		return copy;
+	}
+
+	/**
+	 * Discard the cached submit properties of a project.
+	 *
+	 * @param projectName the name of the project
+	 */
+	public synchronized void invalidate(String projectName) {
+		entries.remove(projectName);
+	}
+
+	private static Properties read(IFile dotSubmit) throws CoreException, IOException {
+		InputStream in = null;
+		try {
+			in = dotSubmit.getContents();
+			return SubmitConfig.load(in);
+		} finally {
+			IOUtil.closeQuietly(in);
+		}
+	}
+}
@@ -0,0 +1,53 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.handlers;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Background job which scans, zips, and uploads a project.
+ * The job always finishes with an OK or CANCEL status: the outcome
+ * (a {@link Result} or an exception) is retrieved from the
+ * {@link Submission} after the job is done, so that the UI can
+ * report it to the user.
+ * 
+ * @author David Hovemeyer
+ */
+public class SubmitJob extends Job {
+	private final Submission submission;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param submission the submission to run
+	 */
+	public SubmitJob(Submission submission) {
+		super("Submitting project " + submission.getProject().getName());
+		this.submission = submission;
+	}
+	
+	/**
+	 * @return the submission
+	 */
+	public Submission getSubmission() {
+		return submission;
+	}
+
+	@Override
+	protected IStatus run(IProgressMonitor monitor) {
+		return submission.run(monitor) ? Status.OK_STATUS : Status.CANCEL_STATUS;
+	}
+	
+	@Override
+	protected void canceling() {
+		// Abort the upload if one is in progress
+		submission.abort();
+	}
+}
@@ -6,40 +6,35 @@
 
 package edu.ycp.cs.marmoset.uploader.handlers;
 
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
-import org.apache.http.HttpStatus;
 import org.eclipse.core.commands.AbstractHandler;
 import org.eclipse.core.commands.ExecutionEvent;
 import org.eclipse.core.commands.ExecutionException;
-import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IAdaptable;
-import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
 import org.eclipse.jface.dialogs.IDialogConstants;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.viewers.ISelection;
 import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.swt.widgets.Shell;
 import org.eclipse.ui.ISelectionService;
 import org.eclipse.ui.IWorkbenchWindow;
 import org.eclipse.ui.handlers.HandlerUtil;
 
 import edu.ycp.cs.marmoset.uploader.Activator;
+import edu.ycp.cs.marmoset.uploader.core.Result;
+import edu.ycp.cs.marmoset.uploader.core.SizeBudgetException;
+import edu.ycp.cs.marmoset.uploader.core.SubmissionMetrics;
+import edu.ycp.cs.marmoset.uploader.core.SubmitConfig;
 import edu.ycp.cs.marmoset.uploader.ui.UsernamePasswordDialog;
 
 /**
@@ -50,23 +45,6 @@ import edu.ycp.cs.marmoset.uploader.ui.UsernamePasswordDialog;
  * @author David Hovemeyer
  */
 public class SubmitProjectHandler extends AbstractHandler {
-	static final String PROP_SUBMIT_URL = "submitURL";
-	private static final String PROP_SEMESTER = "semester";
-	private static final String PROP_COURSE_NAME = "courseName";
-	private static final String PROP_PROJECT_NUMBER = "projectNumber";
-
-	static String[] REQUIRED_PROPERTIES = new String[]{
-		PROP_PROJECT_NUMBER, PROP_COURSE_NAME, PROP_SEMESTER, PROP_SUBMIT_URL
-	};
-
-	/**
-	 * Regex pattern matching the submit url in a .submit file.
-	 * All we care about is the hostname and context path, since we will force submission via
-	 * the BlueJ upload servlet.
-	 */
-	static final Pattern SUBMIT_URL_PATTERN =
-		Pattern.compile("^(https?://([^/]+))(/.*)$");
-
 	/**
 	 * The constructor.
 	 */
@@ -78,7 +56,7 @@ public class SubmitProjectHandler extends AbstractHandler {
 	 * from the application context.
 	 */
 	public Object execute(ExecutionEvent event) throws ExecutionException {
-		IWorkbenchWindow window = HandlerUtil.getActiveWorkbenchWindowChecked(event);
+		final IWorkbenchWindow window = HandlerUtil.getActiveWorkbenchWindowChecked(event);
 
 		List<IProject> selectedProjects = null;
 		
@@ -99,10 +77,7 @@ public class SubmitProjectHandler extends AbstractHandler {
 		}
 		
 		if (selectedProjects.size() > 1) {
-			MessageDialog.openError(
-					window.getShell(),
-					"Multiple projects selected",
-					"Please select a single project in the package explorer.");
+			executeBatch(window, selectedProjects);
 			return null;
 		}
 		
@@ -117,180 +92,442 @@ public class SubmitProjectHandler extends AbstractHandler {
 			return null;
 		}
 		
-		// Read the .submit file.
-		Properties submitProperties = new Properties();
-		InputStream in = null;
+		// Read the .submit file (unless it's cached).
+		Properties submitProperties;
+		long configStart = System.nanoTime();
 		try {
-			in = dotSubmit.getContents();
-			submitProperties.load(in);
-			checkSubmitProperties(submitProperties);
+			submitProperties = SubmitConfigCache.getInstance().get(project);
 		} catch (Exception e) {
 			MessageDialog.openError(
 					window.getShell(),
 					"Error reading submit file",
 					"An error occurred reading the project submission information. Sorry.\n" + e.getMessage());
 			return null;
-		} finally {
-			IOUtil.closeQuietly(in);
 		}
+		long configTime = System.nanoTime() - configStart;
 
-		// Get username and password.
-		int rc;
-		UsernamePasswordDialog dialog = new UsernamePasswordDialog(
-				window.getShell(),
-				submitProperties.getProperty(PROP_PROJECT_NUMBER),
-				submitProperties.getProperty(PROP_COURSE_NAME),
-				submitProperties.getProperty(PROP_SEMESTER));
-		rc = dialog.open();
-		if (rc != IDialogConstants.OK_ID) {
-			return null; // canceled
+		// Get username and password: if the user chose to be remembered,
+		// and there is only one inbox, there's no need to ask.
+		String username;
+		String password;
+		String[] session = null;
+		if (submitProperties.getProperty(SubmitConfig.PROP_PROJECT_NUMBER).indexOf(',') < 0) {
+			session = CredentialSession.get(submitProperties);
+		}
+		if (session != null) {
+			username = session[0];
+			password = session[1];
+		} else {
+			int rc = IDialogConstants.CANCEL_ID;
+			UsernamePasswordDialog dialog = new UsernamePasswordDialog(
+					window.getShell(),
+					submitProperties.getProperty(SubmitConfig.PROP_PROJECT_NUMBER),
+					submitProperties.getProperty(SubmitConfig.PROP_COURSE_NAME),
+					submitProperties.getProperty(SubmitConfig.PROP_SEMESTER));
+			dialog.setOfferRemember(CredentialSession.isAllowed(submitProperties));
+			
+			// Connect to the server and compress files while the user types
+			SubmissionWarmup warmup = SubmissionWarmup.start(project, submitProperties);
+			try {
+				rc = dialog.open();
+			} finally {
+				warmup.close(rc == IDialogConstants.OK_ID);
+			}
+			if (rc != IDialogConstants.OK_ID) {
+				return null; // canceled
+			}
+			
+			// Set the project number (i.e., inbox): if there were multiple possibilities,
+			// the UsernamePasswordDialog will have required the user to choose one
+			submitProperties.setProperty(SubmitConfig.PROP_PROJECT_NUMBER, dialog.getSelectedInbox());
+			
+			username = dialog.getUsername();
+			password = dialog.getPassword();
+			if (dialog.isRememberSelected()) {
+				CredentialSession.put(submitProperties, username, password);
+			}
 		}
 		
-		// Set the project number (i.e., inbox): if there were multiple possibilities,
-		// the UsernamePasswordDialog will have required the user to choose one
-		submitProperties.setProperty(PROP_PROJECT_NUMBER, dialog.getSelectedInbox());
+		// Scan, zip, and upload in the background
+		Submission submission = new Submission(project, submitProperties, username, password);
+		submission.getMetrics().addTime(SubmissionMetrics.Phase.CONFIG, configTime);
+		submission.setUnchangedHandler(new Submission.UnchangedHandler() {
+			public boolean submitUnchanged(Submission submission) {
+				return confirmSubmitUnchanged(window, submission);
+			}
+		});
+		final SubmitJob job = new SubmitJob(submission);
+		job.setUser(true);
+		job.addJobChangeListener(new JobChangeAdapter() {
+			@Override
+			public void done(IJobChangeEvent event) {
+				if (event.getResult().getSeverity() == IStatus.CANCEL) {
+					return;
+				}
+				final Shell shell = window.getShell();
+				if (shell == null || shell.isDisposed()) {
+					return;
+				}
+				shell.getDisplay().asyncExec(new Runnable() {
+					public void run() {
+						if (!shell.isDisposed()) {
+							showSubmissionOutcome(shell, job.getSubmission());
+						}
+					}
+				});
+			}
+		});
+		job.schedule();
 		
-		File zipFile = null;
+		return null;
+	}
+
+	/**
+	 * Submit several projects, using the same username and password.
+	 * Projects which can't be submitted (e.g., because they don't have
+	 * a .submit file) are skipped.  A single summary of the results is shown
+	 * when all of the submissions are done.
+	 * 
+	 * @param window    the workbench window
+	 * @param projects  the selected projects
+	 */
+	private void executeBatch(final IWorkbenchWindow window, List<IProject> projects) {
+		final List<String> skipped = new ArrayList<String>();
+		List<IProject> toSubmit = new ArrayList<IProject>();
+		List<Properties> toSubmitProperties = new ArrayList<Properties>();
+		List<Long> configTimes = new ArrayList<Long>();
+		int maxConcurrentUploads = BatchSubmitJob.DEFAULT_MAX_CONCURRENT_UPLOADS;
 		
-		try {
-			zipFile = createZipFile(project);
-		} catch (IOException e) {
-//			throw new ExecutionException("Could not create zip file of project", e);
-			MessageDialog.openError(
-					window.getShell(),
-					"Error creating project zip file",
-					"Error creating a zip file of your project\n" + e.getMessage());
-			return null;
-		} catch (CoreException e) {
-//			throw new ExecutionException("Could not create zip file of project", e);
-			MessageDialog.openError(
-					window.getShell(),
-					"Error creating project zip file",
-					"Error creating a zip file of your project (try refreshing the project)\n\n" + e.getMessage());
-			return null;
+		for (IProject project : projects) {
+			IFile dotSubmit = project.getFile(SubmitConfig.SUBMIT_FILE);
+			if (!dotSubmit.exists()) {
+				skipped.add(project.getName() + ": no submit file");
+				continue;
+			}
+			Properties submitProperties;
+			long configStart = System.nanoTime();
+			try {
+				submitProperties = SubmitConfigCache.getInstance().get(project);
+			} catch (Exception e) {
+				skipped.add(project.getName() + ": error reading submit file: " + e.getMessage());
+				continue;
+			}
+			long configTime = System.nanoTime() - configStart;
+			if (submitProperties.getProperty(SubmitConfig.PROP_PROJECT_NUMBER).indexOf(',') >= 0) {
+				skipped.add(project.getName() + ": multiple inboxes (please submit it by itself)");
+				continue;
+			}
+			
+			// The most restrictive upload limit applies
+			int limit = SubmitConfig.getInt(submitProperties, SubmitConfig.PROP_MAX_CONCURRENT_UPLOADS, maxConcurrentUploads);
+			maxConcurrentUploads = Math.min(maxConcurrentUploads, Math.max(1, limit));
+			
+			toSubmit.add(project);
+			toSubmitProperties.add(submitProperties);
+			configTimes.add(configTime);
 		}
 		
-		//  Attempt the submission.
-		try {
-			uploadToServer(window, submitProperties, dialog, zipFile);
-			return null;
-		} finally {
-			if (zipFile != null) {
-				// delete eagerly (even though we've marked it delete-on-exit)
-				zipFile.delete();
+		if (toSubmit.isEmpty()) {
+			MessageDialog.openError(window.getShell(), "No projects can be submitted", join(skipped));
+			return;
+		}
+		
+		String[] session = getBatchSession(toSubmitProperties);
+		if (session == null) {
+			UsernamePasswordDialog dialog = new UsernamePasswordDialog(
+					window.getShell(), "Submitting " + toSubmit.size() + " projects");
+			boolean offerRemember = false;
+			for (Properties submitProperties : toSubmitProperties) {
+				offerRemember |= CredentialSession.isAllowed(submitProperties);
+			}
+			dialog.setOfferRemember(offerRemember);
+			SubmissionWarmup warmup = SubmissionWarmup.start(toSubmit, toSubmitProperties);
+			boolean ok = false;
+			try {
+				ok = dialog.open() == IDialogConstants.OK_ID;
+			} finally {
+				warmup.close(ok);
+			}
+			if (!ok) {
+				return; // canceled
+			}
+			session = new String[]{ dialog.getUsername(), dialog.getPassword() };
+			if (dialog.isRememberSelected()) {
+				for (Properties submitProperties : toSubmitProperties) {
+					CredentialSession.put(submitProperties, session[0], session[1]);
+				}
 			}
 		}
-
+		
+		List<Submission> submissions = new ArrayList<Submission>();
+		for (int i = 0; i < toSubmit.size(); i++) {
+			Submission submission = new Submission(toSubmit.get(i), toSubmitProperties.get(i), session[0], session[1]);
+			submission.getMetrics().addTime(SubmissionMetrics.Phase.CONFIG, configTimes.get(i));
+			submissions.add(submission);
+		}
+		
+		final BatchSubmitJob job = new BatchSubmitJob(submissions, maxConcurrentUploads);
+		job.setUser(true);
+		job.addJobChangeListener(new JobChangeAdapter() {
+			@Override
+			public void done(IJobChangeEvent event) {
+				if (event.getResult().getSeverity() == IStatus.CANCEL) {
+					return;
+				}
+				final Shell shell = window.getShell();
+				if (shell == null || shell.isDisposed()) {
+					return;
+				}
+				shell.getDisplay().asyncExec(new Runnable() {
+					public void run() {
+						if (!shell.isDisposed()) {
+							showBatchSummary(shell, job.getSubmissions(), skipped);
+						}
+					}
+				});
+			}
+		});
+		job.schedule();
 	}
 
-	public void uploadToServer(IWorkbenchWindow window,
-			Properties submitProperties, UsernamePasswordDialog dialog,
-			File zipFile) {
-		try {
-			Result result;
-			result = Uploader.sendZipFileToServer(submitProperties, zipFile, dialog.getUsername(), dialog.getPassword());
-			
-			if (result.httpCode == HttpStatus.SC_OK) {
-				// Success!
-				MessageDialog.openInformation(window.getShell(), "Upload result", result.responseBody);
-			} else {
-				if (result.responseBody.contains("Wrong password")) {
-					MessageDialog.openError(
-							window.getShell(),
-							"Project submission failed",
-							"Project submission failed\nYour password was not recognized (did you mistype it?)");
-				} else if (result.responseBody.contains("Cannot find user")) {
-					MessageDialog.openError(
-							window.getShell(),
-							"Project submission failed",
-							"Project submission failed\nYour username was not recognized (did you mistype it?)");
-				} else {
-					MessageDialog.openError(
-							window.getShell(),
-							"Project submission failed",
-							"An error occurred while uploading your project. Sorry.");
-					// Log it.
-					Activator.getDefault().getLog().log(new Status(Status.ERROR, Activator.PLUGIN_ID, "Error submitting project: " + result.responseBody));
-				}
+	/**
+	 * Get the remembered credentials for a batch of submissions:
+	 * every project must have the same remembered credentials.
+	 * 
+	 * @param submitPropertiesList  the submit properties of the projects
+	 * @return the username and password, or null if the user must be asked
+	 */
+	private String[] getBatchSession(List<Properties> submitPropertiesList) {
+		String[] result = null;
+		for (Properties submitProperties : submitPropertiesList) {
+			String[] session = CredentialSession.get(submitProperties);
+			if (session == null || (result != null && !(result[0].equals(session[0]) && result[1].equals(session[1])))) {
+				return null;
 			}
-		} catch (IOException e) {
-			MessageDialog.openError(window.getShell(), "Error uploading project", e.getMessage());
+			result = session;
 		}
+		return result;
 	}
 
-	private List<IProject> getSelectedProjects(IStructuredSelection selection) {
-		List<IProject> selectedProjects = new ArrayList<IProject>();
-		List<?> selectedItems = selection.toList();
-		for (Object selectedItem : selectedItems) {
-			if (selectedItem instanceof IAdaptable) {
-				IAdaptable adaptable = (IAdaptable) selectedItem;
-				IProject project = (IProject) adaptable.getAdapter(IProject.class);
-				if (project != null) {
-					selectedProjects.add(project);
+	/**
+	 * Forget remembered credentials which the server didn't accept,
+	 * so that the user will be asked for them next time.
+	 * 
+	 * @param submission the completed submission
+	 */
+	private void forgetRejectedCredentials(Submission submission) {
+		Result result = submission.getUploadResult();
+		if (result != null && (result.getCategory() == Result.Category.BAD_PASSWORD
+				|| result.getCategory() == Result.Category.UNKNOWN_USER)) {
+			CredentialSession.clear(submission.getSubmitProperties());
+		}
+	}
+
+	/**
+	 * Ask the user whether to submit a project which hasn't changed
+	 * since it was last submitted.  Called from the job's thread.
+	 * 
+	 * @param window      the workbench window
+	 * @param submission  the submission
+	 * @return true if the project should be submitted
+	 */
+	private boolean confirmSubmitUnchanged(IWorkbenchWindow window, final Submission submission) {
+		final Shell shell = window.getShell();
+		if (shell == null || shell.isDisposed()) {
+			return true;
+		}
+		final boolean[] submit = new boolean[]{ true };
+		shell.getDisplay().syncExec(new Runnable() {
+			public void run() {
+				if (!shell.isDisposed()) {
+					submit[0] = MessageDialog.openQuestion(
+							shell,
+							"Project unchanged",
+							"Project " + submission.getProject().getName() + " has not changed since it was last submitted to "
+							+ submission.getSubmitProperties().getProperty(SubmitConfig.PROP_PROJECT_NUMBER) + ".\n\nSubmit it again anyway?");
 				}
-				
 			}
+		});
+		return submit[0];
+	}
+
+	/**
+	 * Report the outcome of a completed {@link Submission}.
+	 * Must be called from the UI thread.
+	 * 
+	 * @param shell       the Shell
+	 * @param submission  the completed submission
+	 */
+	private void showSubmissionOutcome(Shell shell, Submission submission) {
+		forgetRejectedCredentials(submission);
+		Exception e = submission.getException();
+		if (submission.isQueued()) {
+			MessageDialog.openWarning(
+					shell,
+					"Submission queued",
+					"The server could not accept your submission right now"
+					+ (e != null ? " (" + e.getMessage() + ")" : "")
+					+ ".\n\nYour submission has been saved and will be retried automatically. "
+					+ "You will be notified when it is delivered.");
+		} else if (e == null) {
+			showUploadResult(shell, submission.getUploadResult());
+		} else if (e instanceof SizeBudgetException) {
+			MessageDialog.openError(
+					shell,
+					"Project too large",
+					"Your project was not submitted because it is too large.\n\n" + e.getMessage());
+		} else if (submission.getStage() == Submission.Stage.UPLOAD) {
+			MessageDialog.openError(shell, "Error uploading project", e.getMessage());
+		} else if (e instanceof CoreException) {
+			MessageDialog.openError(
+					shell,
+					"Error creating project zip file",
+					"Error creating a zip file of your project (try refreshing the project)\n\n" + e.getMessage());
+		} else {
+			MessageDialog.openError(
+					shell,
+					"Error creating project zip file",
+					"Error creating a zip file of your project\n" + e.getMessage());
 		}
-		return selectedProjects;
 	}
 
-	private void checkSubmitProperties(Properties submitProperties) {
-		for (String prop : REQUIRED_PROPERTIES) {
-			if (submitProperties.getProperty(prop) == null) {
-				throw new IllegalArgumentException("Missing required " + prop + " property");
+	public void showUploadResult(Shell shell, Result result) {
+		switch (result.getCategory()) {
+		case SUCCESS:
+			// Success!
+			MessageDialog.openInformation(shell, "Upload result", result.getMessage());
+			break;
+		case BAD_PASSWORD:
+			MessageDialog.openError(
+					shell,
+					"Project submission failed",
+					"Project submission failed\nYour password was not recognized (did you mistype it?)");
+			break;
+		case UNKNOWN_USER:
+			MessageDialog.openError(
+					shell,
+					"Project submission failed",
+					"Project submission failed\nYour username was not recognized (did you mistype it?)");
+			break;
+		case REJECTED:
+			// The server's explanation is likely to be useful to the user
+			MessageDialog.openError(
+					shell,
+					"Project submission failed",
+					"The server did not accept your submission:\n\n" + result.getMessage());
+			logFailure(result);
+			break;
+		default:
+			MessageDialog.openError(
+					shell,
+					"Project submission failed",
+					"An error occurred while uploading your project. Sorry.");
+			logFailure(result);
+			break;
+		}
+	}
+
+	private static void logFailure(Result result) {
+		Activator.getDefault().getLog().log(new Status(Status.ERROR, Activator.PLUGIN_ID,
+				"Error submitting project (HTTP status " + result.getHttpCode() + "): " + result.getMessage()));
+	}
+
+	/**
+	 * Show a summary of the outcomes of a batch of submissions.
+	 * Must be called from the UI thread.
+	 * 
+	 * @param shell        the Shell
+	 * @param submissions  the completed submissions
+	 * @param skipped      descriptions of projects which weren't submitted
+	 */
+	private void showBatchSummary(Shell shell, List<Submission> submissions, List<String> skipped) {
+		List<String> lines = new ArrayList<String>();
+		int succeeded = 0;
+		for (Submission submission : submissions) {
+			forgetRejectedCredentials(submission);
+			Result result = submission.getUploadResult();
+			if (result != null && result.isSuccess()) {
+				succeeded++;
 			}
+			lines.add(submission.getProject().getName() + ": " + describeOutcome(submission));
 		}
+		lines.addAll(skipped);
 		
-		// Check submit URL
-		String submitUrl = submitProperties.getProperty(PROP_SUBMIT_URL);
-		Matcher m = SUBMIT_URL_PATTERN.matcher(submitUrl);
-		if (!m.matches()) {
-			throw new IllegalArgumentException("Invalid submit URL: " + submitUrl);
+		String title = "Submitted " + succeeded + " of " + (submissions.size() + skipped.size()) + " projects";
+		if (succeeded == submissions.size() && skipped.isEmpty()) {
+			MessageDialog.openInformation(shell, title, join(lines));
+		} else {
+			MessageDialog.openWarning(shell, title, join(lines));
 		}
 	}
-	
-	private File createZipFile(IProject project) throws IOException, CoreException {
-		File zipFile = File.createTempFile("marmosetSubmit", ".zip");
-		zipFile.deleteOnExit();
-		
-		ZipOutputStream out = null;
-		
-		try {
-			out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)));
-		
-			recursivelyAddToZipFile(project, out);
-		} finally {
-			IOUtil.closeQuietly(out);
+
+	/**
+	 * Get a one-line description of the outcome of a submission.
+	 * 
+	 * @param submission the completed submission
+	 * @return the description
+	 */
+	private String describeOutcome(Submission submission) {
+		Exception e = submission.getException();
+		Result result = submission.getUploadResult();
+		if (submission.isQueued()) {
+			return "server unavailable, queued to be retried";
+		} else if (e instanceof SizeBudgetException) {
+			return "not submitted, project is too large: " + firstLine(e.getMessage());
+		} else if (e != null) {
+			String what = submission.getStage() == Submission.Stage.UPLOAD ? "error uploading" : "error creating zip file";
+			return what + ": " + (e.getMessage() != null ? e.getMessage() : e.toString());
+		} else if (result == null) {
+			return "not submitted";
+		}
+		switch (result.getCategory()) {
+		case SUCCESS:
+			return "submitted";
+		case BAD_PASSWORD:
+			return "password was not recognized";
+		case UNKNOWN_USER:
+			return "username was not recognized";
+		default:
+			logFailure(result);
+			return "submission failed (HTTP status " + result.getHttpCode() + ")";
 		}
-		
-		return zipFile;
 	}
 
-	private void recursivelyAddToZipFile(IResource resource, ZipOutputStream out) throws CoreException, IOException {
-		if (resource instanceof IContainer) {
-			IContainer container = (IContainer) resource; 
-			IResource[] children = container.members();
-			
-			for (IResource child : children) {
-				recursivelyAddToZipFile(child, out);
+	private static String firstLine(String s) {
+		int nl = s.indexOf('\n');
+		return nl >= 0 ? s.substring(0, nl) : s;
+	}
+
+	private static String join(List<String> lines) {
+		StringBuilder buf = new StringBuilder();
+		for (String line : lines) {
+			if (buf.length() > 0) {
+				buf.append('\n');
 			}
-		} else if (resource instanceof IFile) {
-			IFile file = (IFile) resource;
-			
-			IPath relativePath = resource.getProjectRelativePath();
-			ZipEntry entry = new ZipEntry(relativePath.toPortableString());
-			out.putNextEntry(entry);
+			buf.append(line);
+		}
+		return buf.toString();
+	}
 
-			InputStream fileIn = null;
-			
-			try {
-				fileIn = file.getContents();
+	/**
+	 * Get the projects which are selected (or which contain the selected resources).
+	 * 
+	 * @param selection the selection
+	 * @return the selected projects
+	 */
+	static List<IProject> getSelectedProjects(IStructuredSelection selection) {
+		List<IProject> selectedProjects = new ArrayList<IProject>();
+		List<?> selectedItems = selection.toList();
+		for (Object selectedItem : selectedItems) {
+			if (selectedItem instanceof IAdaptable) {
+				IAdaptable adaptable = (IAdaptable) selectedItem;
+				IProject project = (IProject) adaptable.getAdapter(IProject.class);
+				if (project != null) {
+					selectedProjects.add(project);
+				}
 				
-				IOUtil.copy(fileIn, out);
-			} finally {
-				IOUtil.closeQuietly(fileIn);
 			}
 		}
-		
+		return selectedProjects;
 	}
 }
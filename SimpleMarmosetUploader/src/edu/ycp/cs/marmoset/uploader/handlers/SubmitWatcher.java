@@ -0,0 +1,371 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.handlers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import edu.ycp.cs.marmoset.uploader.Activator;
+import edu.ycp.cs.marmoset.uploader.core.Result;
+import edu.ycp.cs.marmoset.uploader.core.SubmitConfig;
+import edu.ycp.cs.marmoset.uploader.core.SubmitIgnore;
+
+/**
+ * Watch mode: projects which the user has chosen to watch are submitted
+ * automatically when files in them are saved.  Changes are detected by
+ * a resource change listener, and bursts of changes are debounced: a
+ * project is submitted once no files have changed for
+ * {@link #DEBOUNCE_DELAY} milliseconds, and at most once per
+ * "autoSubmitInterval" seconds.  Each watched project has a single job,
+ * so only one of its submissions is in progress at a time; changes made
+ * during an upload cause one more submission when it finishes, which
+ * archives the latest state of the project.  Unchanged files are not
+ * compressed again (see {@link edu.ycp.cs.marmoset.uploader.core.EntryCache}),
+ * and nothing is uploaded if the project hasn't changed since it was
+ * last submitted.
+ *
+ * <p>Watching is not remembered when the workbench is restarted.
+ *
+ * @author David Hovemeyer
+ */
+public class SubmitWatcher {
+	/** A project is submitted once no files have changed for this long. */
+	public static final long DEBOUNCE_DELAY = 3000L;
+
+	/** Default minimum interval between automatic submissions, in seconds. */
+	public static final int DEFAULT_MIN_INTERVAL = 60;
+
+	/**
+	 * Callback informing the UI that watching stopped for a reason
+	 * other than the user choosing to stop it.
+	 */
+	public interface StopListener {
+		/**
+		 * Called from the watch job's thread.
+		 *
+		 * @param project  the project which is no longer watched
+		 * @param reason   why watching stopped
+		 */
+		public void watchStopped(IProject project, String reason);
+	}
+
+	/**
+	 * The watch of one project: also the job which submits it.
+	 */
+	private class Watch extends Job {
+		final IProject project;
+		final String inbox;
+		final String username;
+		final String password;
+		volatile SubmitIgnore ignore;
+		volatile long lastChange;
+		volatile boolean stopped;
+		volatile Submission submission;
+		long lastSubmitted;
+
+		Watch(IProject project, String inbox, String username, String password, SubmitIgnore ignore) {
+			super("Automatically submitting project " + project.getName());
+			this.project = project;
+			this.inbox = inbox;
+			this.username = username;
+			this.password = password;
+			this.ignore = ignore;
+		}
+
+		void changed() {
+			lastChange = System.currentTimeMillis();
+			schedule(DEBOUNCE_DELAY);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			if (stopped) {
+				return Status.OK_STATUS;
+			}
+
+			// Re-read the .submit file, in case the instructor changed it
+			Properties submitProperties;
+			try {
+				submitProperties = SubmitConfigCache.getInstance().get(project);
+				ignore = ProjectArchiver.loadSubmitIgnore(project, submitProperties);
+			} catch (Exception e) {
+				stop(project, "Could not read the submit file: " + e.getMessage());
+				return Status.OK_STATUS;
+			}
+			if (!isAllowed(submitProperties)) {
+				stop(project, "The submit file does not allow automatic submission.");
+				return Status.OK_STATUS;
+			}
+			submitProperties.setProperty(SubmitConfig.PROP_PROJECT_NUMBER, inbox);
+
+			// Wait until the changes have settled down, and the minimum
+			// interval since the last submission has passed
+			long now = System.currentTimeMillis();
+			long wait = Math.max(lastChange + DEBOUNCE_DELAY - now, lastSubmitted + getMinInterval(submitProperties) - now);
+			if (wait > 0) {
+				schedule(wait);
+				return Status.OK_STATUS;
+			}
+			lastSubmitted = now;
+
+			// If the upload fails, the next change will cause another
+			// attempt, so there's no need to queue it
+			Submission submission = new Submission(project, submitProperties, username, password);
+			submission.setRetryFailedUploads(false);
+			submission.setUnchangedHandler(new Submission.UnchangedHandler() {
+				public boolean submitUnchanged(Submission submission) {
+					return false;
+				}
+			});
+			this.submission = submission;
+			try {
+				if (!submission.run(monitor) || stopped) {
+					return Status.CANCEL_STATUS;
+				}
+			} finally {
+				this.submission = null;
+			}
+			checkOutcome(submission);
+			return Status.OK_STATUS;
+		}
+
+		@Override
+		protected void canceling() {
+			Submission inProgress = submission;
+			if (inProgress != null) {
+				inProgress.abort();
+			}
+		}
+
+		private void checkOutcome(Submission submission) {
+			Result result = submission.getUploadResult();
+			if (result == null) {
+				Exception e = submission.getException();
+				Activator.logMessage("Automatic submission of " + project.getName() + " failed: "
+						+ (e != null ? e.getMessage() : "not submitted"));
+				return;
+			}
+			switch (result.getCategory()) {
+			case SUCCESS:
+				break;
+			case BAD_PASSWORD:
+			case UNKNOWN_USER:
+				CredentialSession.clear(submission.getSubmitProperties());
+				stop(project, "The server did not accept your username and password.");
+				break;
+			default:
+				Activator.logMessage("Automatic submission of " + project.getName() + " failed (HTTP status "
+						+ result.getHttpCode() + "): " + result.getMessage());
+				break;
+			}
+		}
+	}
+
+	private static SubmitWatcher instance;
+
+	private final Map<String, Watch> watches = new HashMap<String, Watch>();
+	private volatile StopListener stopListener;
+
+	private final IResourceChangeListener listener = new IResourceChangeListener() {
+		public void resourceChanged(IResourceChangeEvent event) {
+			IResourceDelta delta = event.getDelta();
+			if (delta == null) {
+				return;
+			}
+			for (IResourceDelta projectDelta : delta.getAffectedChildren()) {
+				IProject project = (IProject) projectDelta.getResource();
+				Watch watch;
+				synchronized (SubmitWatcher.this) {
+					watch = watches.get(project.getName());
+				}
+				if (watch == null) {
+					continue;
+				}
+				if (projectDelta.getKind() == IResourceDelta.REMOVED
+						|| (projectDelta.getFlags() & IResourceDelta.OPEN) != 0) {
+					stop(project, "The project was closed or deleted.");
+				} else if (hasSubmittableChange(projectDelta, watch.ignore)) {
+					watch.changed();
+				}
+			}
+		}
+	};
+
+	/**
+	 * @return the singleton instance
+	 */
+	public static synchronized SubmitWatcher getInstance() {
+		if (instance == null) {
+			instance = new SubmitWatcher();
+			ResourcesPlugin.getWorkspace().addResourceChangeListener(instance.listener, IResourceChangeEvent.POST_CHANGE);
+		}
+		return instance;
+	}
+
+	/**
+	 * Stop watching all projects, if the watcher has been created.
+	 */
+	public static synchronized void shutdown() {
+		if (instance != null) {
+			ResourcesPlugin.getWorkspace().removeResourceChangeListener(instance.listener);
+			for (Watch watch : instance.removeAll()) {
+				cancel(watch);
+			}
+			instance = null;
+		}
+	}
+
+	/**
+	 * Determine whether the submit properties allow a project to
+	 * be submitted automatically.
+	 *
+	 * @param submitProperties the submit properties (from the .submit file)
+	 * @return true if the project may be watched
+	 */
+	public static boolean isAllowed(Properties submitProperties) {
+		return SubmitConfig.getBoolean(submitProperties, SubmitConfig.PROP_AUTO_SUBMIT, true);
+	}
+
+	/**
+	 * Set the callback informing the UI when watching a project stops
+	 * because of an error.
+	 *
+	 * @param stopListener the callback
+	 */
+	public void setStopListener(StopListener stopListener) {
+		this.stopListener = stopListener;
+	}
+
+	/**
+	 * @param project a project
+	 * @return true if the project is being watched
+	 */
+	public synchronized boolean isWatching(IProject project) {
+		return watches.containsKey(project.getName());
+	}
+
+	/**
+	 * Start watching a project.
+	 *
+	 * @param project           the project
+	 * @param submitProperties  the submit properties, with the inbox to submit to
+	 * @param username          the username
+	 * @param password          the password
+	 * @throws CoreException
+	 * @throws IOException
+	 */
+	public void start(IProject project, Properties submitProperties, String username, String password)
+			throws CoreException, IOException {
+		SubmitIgnore ignore = ProjectArchiver.loadSubmitIgnore(project, submitProperties);
+		Watch watch = new Watch(project, submitProperties.getProperty(SubmitConfig.PROP_PROJECT_NUMBER),
+				username, password, ignore);
+		watch.setPriority(Job.LONG);
+		Watch previous;
+		synchronized (this) {
+			previous = watches.put(project.getName(), watch);
+		}
+		cancel(previous);
+	}
+
+	/**
+	 * Stop watching a project.  A submission in progress is aborted.
+	 *
+	 * @param project the project
+	 */
+	public void stop(IProject project) {
+		cancel(remove(project));
+	}
+
+	private void stop(IProject project, String reason) {
+		Watch watch = remove(project);
+		if (watch != null) {
+			cancel(watch);
+			StopListener l = stopListener;
+			if (l != null) {
+				l.watchStopped(project, reason);
+			}
+		}
+	}
+
+	private synchronized Watch remove(IProject project) {
+		return watches.remove(project.getName());
+	}
+
+	private static void cancel(Watch watch) {
+		if (watch != null) {
+			watch.stopped = true;
+			watch.cancel();
+		}
+	}
+
+	private synchronized List<Watch> removeAll() {
+		List<Watch> result = new ArrayList<Watch>(watches.values());
+		watches.clear();
+		return result;
+	}
+
+	private static long getMinInterval(Properties submitProperties) {
+		int seconds = SubmitConfig.getInt(submitProperties, SubmitConfig.PROP_AUTO_SUBMIT_INTERVAL, DEFAULT_MIN_INTERVAL);
+		return Math.max(0, seconds) * 1000L;
+	}
+
+	/**
+	 * Determine whether a project delta includes changes to files
+	 * which would be submitted.  Derived and team-private resources,
+	 * and excluded files and directories, are ignored.
+	 */
+	private static boolean hasSubmittableChange(IResourceDelta projectDelta, final SubmitIgnore ignore) {
+		final boolean[] found = new boolean[1];
+		try {
+			projectDelta.accept(new IResourceDeltaVisitor() {
+				public boolean visit(IResourceDelta delta) {
+					IResource resource = delta.getResource();
+					if (found[0] || resource.isTeamPrivateMember()
+							|| (ignore.isExcludeDerived() && resource.isDerived())) {
+						return false;
+					}
+					if (resource.getType() == IResource.PROJECT) {
+						return true;
+					}
+					String name = resource.getProjectRelativePath().toPortableString();
+					if (resource.getType() != IResource.FILE) {
+						return !ignore.matches(name, true);
+					}
+					if (ignore.matches(name, false)) {
+						return false;
+					}
+					if (delta.getKind() != IResourceDelta.CHANGED
+							|| (delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED)) != 0) {
+						found[0] = true;
+					}
+					return false;
+				}
+			});
+		} catch (CoreException e) {
+			// Can't tell, so assume something changed
+			return true;
+		}
+		return found[0];
+	}
+}
@@ -0,0 +1,162 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.handlers;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.jface.dialogs.IDialogConstants;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PlatformUI;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+import edu.ycp.cs.marmoset.uploader.core.SubmitConfig;
+import edu.ycp.cs.marmoset.uploader.ui.UsernamePasswordDialog;
+
+/**
+ * Command handler which turns watch mode (see {@link SubmitWatcher})
+ * on or off for the selected project.
+ *
+ * @author David Hovemeyer
+ */
+public class WatchProjectHandler extends AbstractHandler {
+	/**
+	 * The constructor.
+	 */
+	public WatchProjectHandler() {
+	}
+
+	public Object execute(ExecutionEvent event) throws ExecutionException {
+		IWorkbenchWindow window = HandlerUtil.getActiveWorkbenchWindowChecked(event);
+		Shell shell = window.getShell();
+
+		List<IProject> selectedProjects = null;
+		ISelection selection = window.getSelectionService().getSelection();
+		if (selection instanceof IStructuredSelection) {
+			selectedProjects = SubmitProjectHandler.getSelectedProjects((IStructuredSelection) selection);
+		}
+		if (selectedProjects == null || selectedProjects.size() != 1) {
+			MessageDialog.openError(
+					shell,
+					"No project selected",
+					"Please select a single project in the package explorer.");
+			return null;
+		}
+		IProject project = selectedProjects.get(0);
+
+		SubmitWatcher watcher = getWatcher();
+		if (watcher.isWatching(project)) {
+			watcher.stop(project);
+			MessageDialog.openInformation(
+					shell,
+					"Automatic submission stopped",
+					"Project " + project.getName() + " will no longer be submitted automatically.");
+			return null;
+		}
+
+		if (!project.getFile(SubmitConfig.SUBMIT_FILE).exists()) {
+			MessageDialog.openError(
+					shell,
+					"No submit file",
+					"This project does not contain project submission information. Sorry.");
+			return null;
+		}
+		Properties submitProperties;
+		try {
+			submitProperties = SubmitConfigCache.getInstance().get(project);
+		} catch (Exception e) {
+			MessageDialog.openError(
+					shell,
+					"Error reading submit file",
+					"An error occurred reading the project submission information. Sorry.\n" + e.getMessage());
+			return null;
+		}
+		if (!SubmitWatcher.isAllowed(submitProperties)) {
+			MessageDialog.openError(
+					shell,
+					"Automatic submission not allowed",
+					"Your instructor has not allowed automatic submission of this project.");
+			return null;
+		}
+
+		// Use the remembered credentials if there are any; otherwise ask
+		// (which also chooses the inbox, if there are several)
+		String[] session = null;
+		if (submitProperties.getProperty(SubmitConfig.PROP_PROJECT_NUMBER).indexOf(',') < 0) {
+			session = CredentialSession.get(submitProperties);
+		}
+		if (session == null) {
+			UsernamePasswordDialog dialog = new UsernamePasswordDialog(
+					shell,
+					submitProperties.getProperty(SubmitConfig.PROP_PROJECT_NUMBER),
+					submitProperties.getProperty(SubmitConfig.PROP_COURSE_NAME),
+					submitProperties.getProperty(SubmitConfig.PROP_SEMESTER));
+			dialog.setOfferRemember(CredentialSession.isAllowed(submitProperties));
+			if (dialog.open() != IDialogConstants.OK_ID) {
+				return null; // canceled
+			}
+			submitProperties.setProperty(SubmitConfig.PROP_PROJECT_NUMBER, dialog.getSelectedInbox());
+			session = new String[]{ dialog.getUsername(), dialog.getPassword() };
+			if (dialog.isRememberSelected()) {
+				CredentialSession.put(submitProperties, session[0], session[1]);
+			}
+		}
+
+		try {
+			watcher.start(project, submitProperties, session[0], session[1]);
+		} catch (Exception e) {
+			MessageDialog.openError(
+					shell,
+					"Error starting automatic submission",
+					"An error occurred reading the project submission information. Sorry.\n" + e.getMessage());
+			return null;
+		}
+		int interval = SubmitConfig.getInt(submitProperties, SubmitConfig.PROP_AUTO_SUBMIT_INTERVAL, SubmitWatcher.DEFAULT_MIN_INTERVAL);
+		MessageDialog.openInformation(
+				shell,
+				"Automatic submission started",
+				"Project " + project.getName() + " will be submitted to "
+				+ submitProperties.getProperty(SubmitConfig.PROP_PROJECT_NUMBER)
+				+ " automatically when you save changes to it (at most once every " + Math.max(0, interval) + " seconds).\n\n"
+				+ "Choose \"Submit automatically on save\" again to stop.");
+		return null;
+	}
+
+	/**
+	 * Get the watcher, making sure that the user is told if watching
+	 * a project stops because of an error.
+	 */
+	private static SubmitWatcher getWatcher() {
+		SubmitWatcher watcher = SubmitWatcher.getInstance();
+		watcher.setStopListener(new SubmitWatcher.StopListener() {
+			public void watchStopped(final IProject project, final String reason) {
+				final Display display = PlatformUI.getWorkbench().getDisplay();
+				if (display == null || display.isDisposed()) {
+					return;
+				}
+				display.asyncExec(new Runnable() {
+					public void run() {
+						MessageDialog.openWarning(
+								display.getActiveShell(),
+								"Automatic submission stopped",
+								"Project " + project.getName() + " is no longer being submitted automatically.\n\n" + reason);
+					}
+				});
+			}
+		});
+		return watcher;
+	}
+}
@@ -0,0 +1,179 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.ui;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Combo;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.ui.part.ViewPart;
+
+import edu.ycp.cs.marmoset.uploader.Activator;
+import edu.ycp.cs.marmoset.uploader.core.SubmissionHistory;
+import edu.ycp.cs.marmoset.uploader.core.SubmissionMetrics;
+import edu.ycp.cs.marmoset.uploader.core.SubmissionMetrics.Phase;
+import edu.ycp.cs.marmoset.uploader.handlers.MetricsRegistry;
+
+/**
+ * View showing the history of submissions (see {@link SubmissionHistory}),
+ * either of all projects or of a single project.
+ *
+ * @author David Hovemeyer
+ */
+public class SubmissionHistoryView extends ViewPart {
+	/** The view id (see plugin.xml). */
+	public static final String ID = "edu.ycp.cs.marmoset.uploader.views.SubmissionHistoryView";
+
+	/** Maximum number of submissions shown. */
+	public static final int MAX_SHOWN = 500;
+
+	private static final String ALL_PROJECTS = "All projects";
+
+	private static final String[] COLUMNS = {
+		"Time", "Project", "Inbox", "Outcome", "Files", "Zip KB", "Upload ms", "Server ms", "Digest", "Message",
+	};
+
+	private static final int[] COLUMN_WIDTHS = {
+		130, 140, 80, 90, 60, 70, 80, 80, 100, 400,
+	};
+
+	// Number of characters of the content digest shown
+	private static final int DIGEST_CHARS = 12;
+
+	private static class HistoryLabelProvider extends LabelProvider implements ITableLabelProvider {
+		private final DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM);
+
+		public Image getColumnImage(Object element, int columnIndex) {
+			return null;
+		}
+
+		public String getColumnText(Object element, int columnIndex) {
+			SubmissionHistory.Record record = (SubmissionHistory.Record) element;
+			SubmissionMetrics metrics = record.getMetrics();
+			switch (columnIndex) {
+			case 0: return dateFormat.format(new Date(record.getTime()));
+			case 1: return record.getProjectName();
+			case 2: return record.getInbox();
+			case 3: return record.getOutcome();
+			case 4: return String.valueOf(metrics.getFilesScanned());
+			case 5: return String.valueOf(metrics.getArchiveBytes() / 1024);
+			case 6: return String.valueOf(metrics.getMillis(Phase.UPLOAD));
+			case 7: return String.valueOf(metrics.getMillis(Phase.SERVER));
+			case 8: return record.getDigest().substring(0, Math.min(DIGEST_CHARS, record.getDigest().length()));
+			case 9: return record.getMessage().replace('\n', ' ');
+			default: return "";
+			}
+		}
+	}
+
+	private Combo projectCombo;
+	private TableViewer viewer;
+
+	private final MetricsRegistry.Listener listener = new MetricsRegistry.Listener() {
+		public void metricsRecorded(MetricsRegistry.Record record) {
+			final Control control = viewer.getControl();
+			if (control.isDisposed()) {
+				return;
+			}
+			control.getDisplay().asyncExec(new Runnable() {
+				public void run() {
+					if (!control.isDisposed()) {
+						refresh();
+					}
+				}
+			});
+		}
+	};
+
+	@Override
+	public void createPartControl(Composite parent) {
+		parent.setLayout(new GridLayout(2, false));
+
+		Label label = new Label(parent, SWT.NONE);
+		label.setText("Project:");
+		projectCombo = new Combo(parent, SWT.READ_ONLY | SWT.DROP_DOWN);
+		projectCombo.add(ALL_PROJECTS);
+		for (IProject project : ResourcesPlugin.getWorkspace().getRoot().getProjects()) {
+			projectCombo.add(project.getName());
+		}
+		projectCombo.select(0);
+		projectCombo.addListener(SWT.Selection, new Listener() {
+			public void handleEvent(Event event) {
+				refresh();
+			}
+		});
+
+		viewer = new TableViewer(parent, SWT.H_SCROLL | SWT.V_SCROLL | SWT.FULL_SELECTION | SWT.BORDER);
+		Table table = viewer.getTable();
+		table.setLayoutData(new GridData(GridData.FILL, GridData.FILL, true, true, 2, 1));
+		table.setHeaderVisible(true);
+		table.setLinesVisible(true);
+		for (int i = 0; i < COLUMNS.length; i++) {
+			TableColumn column = new TableColumn(table, (i < 4 || i > 7) ? SWT.LEFT : SWT.RIGHT);
+			column.setText(COLUMNS[i]);
+			column.setWidth(COLUMN_WIDTHS[i]);
+		}
+
+		viewer.setContentProvider(new ArrayContentProvider());
+		viewer.setLabelProvider(new HistoryLabelProvider());
+		refresh();
+
+		MetricsRegistry.getInstance().addListener(listener);
+	}
+
+	/**
+	 * Show the most recent submissions of the selected project
+	 * (or of all projects).
+	 */
+	private void refresh() {
+		List<SubmissionHistory.Record> records = Collections.emptyList();
+		Activator activator = Activator.getDefault();
+		SubmissionHistory history = activator != null ? activator.getSubmissionHistory() : null;
+		if (history != null) {
+			int index = projectCombo.getSelectionIndex();
+			try {
+				records = index > 0
+						? history.getRecent(projectCombo.getItem(index), MAX_SHOWN)
+						: history.getRecent(MAX_SHOWN);
+			} catch (IOException e) {
+				Activator.logMessage("Could not read submission history: " + e.getMessage());
+			}
+		}
+		viewer.setInput(records);
+	}
+
+	@Override
+	public void setFocus() {
+		viewer.getControl().setFocus();
+	}
+
+	@Override
+	public void dispose() {
+		MetricsRegistry.getInstance().removeListener(listener);
+		super.dispose();
+	}
+}
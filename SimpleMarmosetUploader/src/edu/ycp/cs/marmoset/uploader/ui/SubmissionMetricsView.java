@@ -0,0 +1,123 @@
+// Simple Marmoset Uploader
+// Copyright (C) 2011-2014, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Free software, distributed under the terms of the Apache License, version 2.0
+// See: http://www.apache.org/licenses/LICENSE-2.0.html
+
+package edu.ycp.cs.marmoset.uploader.ui;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.ui.part.ViewPart;
+
+import edu.ycp.cs.marmoset.uploader.core.SubmissionMetrics;
+import edu.ycp.cs.marmoset.uploader.core.SubmissionMetrics.Phase;
+import edu.ycp.cs.marmoset.uploader.handlers.MetricsRegistry;
+
+/**
+ * View showing the timing and byte counts of recent submissions
+ * (see {@link MetricsRegistry}).
+ *
+ * @author David Hovemeyer
+ */
+public class SubmissionMetricsView extends ViewPart {
+	/** The view id (see plugin.xml). */
+	public static final String ID = "edu.ycp.cs.marmoset.uploader.views.SubmissionMetricsView";
+
+	private static final String[] COLUMNS = {
+		"Time", "Project", "Outcome", "Files", "Raw KB", "Zip KB",
+		"Config ms", "Scan ms", "Zip ms", "Upload ms", "Server ms", "TTFB ms", "Upload KB/s",
+	};
+
+	private static final int[] COLUMN_WIDTHS = {
+		130, 140, 90, 60, 70, 70, 70, 70, 70, 80, 80, 70, 90,
+	};
+
+	private static class MetricsLabelProvider extends LabelProvider implements ITableLabelProvider {
+		private final DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM);
+
+		public Image getColumnImage(Object element, int columnIndex) {
+			return null;
+		}
+
+		public String getColumnText(Object element, int columnIndex) {
+			MetricsRegistry.Record record = (MetricsRegistry.Record) element;
+			SubmissionMetrics metrics = record.getMetrics();
+			switch (columnIndex) {
+			case 0: return dateFormat.format(new Date(record.getTime()));
+			case 1: return record.getProjectName();
+			case 2: return record.getOutcome();
+			case 3: return String.valueOf(metrics.getFilesScanned());
+			case 4: return String.valueOf(metrics.getRawBytes() / 1024);
+			case 5: return String.valueOf(metrics.getArchiveBytes() / 1024);
+			case 6: return String.valueOf(metrics.getMillis(Phase.CONFIG));
+			case 7: return String.valueOf(metrics.getMillis(Phase.SCAN));
+			case 8: return String.valueOf(metrics.getMillis(Phase.ZIP));
+			case 9: return String.valueOf(metrics.getMillis(Phase.UPLOAD));
+			case 10: return String.valueOf(metrics.getMillis(Phase.SERVER));
+			case 11: return String.valueOf(metrics.getTimeToFirstByteMillis());
+			case 12: return String.valueOf(metrics.getUploadBytesPerSecond() / 1024);
+			default: return "";
+			}
+		}
+	}
+
+	private TableViewer viewer;
+
+	private final MetricsRegistry.Listener listener = new MetricsRegistry.Listener() {
+		public void metricsRecorded(MetricsRegistry.Record record) {
+			final Control control = viewer.getControl();
+			if (control.isDisposed()) {
+				return;
+			}
+			control.getDisplay().asyncExec(new Runnable() {
+				public void run() {
+					if (!control.isDisposed()) {
+						viewer.setInput(MetricsRegistry.getInstance().getRecords());
+					}
+				}
+			});
+		}
+	};
+
+	@Override
+	public void createPartControl(Composite parent) {
+		viewer = new TableViewer(parent, SWT.H_SCROLL | SWT.V_SCROLL | SWT.FULL_SELECTION | SWT.BORDER);
+		Table table = viewer.getTable();
+		table.setHeaderVisible(true);
+		table.setLinesVisible(true);
+		for (int i = 0; i < COLUMNS.length; i++) {
+			TableColumn column = new TableColumn(table, i < 3 ? SWT.LEFT : SWT.RIGHT);
+			column.setText(COLUMNS[i]);
+			column.setWidth(COLUMN_WIDTHS[i]);
+		}
+
+		viewer.setContentProvider(new ArrayContentProvider());
+		viewer.setLabelProvider(new MetricsLabelProvider());
+		viewer.setInput(MetricsRegistry.getInstance().getRecords());
+
+		MetricsRegistry.getInstance().addListener(listener);
+	}
+
+	@Override
+	public void setFocus() {
+		viewer.getControl().setFocus();
+	}
+
+	@Override
+	public void dispose() {
+		MetricsRegistry.getInstance().removeListener(listener);
+		super.dispose();
+	}
+}
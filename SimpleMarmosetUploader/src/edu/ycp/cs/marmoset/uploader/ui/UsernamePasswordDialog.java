@@ -40,6 +40,7 @@ public class UsernamePasswordDialog extends Dialog {
 	private String[] projectNumber;
 	private String courseName;
 	private String semester;
+	private String description;
 	private Label projectAndCourseDescription;
 	private Label message;
 	private Text usernameField;
@@ -48,6 +49,9 @@ public class UsernamePasswordDialog extends Dialog {
 	private String password;
 	private List<Button> radioButtons;
 	private String selectedInbox;
+	private boolean offerRemember;
+	private Button rememberButton;
+	private boolean remember;
 
 	/**
 	 * Constructor.
@@ -64,6 +68,19 @@ public class UsernamePasswordDialog extends Dialog {
 		this.semester = semester;
 	}
 
+	/**
+	 * Constructor for submitting several projects: only the username
+	 * and password are requested.
+	 * 
+	 * @param parentShell  the parent Shell
+	 * @param description  description of what is being submitted
+	 */
+	public UsernamePasswordDialog(Shell parentShell, String description) {
+		super(parentShell);
+		this.projectNumber = new String[0];
+		this.description = description;
+	}
+
 	/**
 	 * @return the username the user entered
 	 */
@@ -78,6 +95,23 @@ public class UsernamePasswordDialog extends Dialog {
 		return password;
 	}
 	
+	/**
+	 * Set whether to offer to remember the username and password.
+	 * Must be called before the dialog is opened.
+	 * 
+	 * @param offerRemember true if the user should be offered to be remembered
+	 */
+	public void setOfferRemember(boolean offerRemember) {
+		this.offerRemember = offerRemember;
+	}
+	
+	/**
+	 * @return true if the user chose to have the username and password remembered
+	 */
+	public boolean isRememberSelected() {
+		return remember;
+	}
+	
 	/**
 	 * @return the selected inbox
 	 */
@@ -117,6 +151,13 @@ public class UsernamePasswordDialog extends Dialog {
 		data = new GridData(GridData.FILL_HORIZONTAL);
 		passwordField.setLayoutData(data);
 
+		if (offerRemember) {
+			rememberButton = new Button(comp, SWT.CHECK);
+			rememberButton.setText("Remember me for this course (until I haven't submitted for a while)");
+			data = new GridData(GridData.FILL, GridData.FILL, true, true, 2, 1);
+			rememberButton.setLayoutData(data);
+		}
+
 		if (projectNumber.length > 1) {
 			// Multiple projects are available to submit.
 			// Show radio buttons to allow user to choose.
@@ -148,7 +189,9 @@ public class UsernamePasswordDialog extends Dialog {
 	}
 
 	private String getProjectTitle() {
-		if (projectNumber.length == 1) {
+		if (description != null) {
+			return description;
+		} else if (projectNumber.length == 1) {
 			// Single inbox
 			return "Submitting project " + projectNumber[0] + " for course " + courseName + ", " + semester;
 		} else {
@@ -167,7 +210,7 @@ public class UsernamePasswordDialog extends Dialog {
 	protected void buttonPressed(int buttonId) {
 		if (buttonId == IDialogConstants.OK_ID) {
 			// Check to make sure an inbox was selected
-			if (doGetSelectedProject() == null) {
+			if (projectNumber.length > 0 && doGetSelectedProject() == null) {
 				MessageDialog.openInformation(getParentShell(), "No inbox selected", "Please choose an inbox");
 				return;
 			}
@@ -180,6 +223,7 @@ public class UsernamePasswordDialog extends Dialog {
 		this.username = usernameField.getText();
 		this.password = passwordField.getText();
 		this.selectedInbox = doGetSelectedProject();
+		this.remember = rememberButton != null && rememberButton.getSelection();
 		super.okPressed();
 	}
 	